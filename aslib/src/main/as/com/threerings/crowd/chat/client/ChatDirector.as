@@ -45,6 +45,7 @@ import com.threerings.crowd.chat.data.ChatChannel;
 import com.threerings.crowd.chat.data.ChatCodes;
 import com.threerings.crowd.chat.data.ChatMarshaller;
 import com.threerings.crowd.chat.data.ChatMessage;
+import com.threerings.crowd.chat.data.EncodedChatMessage;
 import com.threerings.crowd.chat.data.SystemMessage;
 import com.threerings.crowd.chat.data.TellFeedbackMessage;
 import com.threerings.crowd.chat.data.UserMessage;
@@ -598,8 +599,10 @@ public class ChatDirector extends BasicDirector
     public function messageReceived (event :MessageEvent) :void
     {
         if (ChatCodes.CHAT_NOTIFICATION === event.getName()) {
-            processReceivedMessage(event.getArgs()[0] as ChatMessage,
-                getLocalType(event.getTargetOid()));
+            var arg :Object = event.getArgs()[0];
+            var msg :ChatMessage = (arg is EncodedChatMessage) ?
+                EncodedChatMessage(arg).getMessage() : (arg as ChatMessage);
+            processReceivedMessage(msg, getLocalType(event.getTargetOid()));
 
         } else if (ChatCodes.CHAT_CHANNEL_NOTIFICATION === event.getName()) {
             processReceivedMessage(event.getArgs()[1] as ChatMessage,
@@ -0,0 +1,73 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.crowd.chat.data {
+
+import flash.utils.ByteArray;
+
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.Streamable;
+
+/**
+ * Carries a chat message that was flattened exactly once, on the server,
+ * so that it could be delivered to many hearers without being streamed
+ * afresh for each of them.
+ */
+public class EncodedChatMessage
+    implements Streamable
+{
+    /**
+     * Returns the message carried by this instance, decoding it if
+     * necessary.
+     */
+    public function getMessage () :ChatMessage
+    {
+        if (_message == null) {
+            _data.position = 0;
+            _message = (new ObjectInputStream(_data).readObject(ChatMessage) as ChatMessage);
+        }
+        return _message;
+    }
+
+    // from interface Streamable
+    public function readObject (ins :ObjectInputStream) :void
+    {
+        _data = new ByteArray();
+        var length :int = ins.readInt();
+        if (length > 0) {
+            ins.readBytes(_data, 0, length);
+        }
+    }
+
+    // from interface Streamable
+    public function writeObject (out :ObjectOutputStream) :void
+    {
+        throw new Error("Encoded chat messages are only sent by the server");
+    }
+
+    /** The decoded message. */
+    protected var _message :ChatMessage;
+
+    /** The flattened message. */
+    protected var _data :ByteArray;
+}
+}
@@ -0,0 +1,64 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.crowd.data {
+
+import com.threerings.io.ObjectInputStream;
+
+import com.threerings.presents.dobj.DObject;
+import com.threerings.presents.dobj.DSet;
+
+/**
+ * Represents one cell of a place that has been partitioned into areas of
+ * interest. Occupants of a large place subscribe only to the areas near
+ * them and thereby hear only about the occupants and chatter in their
+ * vicinity.
+ */
+public class AreaObject extends DObject
+{
+    /** The name of the message posted on a body object when the set of
+     * areas in which it is interested changes. */
+    public static const AREAS_CHANGED :String = "areasChanged";
+
+    // AUTO-GENERATED: FIELDS START
+    /** The field name of the <code>placeOid</code> field. */
+    public static const PLACE_OID :String = "placeOid";
+
+    /** The field name of the <code>occupantInfo</code> field. */
+    public static const OCCUPANT_INFO :String = "occupantInfo";
+    // AUTO-GENERATED: FIELDS END
+
+    /** The oid of the place object of which this area is a part. */
+    public var placeOid :int;
+
+    /** Contains an info record for each body that is currently located in
+     * this area. */
+    public var occupantInfo :DSet = new DSet();
+
+    // documentation inherited
+    override public function readObject (ins :ObjectInputStream) :void
+    {
+        super.readObject(ins);
+        placeOid = ins.readInt();
+        occupantInfo = DSet(ins.readObject());
+    }
+}
+}
@@ -37,6 +37,8 @@ import com.threerings.presents.dobj.DObjectManager;
 import com.threerings.presents.net.AuthResponseData;
 import com.threerings.presents.net.BootstrapData;
 import com.threerings.presents.net.Credentials;
+import com.threerings.presents.net.MigrateNotification;
+import com.threerings.presents.net.MigrationCreds;
 import com.threerings.presents.net.PingRequest;
 import com.threerings.presents.net.PongResponse;
 import com.threerings.presents.net.ThrottleUpdatedMessage;
@@ -518,6 +520,26 @@ public class Client extends EventDispatcher
         }
     }
 
+    /**
+     * Called when our server tells us that our session has been migrated to another server. We
+     * move to that server, presenting the ticket it issued in place of our credentials, and then
+     * go back to using our own credentials for any future logons.
+     */
+    internal function gotMigrateNotification (msg :MigrateNotification) :void
+    {
+        log.info("Following our session to its new server",
+            "hostname", msg.hostname, "ports", msg.ports);
+
+        var creds :Credentials = _creds;
+        _creds = new MigrationCreds(msg.ticket, creds);
+        moveToServer(msg.hostname, msg.ports, new ConfirmAdapter(function () :void {
+            _creds = creds;
+        }, function (cause :String) :void {
+            log.warning("Failed to follow our session to its new server", "cause", cause);
+            _creds = creds;
+        }));
+    }
+
     internal function setOutgoingMessageThrottle (messagesPerSec :int) :void
     {
         _comm.postMessage(new ThrottleUpdatedMessage(messagesPerSec));
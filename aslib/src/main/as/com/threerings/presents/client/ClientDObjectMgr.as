@@ -42,6 +42,7 @@ import com.threerings.presents.net.DownstreamMessage;
 import com.threerings.presents.net.EventNotification;
 import com.threerings.presents.net.FailureResponse;
 import com.threerings.presents.net.ForwardEventRequest;
+import com.threerings.presents.net.MigrateNotification;
 import com.threerings.presents.net.ObjectResponse;
 import com.threerings.presents.net.PongResponse;
 import com.threerings.presents.net.SubscribeRequest;
@@ -194,6 +195,10 @@ public class ClientDObjectMgr
 
         } else if (msg is UpdateThrottleMessage) {
             _client.setOutgoingMessageThrottle((msg as UpdateThrottleMessage).messagesPerSec);
+
+        } else if (msg is MigrateNotification) {
+            _client.gotMigrateNotification(msg as MigrateNotification);
+
         } else if (msg is CompoundDownstreamMessage) {
             for each (var submsg :DownstreamMessage in CompoundDownstreamMessage(msg).msgs) {
                 processMessage(submsg);
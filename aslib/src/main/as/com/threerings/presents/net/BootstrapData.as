@@ -44,6 +44,10 @@ public class BootstrapData
     /** A list of handles to invocation services. */
     public var services :Array;
 
+    /** A ticket that can be used to reattach to this session after a dropped connection, or null
+     * if the server does not issue resume tickets. */
+    public var resumeTicket :String;
+
     // documentation inherited from interface Streamable
     public function writeObject (out :ObjectOutputStream) :void
     {
@@ -56,6 +60,7 @@ public class BootstrapData
         connectionId = ins.readInt();
         clientOid = ins.readInt();
         services = (ins.readField("java.util.List") as Array);
+        resumeTicket = (ins.readField(String) as String);
     }
 }
 }
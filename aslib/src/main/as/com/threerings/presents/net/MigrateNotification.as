@@ -0,0 +1,54 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.net {
+
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.TypedArray;
+
+/**
+ * Instructs the client that its session has been migrated to another server and that it should
+ * move there, authenticating with {@link MigrationCreds} that present the supplied ticket.
+ */
+public class MigrateNotification extends DownstreamMessage
+{
+    /** The hostname of the server to which the client should move. */
+    public var hostname :String;
+
+    /** The ports on which the client should connect to its new server. */
+    public var ports :TypedArray;
+
+    /** The ticket the client should present to its new server. */
+    public var ticket :String;
+
+    public function MigrateNotification ()
+    {
+    }
+
+    override public function readObject (ins :ObjectInputStream) :void
+    {
+        super.readObject(ins);
+        hostname = (ins.readField(String) as String);
+        ports = (ins.readField("[I") as TypedArray);
+        ticket = (ins.readField(String) as String);
+    }
+}
+}
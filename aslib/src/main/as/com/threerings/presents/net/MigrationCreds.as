@@ -0,0 +1,71 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.net {
+
+import com.threerings.io.ObjectOutputStream;
+
+import com.threerings.util.Joiner;
+
+/**
+ * Credentials used by a client to arrive at the server to which its session was migrated. The
+ * credentials the client originally logged on with are sent along, but the server uses those
+ * authenticated by the client's previous server in their place.
+ */
+public class MigrationCreds extends Credentials
+{
+    /**
+     * Creates credentials that present the supplied migration ticket.
+     */
+    public function MigrationCreds (ticket :String = null, creds :Credentials = null)
+    {
+        _ticket = ticket;
+        _creds = creds;
+    }
+
+    /**
+     * Returns the credentials with which the client originally logged on.
+     */
+    public function getCredentials () :Credentials
+    {
+        return _creds;
+    }
+
+    // from interface Streamable
+    override public function writeObject (out :ObjectOutputStream) :void
+    {
+        super.writeObject(out);
+        out.writeField(_ticket);
+        out.writeObject(_creds);
+    }
+
+    // from Object
+    override protected function toStringJoiner (j :Joiner) :void
+    {
+        super.toStringJoiner(j);
+        // the ticket is left out as it would allow anyone reading the logs to claim the session
+        j.add("creds", _creds);
+    }
+
+    protected var _ticket :String;
+    protected var _creds :Credentials;
+}
+}
@@ -54,6 +54,7 @@ import com.threerings.presents.dobj.MessageListener;
 
 import com.threerings.crowd.chat.data.ChatCodes;
 import com.threerings.crowd.chat.data.ChatMessage;
+import com.threerings.crowd.chat.data.EncodedChatMessage;
 import com.threerings.crowd.chat.data.SystemMessage;
 import com.threerings.crowd.chat.data.TellFeedbackMessage;
 import com.threerings.crowd.chat.data.UserMessage;
@@ -662,7 +663,9 @@ public class ChatDirector extends BasicDirector
     public void messageReceived (MessageEvent event)
     {
         if (CHAT_NOTIFICATION.equals(event.getName())) {
-            ChatMessage msg = (ChatMessage)event.getArgs()[0];
+            Object arg = event.getArgs()[0];
+            ChatMessage msg = (arg instanceof EncodedChatMessage) ?
+                ((EncodedChatMessage)arg).getMessage() : (ChatMessage)arg;
             String localtype = getLocalType(event.getTargetOid());
             processReceivedMessage(msg, localtype);
         }
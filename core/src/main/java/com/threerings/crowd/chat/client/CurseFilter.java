@@ -21,6 +21,7 @@
 
 package com.threerings.crowd.chat.client;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
@@ -28,6 +29,7 @@ import java.util.regex.Pattern;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 
 import com.samskivert.util.RandomUtil;
 import com.threerings.util.Name;
@@ -35,7 +37,10 @@ import com.threerings.util.Name;
 import static com.threerings.crowd.Log.log;
 
 /**
- * A chat filter that can filter out curse words from user chat.
+ * A chat filter that can filter out curse words from user chat. Plain curse and stop words are
+ * found in a single pass over each message by {@link WordMatcher}s. Words that contain regular
+ * expression syntax (or a <code>*</code> anywhere but at their ends) are matched by individual
+ * regular expressions, as they always have been.
  */
 public abstract class CurseFilter implements ChatFilter
 {
@@ -64,7 +69,9 @@ public abstract class CurseFilter implements ChatFilter
      *
      * The key/value pairs are separated by spaces, * matches word characters and the value after
      * the = is the string into which to convert the text when converting to the vernacular.
-     * Underscores in the target string will be turned into spaces.
+     * Underscores in the target string will be turned into spaces. Apart from a leading or
+     * trailing *, a curse word is a regular expression, so <code>sh[i1]t</code> and
+     * <code>fu*ck</code> work as they would in a pattern.
      *
      * <p> And stopWords should be in the following format:
      *
@@ -72,7 +79,8 @@ public abstract class CurseFilter implements ChatFilter
      * *faggot* rape rapes raped raping
      * </pre>
      *
-     * Words are separated by spaces and * matches any other word characters.
+     * Words are separated by spaces and * matches any other word characters. Stop words are
+     * otherwise treated as regular expressions, as are curse words.
      */
     public CurseFilter (String curseWords, String stopWords)
     {
@@ -87,58 +95,117 @@ public abstract class CurseFilter implements ChatFilter
 
     // from interface ChatFilter
     public String filter (String msg, Name otherUser, boolean outgoing)
+    {
+        return filter(msg, getFilterMode());
+    }
+
+    /**
+     * Filters the supplied message in the specified mode, returning the filtered message or null
+     * if it should be dropped. This does not modify the filter in any way, so a single filter may
+     * be used by any number of threads at once, for example by a server filtering chat on behalf
+     * of its clients.
+     */
+    public String filter (String msg, Mode level)
     {
         // first, check against the drop-always list
-        _stopMatcher.reset(msg);
-        if (_stopMatcher.find()) {
+        if (_stopWords.matches(msg) || (_stopPattern != null && _stopPattern.matcher(msg).find())) {
             return null;
         }
 
-        // then see what kind of curse filtering the user has configured
-        Mode level = getFilterMode();
+        // then see what kind of curse filtering is desired
         if (level == Mode.UNFILTERED) {
             return msg;
+        } else if (level == Mode.DROP) {
+            if (_curseWords.matches(msg)) {
+                return null;
+            }
+            for (Pattern pattern : _cursePatterns) {
+                if (pattern.matcher(msg).find()) {
+                    return null;
+                }
+            }
+            return msg;
         }
 
-        StringBuffer inbuf = new StringBuffer(msg);
-        StringBuffer outbuf = new StringBuffer(msg.length());
-        for (int ii=0, nn=_matchers.length; ii < nn; ii++) {
-            Matcher m = _matchers[ii];
-            m.reset(inbuf);
-            while (m.find()) {
-                switch (level) {
-                case DROP:
-                    return null;
+        return replacePatterns(replaceWords(msg, level), level);
+    }
 
-                case COMIC:
-                    m.appendReplacement(outbuf,
-                        _replacements[ii].replace(" ", comicChars(_comicLength[ii])));
-                    break;
+    /**
+     * Replaces the plain curse words in the supplied message in the specified mode.
+     */
+    protected String replaceWords (String msg, Mode level)
+    {
+        List<WordMatcher.Match> matches = _curseWords.findAll(msg);
+        if (matches.isEmpty()) {
+            return msg;
+        }
 
-                case VERNACULAR:
-                    String vernacular = _vernacular[ii];
+        // replace each curse word, leaving the rest of the word in which it appears intact
+        StringBuilder buf = new StringBuilder(msg.length() + 16);
+        int pos = 0;
+        for (WordMatcher.Match m : matches) {
+            buf.append(msg, pos, m.start);
+            switch (level) {
+            case COMIC:
+                buf.append(comicChars(_comicLength[m.word]));
+                break;
+
+            case VERNACULAR:
+                String vernacular = _vernacular[m.word];
+                if (Character.isUpperCase(msg.codePointAt(m.start))) {
+                    int firstCharLen = Character.charCount(vernacular.codePointAt(0));
+                    vernacular = vernacular.substring(0, firstCharLen).toUpperCase() +
+                                 vernacular.substring(firstCharLen);
+                }
+                buf.append(vernacular);
+                break;
+
+            case DROP:
+            case UNFILTERED:
+                // We returned above in these cases, so it should be impossible to wind up here,
+                // but let's enumerate them so we can let the compiler scream about missing enum
+                // values in a switch
+                log.warning("Omg? We're replacing curse words in a mode that doesn't?");
+                break;
+            }
+            pos = m.end;
+        }
+        buf.append(msg, pos, msg.length());
+        return buf.toString();
+    }
+
+    /**
+     * Replaces the curse words that are matched by regular expressions in the supplied message in
+     * the specified mode, applying each expression in turn.
+     */
+    protected String replacePatterns (String msg, Mode level)
+    {
+        StringBuffer inbuf = null, outbuf = null;
+        for (int ii = 0; ii < _cursePatterns.length; ii++) {
+            Matcher m = _cursePatterns[ii].matcher((inbuf == null) ? msg : inbuf);
+            if (!m.find()) {
+                continue;
+            }
+            if (inbuf == null) {
+                inbuf = new StringBuffer(msg);
+                outbuf = new StringBuffer(msg.length());
+                m.reset(inbuf);
+                m.find();
+            }
+            do {
+                if (level == Mode.COMIC) {
+                    m.appendReplacement(outbuf, _patternReplacements[ii].replace(
+                        " ", comicChars(_patternComicLength[ii])));
+                } else {
+                    String vernacular = _patternVernacular[ii];
                     if (Character.isUpperCase(m.group(2).codePointAt(0))) {
                         int firstCharLen = Character.charCount(vernacular.codePointAt(0));
                         vernacular = vernacular.substring(0, firstCharLen).toUpperCase() +
                                      vernacular.substring(firstCharLen);
                     }
-                    m.appendReplacement(outbuf, _replacements[ii].replace(" ", vernacular));
-                    break;
-
-                case UNFILTERED:
-                    // We returned the msg unadulterated above in this case, so it should be
-                    // impossible to wind up here, but let's enumerate it so we can let the compiler
-                    // scream about missing enum values in a switch
-                    log.warning("Omg? We're trying to filter chat even though we're unfiltered?");
-                    break;
-
+                    m.appendReplacement(outbuf, _patternReplacements[ii].replace(" ", vernacular));
                 }
-            }
-            if (outbuf.length() == 0) {
-                // optimization: if we didn't find a match, jump to the next
-                // pattern without doing any StringBuilder jimmying
-                continue;
-            }
+            } while (m.find());
             m.appendTail(outbuf);
 
             // swap the buffers around and clear the output
@@ -147,8 +214,7 @@ public abstract class CurseFilter implements ChatFilter
             outbuf = temp;
             outbuf.setLength(0);
         }
-
-        return inbuf.toString();
+        return (inbuf == null) ? msg : inbuf.toString();
     }
 
     /**
@@ -156,15 +222,14 @@ public abstract class CurseFilter implements ChatFilter
      */
     protected void configureCurseWords (String curseWords)
     {
-        StringTokenizer st = new StringTokenizer(curseWords);
-        int numWords = st.countTokens();
-
-        _matchers = new Matcher[numWords];
-        _replacements = new String[numWords];
-        _vernacular = new String[numWords];
-        _comicLength = new int[numWords];
-
-        for (int ii=0; ii < numWords; ii++) {
+        List<String> curses = Lists.newArrayList();
+        List<String> vernacular = Lists.newArrayList();
+        List<Integer> comicLength = Lists.newArrayList();
+        List<Pattern> patterns = Lists.newArrayList();
+        List<String> preplacements = Lists.newArrayList();
+        List<String> pvernacular = Lists.newArrayList();
+        List<Integer> pcomicLength = Lists.newArrayList();
+        for (StringTokenizer st = new StringTokenizer(curseWords); st.hasMoreTokens(); ) {
             String mapping = st.nextToken();
             StringTokenizer st2 = new StringTokenizer(mapping, "=");
             if (st2.countTokens() != 2) {
@@ -173,31 +238,50 @@ public abstract class CurseFilter implements ChatFilter
                 continue;
             }
             String curse = st2.nextToken();
+            String vern = st2.nextToken().replace('_', ' ');
+            String word = stripWildcards(curse);
+            if (word.length() == 0) {
+                log.warning("Ignoring empty curse word in x.cursewords properties (" +
+                    mapping + ").");
+                continue;
+            }
 
-            String s = "";
-            String p = "";
+            if (isPlainWord(word)) {
+                curses.add(curse);
+                vernacular.add(vern);
+                comicLength.add(word.codePointCount(0, word.length()));
+                continue;
+            }
+
+            // the word is a regular expression, which we match as we always have
+            String r = "", p = "";
             if (curse.startsWith("*")) {
-                curse = curse.substring(1);
                 p += "([\\p{L}\\p{Digit}]*)";
-                s += "$1";
+                r += "$1";
             } else {
                 p += "()";
             }
-            s += " ";
+            r += " ";
             p += " ";
-            if (curse.endsWith("*")) {
-                curse = curse.substring(0, curse.length() - 1);
+            if (curse.length() > 1 && curse.endsWith("*")) {
                 p += "([\\p{L}\\p{Digit}]*)";
-                s += "$3";
+                r += "$3";
             }
-
-            String pattern = "\\b" + p.replace(" ", "(" + curse + ")") + "\\b";
-            Pattern pat = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
-            _matchers[ii] = pat.matcher("");
-            _replacements[ii] = s;
-            _vernacular[ii] = st2.nextToken().replace('_', ' ');
-            _comicLength[ii] = curse.codePointCount(0, curse.length());
+            String pattern = "\\b" + p.replace(" ", "(" + word + ")") + "\\b";
+            patterns.add(
+                Pattern.compile(pattern, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+            preplacements.add(r);
+            pvernacular.add(vern);
+            pcomicLength.add(word.codePointCount(0, word.length()));
         }
+
+        _curseWords = new WordMatcher(curses, false);
+        _vernacular = vernacular.toArray(new String[vernacular.size()]);
+        _comicLength = Ints.toArray(comicLength);
+        _cursePatterns = patterns.toArray(new Pattern[patterns.size()]);
+        _patternReplacements = preplacements.toArray(new String[preplacements.size()]);
+        _patternVernacular = pvernacular.toArray(new String[pvernacular.size()]);
+        _patternComicLength = Ints.toArray(pcomicLength);
     }
 
     /**
@@ -205,22 +289,34 @@ public abstract class CurseFilter implements ChatFilter
      */
     protected void configureStopWords (String stopWords)
     {
+        // plain words with wildcards only at their ends can be found by our matcher (unless a
+        // derived class wants every word converted by getStopWordRegexp); any others are
+        // converted to a regular expression
+        boolean plain = matchPlainStopWords();
+        List<String> words = Lists.newArrayList();
         List<String> patterns = Lists.newArrayList();
         for (StringTokenizer st = new StringTokenizer(stopWords); st.hasMoreTokens(); ) {
-            patterns.add(getStopWordRegexp(st.nextToken()));
+            String word = st.nextToken();
+            if (plain && isPlainWord(stripWildcards(word))) {
+                words.add(word);
+            } else {
+                patterns.add(getStopWordRegexp(word));
+            }
+        }
+        if (!patterns.isEmpty()) {
+            setStopPattern("(" + Joiner.on('|').join(patterns) + ")");
         }
-        String pattern = patterns.isEmpty()
-            ? ".\\A" // matches nothing
-            : "(" + Joiner.on('|').join(patterns) + ")";
-        setStopPattern(pattern);
+        _stopWords = new WordMatcher(words, true);
     }
 
     /**
-     * Sets our stop word matcher to one for the given regular expression.
+     * Sets our stop word pattern to the given regular expression, replacing any stop words
+     * previously configured: messages that match it are dropped.
      */
     protected void setStopPattern (String pattern)
     {
-        _stopMatcher = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE).matcher("");
+        _stopPattern = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
+        _stopWords = new WordMatcher(Collections.<String>emptyList(), true);
     }
 
     /**
@@ -231,21 +327,71 @@ public abstract class CurseFilter implements ChatFilter
         return "\\b" + word.replace("*", "[A-Za-z]*") + "\\b";
     }
 
-    /** A matcher that will always cause a message to be dropped if it matches. */
-    protected Matcher _stopMatcher;
+    /**
+     * Returns true if stop words that contain no regular expression syntax should be found by our
+     * {@link WordMatcher}, false if every stop word should be converted by {@link
+     * #getStopWordRegexp}. Derived classes that customize that conversion will generally want to
+     * return false here.
+     */
+    protected boolean matchPlainStopWords ()
+    {
+        return true;
+    }
 
-    /** Matchers for each curseword. */
-    protected Matcher[] _matchers;
+    /**
+     * Returns the supplied word without its leading and trailing wildcard, if any.
+     */
+    protected static String stripWildcards (String word)
+    {
+        int start = word.startsWith("*") ? 1 : 0;
+        int end = Math.max(start, word.endsWith("*") ? word.length() - 1 : word.length());
+        return word.substring(start, end);
+    }
+
+    /**
+     * Returns true if the supplied word (stripped of its leading and trailing wildcards) contains
+     * no regular expression syntax and can therefore be found by a {@link WordMatcher}.
+     */
+    protected static boolean isPlainWord (String word)
+    {
+        for (int ii = 0, nn = word.length(); ii < nn; ii++) {
+            if (REGEXP_CHARS.indexOf(word.charAt(ii)) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Finds the stop words that always cause a message to be dropped. */
+    protected WordMatcher _stopWords = new WordMatcher(Collections.<String>emptyList(), true);
+
+    /** A pattern for any stop words that our matcher cannot handle, or null. */
+    protected Pattern _stopPattern;
+
+    /** Finds curse words. */
+    protected WordMatcher _curseWords;
 
     /** Length of comic-y replacements for each curseword. */
     protected int[] _comicLength;
 
-    /** Replacements. */
-    protected String[] _replacements;
-
     /** Replacements for each curseword "in the vernacular". */
     protected String[] _vernacular;
 
+    /** The patterns matching each curse word that is a regular expression. */
+    protected Pattern[] _cursePatterns;
+
+    /** The replacement (preserving any wildcard matches) for each curse pattern. */
+    protected String[] _patternReplacements;
+
+    /** The replacement "in the vernacular" for each curse pattern. */
+    protected String[] _patternVernacular;
+
+    /** The length of comic-y replacements for each curse pattern. */
+    protected int[] _patternComicLength;
+
     /** Comic replacement characters. */
     protected static final Character[] COMIC_CHARS = { '!', '@', '#', '%', '&', '*' };
+
+    /** Characters that have special meaning in a regular expression. */
+    protected static final String REGEXP_CHARS = "\\^$.|?*+()[]{}";
 }
@@ -0,0 +1,340 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.crowd.chat.client;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+
+import static com.threerings.crowd.Log.log;
+
+/**
+ * Finds occurrences of any of a set of words in a piece of text in a single pass, using an
+ * Aho-Corasick automaton. Matching is case-insensitive. A word may be preceded and/or followed by
+ * a <code>*</code>, which matches any run of wildcard characters (letters and digits, or only
+ * ASCII letters if so configured). As with a regular expression delimited by <code>\b</code>, a
+ * word without a leading wildcard must begin a word of the text and one without a trailing
+ * wildcard must end one; with wildcards, the word and the wildcard characters around it must
+ * make up a whole word of the text.
+ *
+ * <p> Instances are immutable and may be used by any number of threads at once.
+ */
+public class WordMatcher
+{
+    /** Describes an occurrence of one of our words in some text. */
+    public static class Match
+    {
+        /** The index of the word that was found, in the order the words were supplied. */
+        public final int word;
+
+        /** The index in the text of the first character of the word (excluding wildcards). */
+        public final int start;
+
+        /** The index in the text following the last character of the word. */
+        public final int end;
+
+        public Match (int word, int start, int end)
+        {
+            this.word = word;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return "[word=" + word + ", start=" + start + ", end=" + end + "]";
+        }
+    }
+
+    /**
+     * Creates a matcher for the supplied words.
+     *
+     * @param asciiWildcards if true, wildcards match only the ASCII letters, otherwise they match
+     * any letter or ASCII digit.
+     */
+    public WordMatcher (Collection<String> words, boolean asciiWildcards)
+    {
+        _asciiWildcards = asciiWildcards;
+        int count = words.size();
+        _lengths = new int[count];
+        _leading = new boolean[count];
+        _trailing = new boolean[count];
+
+        // build the trie of our words
+        List<Map<Character, Integer>> edges = Lists.newArrayList();
+        List<List<Integer>> outputs = Lists.newArrayList();
+        edges.add(Maps.<Character, Integer>newHashMap());
+        outputs.add(Lists.<Integer>newArrayList());
+        int idx = 0;
+        for (String word : words) {
+            int start = 0, end = word.length();
+            if (word.startsWith("*")) {
+                _leading[idx] = true;
+                start++;
+            }
+            if (end > start && word.charAt(end - 1) == '*') {
+                _trailing[idx] = true;
+                end--;
+            }
+            if (start == end) {
+                log.warning("Ignoring empty word", "word", word);
+                idx++;
+                continue;
+            }
+
+            int node = 0;
+            for (int ii = start; ii < end; ii++) {
+                char c = fold(word.charAt(ii));
+                Integer next = edges.get(node).get(c);
+                if (next == null) {
+                    next = edges.size();
+                    edges.get(node).put(c, next);
+                    edges.add(Maps.<Character, Integer>newHashMap());
+                    outputs.add(Lists.<Integer>newArrayList());
+                }
+                node = next;
+            }
+            outputs.get(node).add(idx);
+            _lengths[idx++] = end - start;
+        }
+
+        // compact the trie into arrays and compute the failure links breadth first; each node
+        // outputs its own words and those of the node its failure link leads to
+        int nodes = edges.size();
+        _chars = new char[nodes][];
+        _next = new int[nodes][];
+        _fail = new int[nodes];
+        _outputs = new int[nodes][];
+        LinkedList<Integer> queue = Lists.newLinkedList();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int node = queue.removeFirst();
+            Map<Character, Integer> nedges = edges.get(node);
+            char[] chars = new char[nedges.size()];
+            int ii = 0;
+            for (Character c : nedges.keySet()) {
+                chars[ii++] = c;
+            }
+            Arrays.sort(chars);
+            int[] next = new int[chars.length];
+            for (ii = 0; ii < chars.length; ii++) {
+                next[ii] = nedges.get(chars[ii]);
+            }
+            _chars[node] = chars;
+            _next[node] = next;
+
+            List<Integer> out = outputs.get(node);
+            if (node != 0) {
+                out.addAll(Ints.asList(_outputs[_fail[node]]));
+            }
+            _outputs[node] = Ints.toArray(out);
+
+            for (ii = 0; ii < chars.length; ii++) {
+                int child = next[ii];
+                _fail[child] = (node == 0) ? 0 : step(_fail[node], chars[ii]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns true if any of our words occurs in the supplied text.
+     */
+    public boolean matches (CharSequence text)
+    {
+        return !find(text, true).isEmpty();
+    }
+
+    /**
+     * Returns the occurrences of our words in the supplied text, in order. Where occurrences
+     * overlap, the one that starts first (or is longest, or was supplied first) is chosen.
+     */
+    public List<Match> findAll (CharSequence text)
+    {
+        return find(text, false);
+    }
+
+    /**
+     * Finds the occurrences of our words in the supplied text, stopping at the first one found if
+     * <code>first</code> is true.
+     */
+    protected List<Match> find (CharSequence text, boolean first)
+    {
+        int length = text.length();
+        if (length == 0 || _fail.length == 1) {
+            return Collections.emptyList();
+        }
+
+        // note where the run of wildcard characters starting at each position ends
+        int[] wildEnd = new int[length + 1];
+        wildEnd[length] = length;
+        for (int ii = length - 1; ii >= 0; ii--) {
+            wildEnd[ii] = isWildcard(text.charAt(ii)) ? wildEnd[ii + 1] : ii;
+        }
+
+        // and, as we go, where the run ending at each position starts
+        int[] wildStart = new int[length + 1];
+        List<Match> matches = null;
+        int state = 0;
+        for (int ii = 0; ii < length; ii++) {
+            char c = text.charAt(ii);
+            wildStart[ii + 1] = isWildcard(c) ? wildStart[ii] : ii + 1;
+            state = step(state, fold(c));
+            for (int word : _outputs[state]) {
+                int end = ii + 1, start = end - _lengths[word];
+                if (!isBounded(text, word, start, end, wildStart, wildEnd)) {
+                    continue;
+                }
+                Match match = new Match(word, start, end);
+                if (first) {
+                    return Collections.singletonList(match);
+                }
+                if (matches == null) {
+                    matches = Lists.newArrayList();
+                }
+                matches.add(match);
+            }
+        }
+        if (matches == null) {
+            return Collections.emptyList();
+        }
+
+        // discard overlapping matches
+        Collections.sort(matches, MATCH_ORDER);
+        List<Match> chosen = Lists.newArrayListWithCapacity(matches.size());
+        int pos = 0;
+        for (Match match : matches) {
+            if (match.start >= pos) {
+                chosen.add(match);
+                pos = match.end;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Returns true if the specified occurrence of a word, along with any wildcard characters it
+     * allows before and after it, makes up a whole word of the text.
+     */
+    protected boolean isBounded (
+        CharSequence text, int word, int start, int end, int[] wildStart, int[] wildEnd)
+    {
+        return (isBoundary(text, start) || (_leading[word] && isBoundary(text, wildStart[start])))
+            && (isBoundary(text, end) || (_trailing[word] && isBoundary(text, wildEnd[end])));
+    }
+
+    /**
+     * Returns the state reached by following the supplied (folded) character from the specified
+     * state.
+     */
+    protected int step (int state, char c)
+    {
+        while (true) {
+            int idx = Arrays.binarySearch(_chars[state], c);
+            if (idx >= 0) {
+                return _next[state][idx];
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = _fail[state];
+        }
+    }
+
+    /**
+     * Returns true if the supplied character may be matched by a wildcard.
+     */
+    protected boolean isWildcard (char c)
+    {
+        return _asciiWildcards ? ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) :
+            (Character.isLetter(c) || (c >= '0' && c <= '9'));
+    }
+
+    /**
+     * Returns true if the specified position in the text is a word boundary, in the sense of a
+     * <code>\b</code> in a regular expression.
+     */
+    protected static boolean isBoundary (CharSequence text, int pos)
+    {
+        boolean before = pos > 0 && isWordChar(text.charAt(pos - 1));
+        boolean after = pos < text.length() && isWordChar(text.charAt(pos));
+        return before != after;
+    }
+
+    /**
+     * Returns true if the supplied character is part of a word.
+     */
+    protected static boolean isWordChar (char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * Folds the case of the supplied character.
+     */
+    protected static char fold (char c)
+    {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /** Whether our wildcards match only the ASCII letters. */
+    protected boolean _asciiWildcards;
+
+    /** The length of each of our words, excluding wildcards. */
+    protected int[] _lengths;
+
+    /** Whether each of our words has a leading and trailing wildcard. */
+    protected boolean[] _leading, _trailing;
+
+    /** The characters labeling the edges leaving each node, sorted. */
+    protected char[][] _chars;
+
+    /** The nodes to which the edges leaving each node lead. */
+    protected int[][] _next;
+
+    /** The failure link of each node. */
+    protected int[] _fail;
+
+    /** The words that end at each node. */
+    protected int[][] _outputs;
+
+    /** Orders matches by position, then by descending length, then by word. */
+    protected static final Comparator<Match> MATCH_ORDER = new Comparator<Match>() {
+        public int compare (Match m1, Match m2) {
+            int cmp = Ints.compare(m1.start, m2.start);
+            if (cmp == 0) {
+                cmp = Ints.compare(m2.end, m1.end);
+            }
+            return (cmp == 0) ? Ints.compare(m1.word, m2.word) : cmp;
+        }
+    };
+}
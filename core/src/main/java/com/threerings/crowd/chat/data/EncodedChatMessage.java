@@ -0,0 +1,117 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.crowd.chat.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.Streamable;
+
+/**
+ * Carries a {@link ChatMessage} that has been flattened exactly once, on the server, so that
+ * delivering it to many hearers (or many places) copies the same bytes to each of them rather
+ * than streaming the message afresh for every subscriber. The flattened form is self-contained
+ * (it does not depend on the class mappings of the stream over which it is sent).
+ */
+public class EncodedChatMessage
+    implements Streamable
+{
+    /**
+     * Flattens the supplied message.
+     */
+    public EncodedChatMessage (ChatMessage message)
+    {
+        _message = message;
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            ObjectOutputStream oout = new ObjectOutputStream(bout);
+            oout.writeObject(message);
+            oout.flush();
+            _data = bout.toByteArray();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to encode chat message " + message, ioe);
+        }
+    }
+
+    /**
+     * Creates a blank instance for unserialization.
+     */
+    public EncodedChatMessage ()
+    {
+    }
+
+    /**
+     * Returns the message carried by this instance, decoding it if necessary.
+     */
+    public ChatMessage getMessage ()
+    {
+        if (_message == null) {
+            try {
+                ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(_data));
+                _message = (ChatMessage)oin.readObject();
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to decode chat message", e);
+            }
+        }
+        return _message;
+    }
+
+    /**
+     * Returns the size of the flattened message in bytes.
+     */
+    public int size ()
+    {
+        return _data.length;
+    }
+
+    /** Writes our custom streamable fields. */
+    public void writeObject (ObjectOutputStream out)
+        throws IOException
+    {
+        out.writeInt(_data.length);
+        out.write(_data);
+    }
+
+    /** Reads our custom streamable fields. */
+    public void readObject (ObjectInputStream in)
+        throws IOException
+    {
+        _data = new byte[in.readInt()];
+        in.readFully(_data);
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.valueOf(getMessage());
+    }
+
+    /** The message itself, if we created it or have already decoded it. */
+    protected transient ChatMessage _message;
+
+    /** The flattened message. */
+    protected byte[] _data;
+}
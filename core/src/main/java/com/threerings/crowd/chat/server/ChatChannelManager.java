@@ -32,6 +32,7 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.primitives.Longs;
 import com.google.inject.Inject;
 
@@ -70,7 +71,7 @@ import static com.threerings.crowd.Log.log;
  * Handles chat channel services.
  */
 public abstract class ChatChannelManager
-    implements ChannelSpeakProvider
+    implements ChannelSpeakProvider, PeerManager.ClusterClientObserver
 {
     /**
      * Value asynchronously returned by {@link #collectChatHistory} after polling all peer nodes.
@@ -97,7 +98,7 @@ public abstract class ChatChannelManager
             @Override protected void execute () {
                 ChannelInfo info = _channelMan._channels.get(_channel);
                 if (info != null) {
-                    info.participants.add(bodyId);
+                    _channelMan.addParticipant(info, bodyId);
                 } else if (_channelMan._resolving.containsKey(_channel)) {
                     log.warning("Oh for fuck's sake, distributed systems are complicated",
                                 "channel", _channel);
@@ -118,7 +119,7 @@ public abstract class ChatChannelManager
             @Override protected void execute () {
                 ChannelInfo info = _channelMan._channels.get(_channel);
                 if (info != null) {
-                    info.participants.remove(bodyId);
+                    _channelMan.removeParticipant(info, bodyId);
                 } else if (_channelMan._resolving.containsKey(_channel)) {
                     log.warning("Oh for fuck's sake, distributed systems are complicated",
                                 "channel", _channel);
@@ -158,6 +159,34 @@ public abstract class ChatChannelManager
         });
     }
 
+    // from interface PeerManager.ClusterClientObserver
+    public void clientAddedToNode (String nodeName, ClientInfo clinfo)
+    {
+        int bodyId = getBodyId(((CrowdClientInfo)clinfo).visibleName);
+        _bodyNodes.put(bodyId, nodeName);
+        Set<ChannelInfo> infos = _bodyChannels.get(bodyId);
+        if (infos != null) {
+            for (ChannelInfo info : infos) {
+                info.addNodeParticipant(nodeName, bodyId);
+            }
+        }
+    }
+
+    // from interface PeerManager.ClusterClientObserver
+    public void clientRemovedFromNode (String nodeName, ClientInfo clinfo)
+    {
+        int bodyId = getBodyId(((CrowdClientInfo)clinfo).visibleName);
+        if (nodeName.equals(_bodyNodes.get(bodyId))) {
+            _bodyNodes.remove(bodyId);
+        }
+        Set<ChannelInfo> infos = _bodyChannels.get(bodyId);
+        if (infos != null) {
+            for (ChannelInfo info : infos) {
+                info.removeNodeParticipant(nodeName, bodyId);
+            }
+        }
+    }
+
     // from interface ChannelSpeakProvider
     public void speak (ClientObject caller, final ChatChannel channel, String message, byte mode)
     {
@@ -252,10 +281,24 @@ public abstract class ChatChannelManager
      */
     protected void resolutionComplete (ChatChannel channel, Set<Integer> parts)
     {
+        // start tracking the clients logged onto each node if we're not already
+        if (!_trackingClients) {
+            _trackingClients = true;
+            for (NodeObject nodeobj : _peerMan.getNodeObjects()) {
+                for (ClientInfo clinfo : nodeobj.clients) {
+                    clientAddedToNode(nodeobj.nodeName, clinfo);
+                }
+            }
+            _peerMan.addClusterClientObserver(this);
+        }
+
         // map the participants of our now resolved channel
         ChannelInfo info = new ChannelInfo();
         info.channel = channel;
-        info.participants = parts;
+        info.participants = Sets.newHashSet();
+        for (int bodyId : parts) {
+            addParticipant(info, bodyId);
+        }
         _channels.put(channel, info);
 
         // dispatch any pending messages now that we know where they go
@@ -301,22 +344,9 @@ public abstract class ChatChannelManager
         // note that we're dispatching a message on this channel
         info.lastMessage = System.currentTimeMillis();
 
-        // generate a mapping from node name to an array of body ids for the participants that are
-        // currently on the node in question
-        final Map<String,int[]> partMap = Maps.newHashMap();
-        for (NodeObject nodeobj : _peerMan.getNodeObjects()) {
-            ArrayIntSet nodeBodyIds = new ArrayIntSet();
-            for (ClientInfo clinfo : nodeobj.clients) {
-                int bodyId = getBodyId(((CrowdClientInfo)clinfo).visibleName);
-                if (info.participants.contains(bodyId)) {
-                    nodeBodyIds.add(bodyId);
-                }
-            }
-            partMap.put(nodeobj.nodeName, nodeBodyIds.toIntArray());
-        }
-
-        for (Map.Entry<String,int[]> entry : partMap.entrySet()) {
-            final int[] bodyIds = entry.getValue();
+        // send the message to each node on which participants are currently logged on
+        for (Map.Entry<String,ArrayIntSet> entry : info.nodeParticipants.entrySet()) {
+            final int[] bodyIds = entry.getValue().toIntArray();
             _peerMan.invokeNodeAction(entry.getKey(), new ChannelAction(channel) {
                 @Override protected void execute () {
                     _channelMan.deliverSpeak(_channel, message, bodyIds);
@@ -349,10 +379,61 @@ public abstract class ChatChannelManager
         Iterator<Map.Entry<ChatChannel, ChannelInfo>> iter = _channels.entrySet().iterator();
         while (iter.hasNext()) {
             Map.Entry<ChatChannel, ChannelInfo> entry = iter.next();
-            if (now - entry.getValue().lastMessage > IDLE_CHANNEL_CLOSE_TIME) {
+            ChannelInfo info = entry.getValue();
+            if (now - info.lastMessage > IDLE_CHANNEL_CLOSE_TIME) {
                 ((CrowdNodeObject)_peerMan.getNodeObject()).removeFromHostedChannels(
                     entry.getKey());
                 iter.remove();
+                for (int bodyId : info.participants) {
+                    unindexParticipant(info, bodyId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the specified body to the participants of the supplied channel.
+     */
+    protected void addParticipant (ChannelInfo info, int bodyId)
+    {
+        if (!info.participants.add(bodyId)) {
+            return;
+        }
+        Set<ChannelInfo> infos = _bodyChannels.get(bodyId);
+        if (infos == null) {
+            _bodyChannels.put(bodyId, infos = Sets.newHashSet());
+        }
+        infos.add(info);
+        String nodeName = _bodyNodes.get(bodyId);
+        if (nodeName != null) {
+            info.addNodeParticipant(nodeName, bodyId);
+        }
+    }
+
+    /**
+     * Removes the specified body from the participants of the supplied channel.
+     */
+    protected void removeParticipant (ChannelInfo info, int bodyId)
+    {
+        if (info.participants.remove(bodyId)) {
+            unindexParticipant(info, bodyId);
+        }
+    }
+
+    /**
+     * Removes the supplied channel from the indices of the specified participant.
+     */
+    protected void unindexParticipant (ChannelInfo info, int bodyId)
+    {
+        Set<ChannelInfo> infos = _bodyChannels.get(bodyId);
+        if (infos != null && infos.remove(info) && infos.isEmpty()) {
+            _bodyChannels.remove(bodyId);
+        }
+        for (Iterator<ArrayIntSet> iter = info.nodeParticipants.values().iterator();
+                iter.hasNext(); ) {
+            ArrayIntSet bodyIds = iter.next();
+            if (bodyIds.remove(bodyId) && bodyIds.isEmpty()) {
+                iter.remove();
             }
         }
     }
@@ -431,8 +512,28 @@ public abstract class ChatChannelManager
         /** The body ids of the participants of this channel. */
         public Set<Integer> participants;
 
+        /** The body ids of the participants that are logged on, by the node they are on. */
+        public Map<String, ArrayIntSet> nodeParticipants = Maps.newHashMap();
+
         /** The time at which a message was last dispatched on this channel. */
         public long lastMessage;
+
+        /** Notes that the specified participant is logged onto the specified node. */
+        public void addNodeParticipant (String nodeName, int bodyId) {
+            ArrayIntSet bodyIds = nodeParticipants.get(nodeName);
+            if (bodyIds == null) {
+                nodeParticipants.put(nodeName, bodyIds = new ArrayIntSet());
+            }
+            bodyIds.add(bodyId);
+        }
+
+        /** Notes that the specified participant is no longer logged onto the specified node. */
+        public void removeNodeParticipant (String nodeName, int bodyId) {
+            ArrayIntSet bodyIds = nodeParticipants.get(nodeName);
+            if (bodyIds != null && bodyIds.remove(bodyId) && bodyIds.isEmpty()) {
+                nodeParticipants.remove(nodeName);
+            }
+        }
     }
 
     /** Contains pending messages for all channels currently being resolved. */
@@ -441,6 +542,15 @@ public abstract class ChatChannelManager
     /** A map of resolved channels to metadata records. */
     protected Map<ChatChannel,ChannelInfo> _channels = Maps.newHashMap();
 
+    /** The resolved channels in which each body participates, by body id. */
+    protected Map<Integer, Set<ChannelInfo>> _bodyChannels = Maps.newHashMap();
+
+    /** The node onto which each body in the cluster is logged, by body id. */
+    protected Map<Integer, String> _bodyNodes = Maps.newHashMap();
+
+    /** Whether we have started tracking the clients logged onto each node. */
+    protected boolean _trackingClients;
+
     /** Provides peer services. */
     @Inject protected CrowdPeerManager _peerMan;
 
@@ -23,12 +23,13 @@ package com.threerings.crowd.chat.server;
 
 import java.io.IOException;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -45,7 +46,10 @@ import com.threerings.crowd.chat.data.UserMessage;
 import com.threerings.io.Streamable;
 
 /**
- * Provides a server-wide history of chat messages.
+ * Provides a server-wide history of chat messages. Each user's history is a bounded ring buffer.
+ * Expired messages are pruned by a single timing wheel, which discards histories once they are
+ * empty, and the total number of messages kept is capped by discarding the least recently used
+ * histories.
  */
 @Singleton
 public class ChatHistory
@@ -94,10 +98,13 @@ public class ChatHistory
      */
     public ChatHistory ()
     {
-        SpeakUtil.registerMessageObserver(new SpeakUtil.MessageObserver() {
+        SpeakUtil.registerMessageObserver(new SpeakUtil.BulkMessageObserver() {
             public void messageDelivered (String source, Name hearer, UserMessage message) {
                 record(null, source, message, hearer);
             }
+            public void messageDelivered (String source, Name[] hearers, UserMessage message) {
+                record(null, source, message, hearers);
+            }
         });
     }
 
@@ -108,11 +115,15 @@ public class ChatHistory
      */
     public List<Entry> get (Name username)
     {
-        List<Entry> history = getList(username);
+        if (username instanceof KeepNoHistory) {
+            return null;
+        }
+        History history = _histories.get(username);
+        List<Entry> entries = Lists.newArrayList();
         if (history != null) {
-            prune(System.currentTimeMillis(), history);
+            history.getEntries(System.currentTimeMillis() - HISTORY_EXPIRATION, entries);
         }
-        return history;
+        return entries;
     }
 
     /**
@@ -133,7 +144,10 @@ public class ChatHistory
         }
 
         // Log.info("Clearing history for " + username + ".");
-        _histories.remove(username);
+        History history = _histories.remove(username);
+        if (history != null) {
+            discard(history);
+        }
     }
 
     /**
@@ -150,17 +164,25 @@ public class ChatHistory
         Entry entry = new Entry(channel, source, msg);
         for (Name username : usernames) {
             // add the message to this user's chat history
-            List<Entry> history = getList(username);
+            History history = getHistory(username);
             if (history == null) {
                 continue;
             }
+            if (history.add(entry)) {
+                _entryCount++;
+            }
+            if (history.slot == -1) {
+                schedule(history);
+            }
+        }
 
-            history.add(entry);
-
-            // if the history is big enough, potentially prune it (we always prune when asked for
-            // the history, so this is just to balance memory usage with CPU expense)
-            if (history.size() > 15) {
-                prune(msg.timestamp, history);
+        // if we've exceeded our memory budget, evict the least recently used histories
+        if (_entryCount > getMaxEntries()) {
+            Iterator<History> iter = _histories.values().iterator();
+            while (_entryCount > getMaxEntries() && iter.hasNext()) {
+                History history = iter.next();
+                iter.remove();
+                discard(history);
             }
         }
     }
@@ -178,39 +200,207 @@ public class ChatHistory
      * Returns this user's chat history, creating one if necessary. If the given name implements
      * {@link KeepNoHistory}, null is returned.
      */
-    protected List<Entry> getList (Name username)
+    protected History getHistory (Name username)
     {
         if (username instanceof KeepNoHistory) {
             return null;
         }
-        List<Entry> history = _histories.get(username);
+        History history = _histories.get(username);
         if (history == null) {
-            _histories.put(username, history = Lists.newArrayList());
+            _histories.put(username, history = new History(username));
         }
         return history;
     }
 
     /**
-     * Prunes all messages from this history which are expired.
+     * Returns the maximum number of messages kept in any one user's history. Once a history is
+     * full, recording a message discards its oldest.
      */
-    protected void prune (long now, List<Entry> history)
+    protected int getHistoryCapacity ()
     {
-        int prunepos = 0;
-        for (int ll = history.size(); prunepos < ll; prunepos++) {
-            Entry entry = history.get(prunepos);
-            if (now - entry.message.timestamp < HISTORY_EXPIRATION) {
-                break; // stop when we get to the first valid message
+        return DEFAULT_HISTORY_CAPACITY;
+    }
+
+    /**
+     * Returns the maximum number of messages kept in all histories combined. When this is
+     * exceeded, the histories of the users whose histories were least recently recorded to or
+     * requested are discarded in their entirety.
+     */
+    protected int getMaxEntries ()
+    {
+        return DEFAULT_MAX_ENTRIES;
+    }
+
+    /**
+     * Schedules the supplied history to be pruned once its oldest message expires.
+     */
+    protected void schedule (History history)
+    {
+        // start turning our wheel if we haven't already
+        if (_wheel == null) {
+            @SuppressWarnings("unchecked") Set<History>[] wheel =
+                (Set<History>[])new Set<?>[WHEEL_SLOTS];
+            _wheel = wheel;
+            _lastTick = System.currentTimeMillis() / WHEEL_TICK;
+            _omgr.newInterval(new Runnable() {
+                public void run () {
+                    turnWheel(System.currentTimeMillis() / WHEEL_TICK);
+                }
+            }).schedule(WHEEL_TICK, true);
+        }
+
+        // we round up so that everything in a slot has expired by the time the slot is turned
+        long expires = history.oldest().message.timestamp + HISTORY_EXPIRATION;
+        long tick = Math.max(_lastTick + 1, (expires + WHEEL_TICK - 1) / WHEEL_TICK);
+        tick = Math.min(tick, _lastTick + WHEEL_SLOTS);
+        int slot = (int)(tick % WHEEL_SLOTS);
+        if (_wheel[slot] == null) {
+            _wheel[slot] = Sets.newHashSet();
+        }
+        _wheel[slot].add(history);
+        history.slot = slot;
+    }
+
+    /**
+     * Prunes the histories in each slot of our timing wheel up to the supplied tick. Histories
+     * that are left empty are discarded and the rest are rescheduled.
+     */
+    protected void turnWheel (long tick)
+    {
+        long cutoff = System.currentTimeMillis() - HISTORY_EXPIRATION;
+        while (_lastTick < tick) {
+            int slot = (int)(++_lastTick % WHEEL_SLOTS);
+            Set<History> due = _wheel[slot];
+            if (due == null) {
+                continue;
+            }
+            _wheel[slot] = null;
+            for (History history : due) {
+                history.slot = -1;
+                _entryCount -= history.prune(cutoff);
+                if (history.isEmpty()) {
+                    _histories.remove(history.username);
+                } else {
+                    schedule(history);
+                }
             }
         }
-        history.subList(0, prunepos).clear();
     }
 
-    /** Recent chat history for the server. */
-    protected Map<Name, List<Entry>> _histories = Maps.newHashMap();
+    /**
+     * Forgets about a history that has been removed from our mapping.
+     */
+    protected void discard (History history)
+    {
+        if (history.slot != -1) {
+            _wheel[history.slot].remove(history);
+            history.slot = -1;
+        }
+        _entryCount -= history.size();
+    }
+
+    /** A user's recent chat history, kept in a ring buffer. */
+    protected class History
+    {
+        /** The user whose history this is. */
+        public final Name username;
+
+        /** The slot of the timing wheel in which we're scheduled, or -1. */
+        public int slot = -1;
+
+        public History (Name username) {
+            this.username = username;
+        }
+
+        /** Adds an entry, returning false if that displaced our oldest entry. */
+        public boolean add (Entry entry) {
+            int capacity = getHistoryCapacity();
+            if (_count == _entries.length && _count < capacity) {
+                // grow our buffer, unrolling it as we go
+                Entry[] entries = new Entry[Math.min(capacity, _entries.length * 2)];
+                for (int ii = 0; ii < _count; ii++) {
+                    entries[ii] = _entries[(_head + ii) % _entries.length];
+                }
+                _entries = entries;
+                _head = 0;
+            }
+            if (_count == _entries.length) {
+                _entries[_head] = entry;
+                _head = (_head + 1) % _entries.length;
+                return false;
+            }
+            _entries[(_head + _count++) % _entries.length] = entry;
+            return true;
+        }
+
+        /** Removes entries sent at or before the supplied time, returning the number removed. */
+        public int prune (long cutoff) {
+            int removed = 0;
+            while (_count > 0 && _entries[_head].message.timestamp <= cutoff) {
+                _entries[_head] = null;
+                _head = (_head + 1) % _entries.length;
+                _count--;
+                removed++;
+            }
+            return removed;
+        }
+
+        /** Adds the entries sent after the supplied time to the supplied list. */
+        public void getEntries (long cutoff, List<Entry> into) {
+            for (int ii = 0; ii < _count; ii++) {
+                Entry entry = _entries[(_head + ii) % _entries.length];
+                if (entry.message.timestamp > cutoff) {
+                    into.add(entry);
+                }
+            }
+        }
+
+        public Entry oldest () {
+            return _entries[_head];
+        }
+
+        public int size () {
+            return _count;
+        }
+
+        public boolean isEmpty () {
+            return _count == 0;
+        }
+
+        protected Entry[] _entries = new Entry[INITIAL_HISTORY_CAPACITY];
+        protected int _head, _count;
+    }
+
+    /** Recent chat history for the server, in order of last use. */
+    protected Map<Name, History> _histories = new LinkedHashMap<Name, History>(16, 0.75f, true);
+
+    /** The number of entries in all of our histories. */
+    protected int _entryCount;
+
+    /** Our timing wheel: the histories that are due to be pruned on each tick, by slot. */
+    protected Set<History>[] _wheel;
+
+    /** The last tick of our timing wheel that we processed. */
+    protected long _lastTick;
 
     /** Names we will hold for. */
     protected Set<Name> _holds = Sets.newHashSet();
 
     // dependencies
     @Inject protected PresentsDObjectMgr _omgr;
+
+    /** The default maximum number of messages in one user's history. */
+    protected static final int DEFAULT_HISTORY_CAPACITY = 64;
+
+    /** The default maximum number of messages in all histories combined. */
+    protected static final int DEFAULT_MAX_ENTRIES = 1000000;
+
+    /** The number of messages for which room is initially made in a history. */
+    protected static final int INITIAL_HISTORY_CAPACITY = 4;
+
+    /** The granularity with which histories are pruned. */
+    protected static final long WHEEL_TICK = 10 * 1000L;
+
+    /** The number of slots in our timing wheel, enough to span our expiration time. */
+    protected static final int WHEEL_SLOTS = (int)(HISTORY_EXPIRATION / WHEEL_TICK) + 1;
 }
@@ -0,0 +1,71 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.crowd.chat.server;
+
+import com.threerings.presents.dobj.DEvent;
+import com.threerings.presents.dobj.MessageEvent;
+
+import com.threerings.crowd.chat.data.ChatCodes;
+import com.threerings.crowd.chat.data.ChatMessage;
+import com.threerings.crowd.chat.data.EncodedChatMessage;
+
+/**
+ * A {@link ChatCodes#CHAT_NOTIFICATION} message event that carries the plain {@link ChatMessage}
+ * to server-side listeners and peers, but is sent to clients with the message flattened into an
+ * {@link EncodedChatMessage} (see {@link SpeakUtil#setEncodeMessages}).
+ */
+public class ChatNotificationEvent extends MessageEvent
+{
+    /**
+     * Creates a chat notification for the specified message on the specified object.
+     *
+     * @param encoded the flattened form of the message, which may be shared among many events, or
+     * null if it should be flattened when first needed.
+     */
+    public ChatNotificationEvent (int targetOid, ChatMessage msg, EncodedChatMessage encoded)
+    {
+        super(targetOid, ChatCodes.CHAT_NOTIFICATION, new Object[] { msg });
+        _encoded = encoded;
+    }
+
+    @Override
+    public DEvent getClientEvent ()
+    {
+        if (_clientEvent == null) {
+            if (_encoded == null) {
+                _encoded = new EncodedChatMessage((ChatMessage)_args[0]);
+            }
+            _clientEvent = new MessageEvent(_toid, _name, new Object[] { _encoded });
+            _clientEvent.eventId = eventId;
+            _clientEvent.setSourceOid(_soid);
+            _clientEvent.setTransport(_transport);
+        }
+        return _clientEvent;
+    }
+
+    /** The flattened form of our message, sent to clients. */
+    protected transient EncodedChatMessage _encoded;
+
+    /** The plain message event sent to clients in our stead, created when first needed. */
+    protected transient MessageEvent _clientEvent;
+}
@@ -22,7 +22,9 @@
 package com.threerings.crowd.chat.server;
 
 import java.util.Iterator;
+import java.util.List;
 
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -43,6 +45,7 @@ import com.threerings.crowd.chat.client.ChatService.TellListener;
 import com.threerings.crowd.chat.client.ChatService;
 import com.threerings.crowd.chat.data.ChatCodes;
 import com.threerings.crowd.chat.data.ChatMarshaller;
+import com.threerings.crowd.chat.data.ChatMessage;
 import com.threerings.crowd.chat.data.SystemMessage;
 import com.threerings.crowd.chat.data.UserMessage;
 import com.threerings.crowd.data.BodyObject;
@@ -200,12 +203,14 @@ public class ChatProvider
             broadcastTo(_broadcastObject, from, levelOrMode, bundle, msg);
 
         } else {
+            List<PlaceObject> places = Lists.newArrayList();
             for (Iterator<PlaceObject> iter = _plreg.enumeratePlaces(); iter.hasNext(); ) {
                 PlaceObject plobj = iter.next();
                 if (plobj.shouldBroadcast()) {
-                    broadcastTo(plobj, from, levelOrMode, bundle, msg);
+                    places.add(plobj);
                 }
             }
+            broadcastTo(places, from, levelOrMode, bundle, msg);
         }
 
         if (forward && _chatForwarder != null) {
@@ -279,12 +284,34 @@ public class ChatProvider
      */
     protected void broadcastTo (
         DObject object, Name from, byte levelOrMode, String bundle, String msg)
+    {
+        SpeakUtil.sendMessage(object, createBroadcastMessage(from, levelOrMode, bundle, msg));
+    }
+
+    /**
+     * Direct a broadcast to all of the specified places. The default implementation creates the
+     * message just once so that it need only be flattened once for all of the places; derived
+     * classes that customize broadcasts per place should override this method or {@link
+     * #createBroadcastMessage}.
+     */
+    protected void broadcastTo (
+        List<PlaceObject> places, Name from, byte levelOrMode, String bundle, String msg)
+    {
+        SpeakUtil.sendMessage(places, createBroadcastMessage(from, levelOrMode, bundle, msg));
+    }
+
+    /**
+     * Creates the message delivered for a broadcast: a system message if <code>from</code> is
+     * null, a user message otherwise.
+     */
+    protected ChatMessage createBroadcastMessage (
+        Name from, byte levelOrMode, String bundle, String msg)
     {
         if (from == null) {
-            SpeakUtil.sendSystem(object, bundle, msg, levelOrMode /* level */);
+            return new SystemMessage(msg, bundle, levelOrMode /* level */);
 
         } else {
-            SpeakUtil.sendSpeak(object, from, bundle, msg, levelOrMode /* mode */);
+            return new UserMessage(from, bundle, msg, levelOrMode /* mode */);
         }
     }
 
@@ -21,6 +21,10 @@
 
 package com.threerings.crowd.chat.server;
 
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
 import com.samskivert.util.ObserverList;
 
 import com.threerings.util.Name;
@@ -30,6 +34,7 @@ import com.threerings.presents.dobj.RootDObjectManager;
 
 import com.threerings.crowd.chat.data.ChatCodes;
 import com.threerings.crowd.chat.data.ChatMessage;
+import com.threerings.crowd.chat.data.EncodedChatMessage;
 import com.threerings.crowd.chat.data.SpeakObject;
 import com.threerings.crowd.chat.data.SystemMessage;
 import com.threerings.crowd.chat.data.UserMessage;
@@ -54,6 +59,32 @@ public class SpeakUtil
         void messageDelivered (String source, Name hearer, UserMessage message);
     }
 
+    /**
+     * A {@link MessageObserver} that can be notified of all of the hearers of a chat message at
+     * once rather than being called separately for each of them.
+     */
+    public static interface BulkMessageObserver extends MessageObserver
+    {
+        /**
+         * Called once for each chat message with all of the players that heard it.
+         */
+        void messageDelivered (String source, Name[] hearers, UserMessage message);
+    }
+
+    /**
+     * Configures whether chat messages are flattened once, on the server, and delivered to their
+     * hearers as an {@link EncodedChatMessage} rather than being streamed separately to every
+     * subscriber of the object on which they are delivered. Only the outbound form sent to
+     * clients is encoded: server-side listeners and peers still receive the plain {@link
+     * ChatMessage} (see {@link ChatNotificationEvent}). All clients must understand encoded
+     * messages before this is enabled. The default is taken from the
+     * <code>com.threerings.crowd.chat.encodeMessages</code> system property.
+     */
+    public static void setEncodeMessages (boolean encodeMessages)
+    {
+        _encodeMessages = encodeMessages;
+    }
+
     /**
      * Registers a {@link MessageObserver} to be notified whenever a user-originated chat message
      * is heard by another user.
@@ -172,20 +203,61 @@ public class SpeakUtil
             log.warning("Dropping speak message, no speak obj '" + msg + "'.", new Exception());
             return;
         }
+        deliverMessage(speakObj, msg, encodeMessage(msg));
+    }
+
+    /**
+     * Sends the specified message on each of the specified objects. The message is flattened only
+     * once regardless of the number of objects (see {@link #setEncodeMessages}).
+     */
+    public static void sendMessage (Iterable<? extends DObject> speakObjs, ChatMessage msg)
+    {
+        EncodedChatMessage encoded = encodeMessage(msg);
+        for (DObject speakObj : speakObjs) {
+            deliverMessage(speakObj, msg, encoded);
+        }
+    }
 
+    /**
+     * Returns the flattened form of the supplied message to be sent to clients, or null if
+     * messages are not being encoded.
+     */
+    protected static EncodedChatMessage encodeMessage (ChatMessage msg)
+    {
+        return _encodeMessages ? new EncodedChatMessage(msg) : null;
+    }
+
+    /**
+     * Posts the supplied message on the specified object and notes the users that heard the
+     * message. If an encoded form is supplied, it is sent to clients in place of the message
+     * itself; server-side listeners always receive the plain message.
+     */
+    protected static void deliverMessage (
+        DObject speakObj, ChatMessage msg, EncodedChatMessage encoded)
+    {
         // post the message to the relevant object
-        speakObj.postMessage(ChatCodes.CHAT_NOTIFICATION, new Object[] { msg });
+        if (encoded == null) {
+            speakObj.postMessage(ChatCodes.CHAT_NOTIFICATION, new Object[] { msg });
+        } else {
+            speakObj.postEvent(new ChatNotificationEvent(speakObj.getOid(), msg, encoded));
+        }
 
         // if this is a user message; add it to the heard history of all users that can "hear" it
         if (!(msg instanceof UserMessage)) {
             return;
 
         } else if (speakObj instanceof SpeakObject) {
+            SpeakObject sender = (SpeakObject)speakObj;
             _messageMapper.omgr = (RootDObjectManager)speakObj.getManager();
-            _messageMapper.message = (UserMessage)msg;
-            ((SpeakObject)speakObj).applyToListeners(_messageMapper);
+            sender.applyToListeners(_messageMapper);
             _messageMapper.omgr = null;
-            _messageMapper.message = null;
+            // clear out the mapper before notifying in case an observer generates chat of its own
+            List<Name> hearers = _messageMapper.hearers;
+            Name[] names = hearers.toArray(new Name[hearers.size()]);
+            hearers.clear();
+            if (names.length > 0) {
+                noteMessage(sender, names, (UserMessage)msg);
+            }
 
         } else {
             log.info("Unable to note listeners", "dclass", speakObj.getClass(), "msg", msg);
@@ -197,16 +269,23 @@ public class SpeakUtil
      * ChatMessage#timestamp} is not already filled in, it will be.
      */
     protected static void noteMessage (SpeakObject sender, Name username, UserMessage msg)
+    {
+        noteMessage(sender, new Name[] { username }, msg);
+    }
+
+    /**
+     * Notes that the specified users were privy to the specified message. If {@link
+     * ChatMessage#timestamp} is not already filled in, it will be.
+     */
+    protected static void noteMessage (SpeakObject sender, Name[] usernames, UserMessage msg)
     {
         // fill in the message's time stamp if necessary
         if (msg.timestamp == 0L) {
             msg.timestamp = System.currentTimeMillis();
         }
 
-        // Log.info("Noted that " + username + " heard " + msg + ".");
-
         // notify any message observers
-        _messageOp.init(sender, username, msg);
+        _messageOp.init(sender, usernames, msg);
         _messageObs.apply(_messageOp);
     }
 
@@ -218,21 +297,21 @@ public class SpeakUtil
         sendMessage(speakObj, new SystemMessage(message, bundle, level));
     }
 
-    /** Used to note the recipients of a chat message. */
+    /** Used to collect the recipients of a chat message. */
     protected static class MessageMapper implements SpeakObject.ListenerOp
     {
         public RootDObjectManager omgr;
-        public UserMessage message;
+        public List<Name> hearers = Lists.newArrayList();
 
         public void apply (SpeakObject sender, int bodyOid) {
             DObject dobj = omgr.getObject(bodyOid);
             if (dobj != null && dobj instanceof BodyObject) {
-                noteMessage(sender, ((BodyObject)dobj).getVisibleName(), message);
+                hearers.add(((BodyObject)dobj).getVisibleName());
             }
         }
 
         public void apply (SpeakObject sender, Name username) {
-            noteMessage(sender, username, message);
+            hearers.add(username);
         }
     }
 
@@ -240,19 +319,26 @@ public class SpeakUtil
     protected static class MessageObserverOp
         implements ObserverList.ObserverOp<MessageObserver>
     {
-        public void init (SpeakObject sender, Name hearer, UserMessage message) {
-            _hearer = hearer;
+        public void init (SpeakObject sender, Name[] hearers, UserMessage message) {
+            _hearers = hearers;
             _message = message;
             _sender = sender;
         }
 
         public boolean apply (MessageObserver observer) {
-            observer.messageDelivered(_sender.getChatIdentifier(_message), _hearer, _message);
+            String source = _sender.getChatIdentifier(_message);
+            if (observer instanceof BulkMessageObserver) {
+                ((BulkMessageObserver)observer).messageDelivered(source, _hearers, _message);
+            } else {
+                for (Name hearer : _hearers) {
+                    observer.messageDelivered(source, hearer, _message);
+                }
+            }
             return true;
         }
 
         protected SpeakObject _sender;
-        protected Name _hearer;
+        protected Name[] _hearers;
         protected UserMessage _message;
     }
 
@@ -264,4 +350,8 @@ public class SpeakUtil
 
     /** Used to notify our {@link MessageObserver}s. */
     protected static MessageObserverOp _messageOp = new MessageObserverOp();
+
+    /** Whether or not we flatten chat messages once for all of their hearers. */
+    protected static boolean _encodeMessages =
+        Boolean.getBoolean("com.threerings.crowd.chat.encodeMessages");
 }
@@ -21,6 +21,8 @@
 
 package com.threerings.crowd.client;
 
+import com.samskivert.util.ArrayIntSet;
+import com.samskivert.util.HashIntMap;
 import com.samskivert.util.ObserverList;
 
 import com.threerings.util.Name;
@@ -30,12 +32,22 @@ import com.threerings.presents.client.Client;
 import com.threerings.presents.dobj.EntryAddedEvent;
 import com.threerings.presents.dobj.EntryRemovedEvent;
 import com.threerings.presents.dobj.EntryUpdatedEvent;
+import com.threerings.presents.dobj.MessageEvent;
+import com.threerings.presents.dobj.MessageListener;
+import com.threerings.presents.dobj.NamedEvent;
+import com.threerings.presents.dobj.ObjectAccessException;
 import com.threerings.presents.dobj.SetListener;
+import com.threerings.presents.dobj.Subscriber;
+import com.threerings.presents.util.SafeSubscriber;
 
+import com.threerings.crowd.chat.data.ChatCodes;
+import com.threerings.crowd.data.AreaObject;
 import com.threerings.crowd.data.OccupantInfo;
 import com.threerings.crowd.data.PlaceObject;
 import com.threerings.crowd.util.CrowdContext;
 
+import static com.threerings.crowd.Log.log;
+
 /**
  * The occupant director listens for occupants of places to enter and
  * exit, and dispatches notices to interested parties about these events.
@@ -56,9 +68,14 @@ import com.threerings.crowd.util.CrowdContext;
  * probably want to still make a request for the occupant info so that we
  * can update non-static occupant data rather than permanently using
  * what's in the cache.
+ *
+ * <p> If the place is partitioned into areas of interest, the director
+ * subscribes to the areas the server tells us we are interested in,
+ * reports the occupants of those areas as they come into and go out of
+ * view and routes the chat delivered on them to the chat director.
  */
 public class OccupantDirector extends BasicDirector
-    implements LocationObserver, SetListener<OccupantInfo>
+    implements LocationObserver, SetListener<OccupantInfo>, MessageListener
 {
     /**
      * Constructs a new occupant director with the supplied context.
@@ -95,7 +112,19 @@ public class OccupantDirector extends BasicDirector
     public OccupantInfo getOccupantInfo (int bodyOid)
     {
         // make sure we're somewhere
-        return (_place == null) ? null : _place.occupantInfo.get(Integer.valueOf(bodyOid));
+        if (_place == null) {
+            return null;
+        }
+        Integer key = Integer.valueOf(bodyOid);
+        OccupantInfo info = _place.occupantInfo.get(key);
+        if (info == null && _areas != null) {
+            for (AreaSubscriber asub : _areas.values()) {
+                if (asub.area != null && (info = asub.area.occupantInfo.get(key)) != null) {
+                    break;
+                }
+            }
+        }
+        return info;
     }
 
     /**
@@ -105,7 +134,23 @@ public class OccupantDirector extends BasicDirector
      */
     public OccupantInfo getOccupantInfo (Name username)
     {
-        return (_place == null) ? null : _place.getOccupantInfo(username);
+        if (_place == null) {
+            return null;
+        }
+        OccupantInfo info = _place.getOccupantInfo(username);
+        if (info == null && _areas != null) {
+            for (AreaSubscriber asub : _areas.values()) {
+                if (asub.area == null) {
+                    continue;
+                }
+                for (OccupantInfo ainfo : asub.area.occupantInfo) {
+                    if (ainfo.username.equals(username)) {
+                        return ainfo;
+                    }
+                }
+            }
+        }
+        return info;
     }
 
     @Override
@@ -116,6 +161,9 @@ public class OccupantDirector extends BasicDirector
             _place.removeListener(this);
             _place = null;
         }
+        if (_areas != null) {
+            _areas.clear();
+        }
     }
 
     // inherit documentation
@@ -133,6 +181,9 @@ public class OccupantDirector extends BasicDirector
             _place.removeListener(this);
         }
 
+        // and drop any areas of the old place in which we were interested
+        updateAreas(new int[0]);
+
         // listen to the new one
         _place = place;
         if (_place != null) {
@@ -151,8 +202,8 @@ public class OccupantDirector extends BasicDirector
      */
     public void entryAdded (EntryAddedEvent<OccupantInfo> event)
     {
-        // bail if this isn't for the OCCUPANT_INFO field
-        if (!event.getName().equals(PlaceObject.OCCUPANT_INFO)) {
+        // bail if this isn't for the OCCUPANT_INFO field of our place or one of its areas
+        if (!isOccupantInfo(event)) {
             return;
         }
 
@@ -171,8 +222,8 @@ public class OccupantDirector extends BasicDirector
      */
     public void entryUpdated (EntryUpdatedEvent<OccupantInfo> event)
     {
-        // bail if this isn't for the OCCUPANT_INFO field
-        if (!event.getName().equals(PlaceObject.OCCUPANT_INFO)) {
+        // bail if this isn't for the OCCUPANT_INFO field of our place or one of its areas
+        if (!isOccupantInfo(event)) {
             return;
         }
 
@@ -192,8 +243,8 @@ public class OccupantDirector extends BasicDirector
      */
     public void entryRemoved (EntryRemovedEvent<OccupantInfo> event)
     {
-        // bail if this isn't for the OCCUPANT_INFO field
-        if (!event.getName().equals(PlaceObject.OCCUPANT_INFO)) {
+        // bail if this isn't for the OCCUPANT_INFO field of our place or one of its areas
+        if (!isOccupantInfo(event)) {
             return;
         }
 
@@ -207,9 +258,126 @@ public class OccupantDirector extends BasicDirector
         });
     }
 
+    /**
+     * Returns true if the supplied event pertains to the occupant info set of our place object or
+     * of one of its areas.
+     */
+    protected boolean isOccupantInfo (NamedEvent event)
+    {
+        String name = event.getName();
+        return name.equals(PlaceObject.OCCUPANT_INFO) || name.equals(AreaObject.OCCUPANT_INFO);
+    }
+
+    // from interface MessageListener
+    public void messageReceived (MessageEvent event)
+    {
+        if (!event.getName().equals(AreaObject.AREAS_CHANGED)) {
+            return;
+        }
+        // ignore stale news from a place we've since left
+        Object[] args = event.getArgs();
+        if (_place != null && _place.getOid() == (Integer)args[0]) {
+            updateAreas((int[])args[1]);
+        }
+    }
+
+    @Override
+    protected void clientObjectUpdated (Client client)
+    {
+        super.clientObjectUpdated(client);
+
+        // listen for changes to the areas in which we're interested
+        client.getClientObject().addListener(this);
+    }
+
+    /**
+     * Subscribes to the specified areas and unsubscribes from any others.
+     */
+    protected void updateAreas (int[] oids)
+    {
+        if (_areas == null) {
+            _areas = new HashIntMap<AreaSubscriber>();
+        }
+
+        ArrayIntSet noids = new ArrayIntSet(oids);
+        for (int oid : _areas.intKeySet().toIntArray()) {
+            if (!noids.contains(oid)) {
+                _areas.remove(oid).unsubscribe();
+            }
+        }
+        for (int oid : oids) {
+            if (!_areas.containsKey(oid)) {
+                AreaSubscriber asub = new AreaSubscriber(oid);
+                _areas.put(oid, asub);
+                asub.subscribe();
+            }
+        }
+    }
+
+    /**
+     * Notifies our observers that the specified occupants came into or went out of view.
+     */
+    protected void notifyOccupants (Iterable<OccupantInfo> infos, final boolean entered)
+    {
+        for (final OccupantInfo info : infos) {
+            _observers.apply(new ObserverList.ObserverOp<OccupantObserver>() {
+                public boolean apply (OccupantObserver observer) {
+                    if (entered) {
+                        observer.occupantEntered(info);
+                    } else {
+                        observer.occupantLeft(info);
+                    }
+                    return true;
+                }
+            });
+        }
+    }
+
+    /** Manages our subscription to a single area. */
+    protected class AreaSubscriber implements Subscriber<AreaObject>
+    {
+        /** The area object, once our subscription has completed. */
+        public AreaObject area;
+
+        public AreaSubscriber (int oid) {
+            _safesub = new SafeSubscriber<AreaObject>(oid, this, OccupantDirector.this);
+        }
+
+        public void subscribe () {
+            _safesub.subscribe(_ctx.getDObjectManager());
+        }
+
+        public void unsubscribe () {
+            _safesub.unsubscribe(_ctx.getDObjectManager());
+            if (area != null) {
+                area.removeListener(OccupantDirector.this);
+                ((CrowdContext)_ctx).getChatDirector().removeAuxiliarySource(area);
+                notifyOccupants(area.occupantInfo, false);
+                area = null;
+            }
+        }
+
+        public void objectAvailable (AreaObject object) {
+            area = object;
+            area.addListener(OccupantDirector.this);
+            ((CrowdContext)_ctx).getChatDirector().addAuxiliarySource(
+                area, ChatCodes.PLACE_CHAT_TYPE);
+            notifyOccupants(area.occupantInfo, true);
+        }
+
+        public void requestFailed (int oid, ObjectAccessException cause) {
+            log.warning("Failed to subscribe to area", "oid", oid, "cause", cause);
+        }
+
+        protected SafeSubscriber<AreaObject> _safesub;
+    }
+
     /** The occupant observers to keep abreast of occupant antics. */
     protected ObserverList<OccupantObserver> _observers = ObserverList.newSafeInOrder();
 
     /** The user's current location. */
     protected PlaceObject _place;
+
+    /** The areas of our current location in which we're interested, if it has any. */
+    protected HashIntMap<AreaSubscriber> _areas;
 }
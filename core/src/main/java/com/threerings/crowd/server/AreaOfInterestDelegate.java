@@ -0,0 +1,345 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.crowd.server;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+import com.samskivert.util.ArrayIntSet;
+import com.samskivert.util.HashIntMap;
+
+import com.threerings.presents.dobj.DObject;
+
+import com.threerings.crowd.chat.data.ChatMessage;
+import com.threerings.crowd.chat.data.UserMessage;
+import com.threerings.crowd.chat.server.SpeakHandler;
+import com.threerings.crowd.chat.server.SpeakUtil;
+import com.threerings.crowd.data.AreaObject;
+import com.threerings.crowd.data.BodyObject;
+import com.threerings.crowd.data.OccupantInfo;
+import com.threerings.crowd.data.PlaceObject;
+
+import static com.threerings.crowd.Log.log;
+
+/**
+ * Partitions a large place into a grid of square cells, each of which is represented by an {@link
+ * AreaObject}, so that occupants hear only about the occupants and chatter in their vicinity.
+ *
+ * <p> The place manager (or some other entity that knows where things are) reports the position
+ * of each occupant via {@link #setPosition}. A positioned body is an occupant of the area that
+ * contains it and is interested in every area within {@link #getRadius} cells of that one. The
+ * body's occupant info is published in the area it occupies and whenever the set of areas in
+ * which a body is interested changes, an {@link AreaObject#AREAS_CHANGED} message is posted on
+ * its body object so that the client can adjust its subscriptions (the {@link
+ * com.threerings.crowd.client.OccupantDirector} does this automatically). An area object exists
+ * only while some body is interested in it.
+ *
+ * <p> Local chat is delivered on the area occupied by the speaker, which reaches exactly those
+ * bodies that are interested in that area. A place manager can route its standard speak service
+ * through this delegate by returning {@link #createSpeakHandler} from its own
+ * <code>createSpeakHandler</code>. Places that use this delegate will generally also want to
+ * override {@link PlaceManager#publishesOccupantInfo} so that occupant info is not additionally
+ * published to the entire place.
+ */
+public class AreaOfInterestDelegate extends PlaceManagerDelegate
+{
+    /**
+     * Creates a delegate that partitions its place into cells of the specified size (in whatever
+     * units are used by {@link #setPosition}) wherein bodies are interested in the cell they
+     * occupy and those immediately adjacent to it.
+     */
+    public AreaOfInterestDelegate (int cellSize)
+    {
+        this(cellSize, 1);
+    }
+
+    /**
+     * Creates a delegate that partitions its place into cells of the specified size wherein
+     * bodies are interested in all cells within the specified number of cells of the one they
+     * occupy.
+     */
+    public AreaOfInterestDelegate (int cellSize, int radius)
+    {
+        if (cellSize <= 0 || radius < 0) {
+            throw new IllegalArgumentException(
+                "Invalid area configuration [cellSize=" + cellSize + ", radius=" + radius + "]");
+        }
+        _cellSize = cellSize;
+        _radius = radius;
+    }
+
+    /**
+     * Returns the size of the cells into which our place is partitioned.
+     */
+    public int getCellSize ()
+    {
+        return _cellSize;
+    }
+
+    /**
+     * Returns the number of cells around the one a body occupies in which it is also interested.
+     */
+    public int getRadius ()
+    {
+        return _radius;
+    }
+
+    /**
+     * Notes the position of the specified occupant of our place. If the body has moved into a
+     * different cell, its occupant info is moved to the area for that cell and its interest is
+     * updated accordingly.
+     */
+    public void setPosition (int bodyOid, int x, int y)
+    {
+        OccupantInfo info = _plmgr.getOccupantInfo(bodyOid);
+        if (info == null) {
+            log.warning("Refusing to position non-occupant", "where", where(), "oid", bodyOid);
+            return;
+        }
+
+        int cx = toCell(x), cy = toCell(y);
+        Cell ocell = _bodyCells.get(bodyOid);
+        if (ocell != null && ocell.x == cx && ocell.y == cy) {
+            return; // no change in cell, nothing to do
+        }
+
+        // first become interested in our new surroundings, which creates our new cell if need be
+        for (int yy = cy - _radius; yy <= cy + _radius; yy++) {
+            for (int xx = cx - _radius; xx <= cx + _radius; xx++) {
+                if (ocell == null || !ocell.isNear(xx, yy, _radius)) {
+                    addListener(xx, yy, bodyOid);
+                }
+            }
+        }
+
+        // then move our occupant info from our old cell to our new one
+        Cell ncell = _cells.get(toKey(cx, cy));
+        if (ocell != null) {
+            ocell.area.removeFromOccupantInfo(info.getKey());
+        }
+        ncell.area.addToOccupantInfo(info.clone());
+        _bodyCells.put(bodyOid, ncell);
+
+        // finally lose interest in the cells we've left behind
+        if (ocell != null) {
+            removeListener(ocell, bodyOid, ncell);
+        }
+
+        // let the body know which areas it should now be watching
+        DObject body = _omgr.getObject(bodyOid);
+        if (body != null) {
+            body.postMessage(AreaObject.AREAS_CHANGED, _plmgr.getPlaceObject().getOid(),
+                             getInterest(bodyOid));
+        }
+    }
+
+    /**
+     * Returns the oids of the area objects in which the specified body is interested or an empty
+     * array if the body has not been positioned.
+     */
+    public int[] getInterest (int bodyOid)
+    {
+        Cell cell = _bodyCells.get(bodyOid);
+        if (cell == null) {
+            return new int[0];
+        }
+        ArrayIntSet oids = new ArrayIntSet();
+        for (int yy = cell.y - _radius; yy <= cell.y + _radius; yy++) {
+            for (int xx = cell.x - _radius; xx <= cell.x + _radius; xx++) {
+                Cell near = _cells.get(toKey(xx, yy));
+                if (near != null) {
+                    oids.add(near.area.getOid());
+                }
+            }
+        }
+        return oids.toIntArray();
+    }
+
+    /**
+     * Returns the area occupied by the specified body or null if it has not been positioned.
+     */
+    public AreaObject getArea (int bodyOid)
+    {
+        Cell cell = _bodyCells.get(bodyOid);
+        return (cell == null) ? null : cell.area;
+    }
+
+    /**
+     * Delivers the supplied message to all bodies that are interested in the area occupied by the
+     * specified body.
+     *
+     * @return true if the message was delivered, false if the body has not been positioned.
+     */
+    public boolean sendMessage (int bodyOid, ChatMessage msg)
+    {
+        AreaObject area = getArea(bodyOid);
+        if (area == null) {
+            return false;
+        }
+        SpeakUtil.sendMessage(area, msg);
+        return true;
+    }
+
+    /**
+     * Creates a speak handler for our place object that delivers speech from positioned bodies
+     * only to those nearby (and from unpositioned bodies to the whole place).
+     */
+    public SpeakHandler createSpeakHandler (PlaceObject plobj)
+    {
+        return new SpeakHandler(_plmgr._locator, plobj, _plmgr) {
+            @Override protected void sendSpeak (BodyObject source, String message, byte mode) {
+                UserMessage msg = new UserMessage(source.getVisibleName(), null, message, mode);
+                if (!sendMessage(source.getOid(), msg)) {
+                    SpeakUtil.sendMessage(_speakObj, msg);
+                }
+            }
+        };
+    }
+
+    @Override // from PlaceManagerDelegate
+    public void bodyLeft (int bodyOid)
+    {
+        Cell cell = _bodyCells.remove(bodyOid);
+        if (cell == null) {
+            return;
+        }
+        cell.area.removeFromOccupantInfo(Integer.valueOf(bodyOid));
+        removeListener(cell, bodyOid, null);
+    }
+
+    @Override // from PlaceManagerDelegate
+    public void bodyUpdated (OccupantInfo info)
+    {
+        Cell cell = _bodyCells.get(info.getBodyOid());
+        if (cell != null) {
+            if (_plmgr.usesOccupantDeltas()) {
+                cell.area.updateSetDelta(AreaObject.OCCUPANT_INFO, info.clone());
+            } else {
+                cell.area.updateOccupantInfo(info.clone());
+            }
+        }
+    }
+
+    @Override // from PlaceManagerDelegate
+    public void didShutdown ()
+    {
+        for (Cell cell : _cells.values()) {
+            _omgr.destroyObject(cell.area.getOid());
+        }
+        _cells.clear();
+        _bodyCells.clear();
+    }
+
+    /**
+     * Adds the specified body to the listeners of the specified cell, creating the cell if it
+     * does not yet exist.
+     */
+    protected void addListener (int x, int y, int bodyOid)
+    {
+        Long key = toKey(x, y);
+        Cell cell = _cells.get(key);
+        if (cell == null) {
+            AreaObject area = _omgr.registerObject(new AreaObject());
+            area.setPlaceOid(_plmgr.getPlaceObject().getOid());
+            area.setAccessController(
+                _plmgr._injector.getInstance(CrowdObjectAccess.AreaAccessController.class));
+            _cells.put(key, cell = new Cell(x, y, area));
+        }
+        cell.area.listeners.add(bodyOid);
+    }
+
+    /**
+     * Removes the specified body from the listeners of all cells near the specified old cell that
+     * are not also near the supplied new cell (if any), destroying any cells that no longer have
+     * listeners.
+     */
+    protected void removeListener (Cell ocell, int bodyOid, Cell ncell)
+    {
+        for (int yy = ocell.y - _radius; yy <= ocell.y + _radius; yy++) {
+            for (int xx = ocell.x - _radius; xx <= ocell.x + _radius; xx++) {
+                if (ncell != null && ncell.isNear(xx, yy, _radius)) {
+                    continue;
+                }
+                Long key = toKey(xx, yy);
+                Cell cell = _cells.get(key);
+                if (cell == null) {
+                    continue;
+                }
+                cell.area.listeners.remove(bodyOid);
+                if (cell.area.listeners.isEmpty()) {
+                    _cells.remove(key);
+                    _omgr.destroyObject(cell.area.getOid());
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a coordinate into a cell coordinate, rounding toward negative infinity.
+     */
+    protected int toCell (int coord)
+    {
+        return (coord >= 0) ? (coord / _cellSize) : -((-coord - 1) / _cellSize) - 1;
+    }
+
+    /**
+     * Combines the supplied cell coordinates into a key for our cell table.
+     */
+    protected static Long toKey (int x, int y)
+    {
+        return Long.valueOf(((long)x << 32) | (y & 0xFFFFFFFFL));
+    }
+
+    /** Tracks a single cell of our grid. */
+    protected static class Cell
+    {
+        /** The coordinates of this cell. */
+        public final int x, y;
+
+        /** The distributed object that represents this cell. */
+        public final AreaObject area;
+
+        public Cell (int x, int y, AreaObject area) {
+            this.x = x;
+            this.y = y;
+            this.area = area;
+        }
+
+        public boolean isNear (int ox, int oy, int radius) {
+            return Math.abs(ox - x) <= radius && Math.abs(oy - y) <= radius;
+        }
+    }
+
+    /** The size of our cells. */
+    protected int _cellSize;
+
+    /** The number of cells around a body's own in which it is interested. */
+    protected int _radius;
+
+    /** Our cells, keyed on their coordinates. */
+    protected Map<Long, Cell> _cells = Maps.newHashMap();
+
+    /** The cell occupied by each positioned body. */
+    protected HashIntMap<Cell> _bodyCells = new HashIntMap<Cell>();
+}
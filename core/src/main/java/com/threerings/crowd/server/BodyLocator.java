@@ -21,19 +21,29 @@
 
 package com.threerings.crowd.server;
 
+import java.util.Map;
+
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
+import com.samskivert.util.HashIntMap;
+
 import com.threerings.presents.data.ClientObject;
 import com.threerings.util.Name;
 
 import com.threerings.presents.annotation.EventThread;
 import com.threerings.presents.server.ClientManager;
+import com.threerings.presents.server.PresentsSession;
 
 import com.threerings.crowd.data.BodyObject;
 
 /**
  * Used to lookup {@link BodyObject} instances by name.
+ *
+ * <p> Bodies controlled by a session are indexed by oid and by visible name as their sessions
+ * start (see {@link #bodyAttached}), so that lookups on the chat and movement paths do not need to
+ * go through the (synchronized) session map of the {@link ClientManager}. </p>
  */
 @Singleton
 public class BodyLocator
@@ -45,10 +55,72 @@ public class BodyLocator
     @EventThread
     public BodyObject lookupBody (Name visibleName)
     {
+        Attachment att = _byName.get(visibleName);
+        if (att != null && visibleName.equals(att.body.getVisibleName())) {
+            return att.body;
+        }
         // by default visibleName is username
         return forClient(_clmgr.getClientObject(visibleName));
     }
 
+    /**
+     * Returns the attached body object with the specified oid, or null if no session controls a
+     * body with that oid.
+     */
+    @EventThread
+    public BodyObject lookupBody (int bodyOid)
+    {
+        Attachment att = _byOid.get(bodyOid);
+        return (att == null) ? null : att.body;
+    }
+
+    /**
+     * Returns the session that controls the specified body, or null if the body is not controlled
+     * by a session on this server.
+     */
+    @EventThread
+    public PresentsSession lookupSession (BodyObject body)
+    {
+        Attachment att = _byOid.get(body.getOid());
+        if (att != null && att.body == body) {
+            return att.session;
+        }
+        // fall back to the client manager for bodies that were never attached
+        return _clmgr.getClient(body.username);
+    }
+
+    /**
+     * Notes that the supplied session controls the supplied body, indexing the body by its oid and
+     * visible name. {@link CrowdSession} calls this when its session starts and when its client
+     * object changes. Systems that change the body controlled by a session by other means should
+     * call this (and {@link #bodyDetached}) when they do so.
+     */
+    @EventThread
+    public void bodyAttached (BodyObject body, PresentsSession session)
+    {
+        Attachment att = new Attachment(body, session);
+        Attachment oatt = _byOid.put(body.getOid(), att);
+        if (oatt != null) {
+            _byName.remove(oatt.name);
+        }
+        _byName.put(att.name, att);
+    }
+
+    /**
+     * Clears out the index entries for a body that is no longer controlled by a session.
+     */
+    @EventThread
+    public void bodyDetached (BodyObject body)
+    {
+        Attachment att = _byOid.get(body.getOid());
+        if (att != null && att.body == body) {
+            _byOid.remove(body.getOid());
+            if (_byName.get(att.name) == att) {
+                _byName.remove(att.name);
+            }
+        }
+    }
+
     /**
      * Returns the body object to be used for the given client. This is the reverse operation of
      * {@link BodyObject#getClientObject} and the two should match. The default implementation
@@ -61,5 +133,31 @@ public class BodyLocator
         return (BodyObject)client;
     }
 
+    /** Records a body and the session that controls it. */
+    protected static class Attachment
+    {
+        /** The attached body. */
+        public final BodyObject body;
+
+        /** The session that controls the body. */
+        public final PresentsSession session;
+
+        /** The visible name under which the body is indexed. */
+        public final Name name;
+
+        public Attachment (BodyObject body, PresentsSession session)
+        {
+            this.body = body;
+            this.session = session;
+            this.name = body.getVisibleName();
+        }
+    }
+
+    /** Attached bodies indexed by body oid. */
+    protected HashIntMap<Attachment> _byOid = new HashIntMap<Attachment>();
+
+    /** Attached bodies indexed by visible name. */
+    protected Map<Name, Attachment> _byName = Maps.newHashMap();
+
     @Inject protected ClientManager _clmgr;
 }
@@ -38,6 +38,14 @@ public class CrowdClientResolver extends ClientResolver
         return new BodyObject();
     }
 
+    @Override // from ClientResolver
+    public ClientObject restoreMigratedObject (ClientObject clobj)
+    {
+        // the place they occupied was on the server they came from
+        ((BodyObject)clobj).location = null;
+        return super.restoreMigratedObject(clobj);
+    }
+
     @Override
     public ClientLocal createLocalAttribute ()
     {
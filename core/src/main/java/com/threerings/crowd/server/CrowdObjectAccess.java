@@ -30,6 +30,8 @@ import com.threerings.presents.dobj.Subscriber;
 import com.threerings.presents.server.PresentsObjectAccess;
 
 import com.threerings.bureau.data.BureauClientObject;
+import com.threerings.crowd.data.AreaObject;
+import com.threerings.crowd.data.BodyObject;
 import com.threerings.crowd.data.PlaceObject;
 
 import com.google.inject.Inject;
@@ -88,4 +90,42 @@ public class CrowdObjectAccess
         }
     };
 
+    /**
+     * Provides access control for area objects. Only bodies that are interested in an area (see
+     * {@link AreaOfInterestDelegate}) may subscribe to it. Modifications use the {@link
+     * PresentsObjectAccess#DEFAULT} policy.
+     */
+    @Singleton
+    public static class AreaAccessController implements AccessController
+    {
+        public boolean allowSubscribe (DObject object, Subscriber<?> sub)
+        {
+            if (sub instanceof ProxySubscriber) {
+                BodyObject body = getBody(((ProxySubscriber)sub).getClientObject());
+                return (body != null) && ((AreaObject)object).listeners.contains(body.getOid());
+            }
+            return true;
+        }
+
+        /**
+         * Returns the body controlled by the supplied client, or null if it controls none.
+         */
+        protected BodyObject getBody (ClientObject co)
+        {
+            try {
+                return (co == null) ? null : _locator.forClient(co);
+            } catch (ClassCastException cce) {
+                // the default locator assumes that every client object is a body
+                return null;
+            }
+        }
+
+        public boolean allowDispatch (DObject object, DEvent event)
+        {
+            return PresentsObjectAccess.DEFAULT.allowDispatch(object, event);
+        }
+
+        @Inject protected BodyLocator _locator;
+    };
+
 }
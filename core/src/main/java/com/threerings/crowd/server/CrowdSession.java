@@ -23,6 +23,7 @@ package com.threerings.crowd.server;
 
 import com.google.inject.Inject;
 
+import com.threerings.presents.data.ClientObject;
 import com.threerings.presents.server.PresentsSession;
 
 import com.threerings.crowd.chat.server.ChatHistory;
@@ -34,6 +35,40 @@ import com.threerings.crowd.data.OccupantInfo;
  */
 public class CrowdSession extends PresentsSession
 {
+    @Override
+    protected void sessionWillStart ()
+    {
+        super.sessionWillStart();
+
+        // index our body so that it can be found without going through the client manager
+        BodyObject bobj = _locator.forClient(_clobj);
+        if (bobj != null) {
+            _locator.bodyAttached(bobj, this);
+        }
+    }
+
+    @Override
+    protected void clientObjectWillChange (ClientObject oldClobj, ClientObject newClobj)
+    {
+        super.clientObjectWillChange(oldClobj, newClobj);
+
+        BodyObject bobj = _locator.forClient(oldClobj);
+        if (bobj != null) {
+            _locator.bodyDetached(bobj);
+        }
+    }
+
+    @Override
+    protected void clientObjectDidChange (ClientObject newClobj)
+    {
+        super.clientObjectDidChange(newClobj);
+
+        BodyObject bobj = _locator.forClient(newClobj);
+        if (bobj != null) {
+            _locator.bodyAttached(bobj, this);
+        }
+    }
+
     @Override
     protected void sessionConnectionClosed ()
     {
@@ -81,6 +116,9 @@ public class CrowdSession extends PresentsSession
 
         // clear our chat history
         _chatHistory.clear(body.getVisibleName());
+
+        // and remove our body from the locator's index
+        _locator.bodyDetached(body);
     }
 
     /**
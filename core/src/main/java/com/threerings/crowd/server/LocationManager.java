@@ -21,12 +21,19 @@
 
 package com.threerings.crowd.server;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 import com.threerings.presents.data.ClientObject;
+import com.threerings.presents.dobj.DObject;
 import com.threerings.presents.dobj.RootDObjectManager;
-import com.threerings.presents.server.ClientManager;
 import com.threerings.presents.server.InvocationException;
 import com.threerings.presents.server.InvocationManager;
 import com.threerings.presents.server.PresentsSession;
@@ -38,6 +45,7 @@ import com.threerings.crowd.data.LocationCodes;
 import com.threerings.crowd.data.LocationMarshaller;
 import com.threerings.crowd.data.Place;
 import com.threerings.crowd.data.PlaceConfig;
+import com.threerings.crowd.data.PlaceObject;
 
 import static com.threerings.crowd.Log.log;
 
@@ -111,7 +119,7 @@ public class LocationManager
         }
 
         // configure the client accordingly if the place uses a custom class loader
-        PresentsSession client = _clmgr.getClient(source.username);
+        PresentsSession client = _locator.lookupSession(source);
         if (client != null) {
             client.setClassLoader(pmgr.getClass().getClassLoader());
         }
@@ -140,6 +148,105 @@ public class LocationManager
         return pmgr.getConfig();
     }
 
+    /**
+     * Moves all of the specified bodies from whatever locations they currently occupy to the
+     * location identified by the supplied place oid and then instructs their clients to follow
+     * along (which they do via the normal moveTo service, which finds them already in place). The
+     * changes to each affected place object are delivered as a single compound event, rather than
+     * as a handful of events per body as would be the case were each body moved separately.
+     *
+     * <p> Bodies that are already in the target place are left alone. Bodies that may not enter
+     * the place or that have a move in progress are not moved. Each body is ratified with {@link
+     * PlaceManager#ratifyBodyEntry(BodyObject,List)} along with the bodies accepted before it, so
+     * that a place may limit the size of the group that enters it.
+     *
+     * @return the bodies that were actually moved.
+     *
+     * @exception InvocationException thrown if the target place does not exist.
+     */
+    public List<BodyObject> moveBodies (Collection<BodyObject> bodies, int placeOid)
+        throws InvocationException
+    {
+        // make sure the place in question actually exists
+        PlaceManager pmgr = _plreg.getPlaceManager(placeOid);
+        if (pmgr == null) {
+            log.info("Requested to move bodies to non-existent place", "count", bodies.size(),
+                     "placeOid", placeOid);
+            throw new InvocationException(NO_SUCH_PLACE);
+        }
+        Place place = pmgr.getLocation();
+        PlaceObject plobj = pmgr.getPlaceObject();
+
+        // determine who is actually going anywhere and lock them down
+        List<BodyObject> movers = Lists.newArrayListWithCapacity(bodies.size());
+        List<BodyObject> accepted = Collections.unmodifiableList(movers);
+        Set<DObject> places = Sets.newLinkedHashSet();
+        places.add(plobj);
+        for (BodyObject body : bodies) {
+            if (place.equals(body.location)) {
+                continue;
+            }
+            String errmsg = pmgr.ratifyBodyEntry(body, accepted);
+            if (errmsg != null) {
+                log.info("Not moving body to place", "who", body.who(), "place", place,
+                         "reason", errmsg);
+                continue;
+            }
+            if (!body.acquireLock("moveToLock")) {
+                log.info("Not moving body with move in progress", "who", body.who(),
+                         "place", place);
+                continue;
+            }
+            movers.add(body);
+            if (body.location != null) {
+                PlaceManager omgr = _plreg.getPlaceManager(body.location.placeOid);
+                if (omgr != null) {
+                    places.add(omgr.getPlaceObject());
+                }
+            }
+        }
+        if (movers.isEmpty()) {
+            return movers;
+        }
+
+        // perform all of the moves with every involved object in a transaction, then commit the
+        // places first so that bodies see their places updated before their own location changes
+        // as they would with a normal move
+        for (DObject dobj : places) {
+            dobj.startTransaction();
+        }
+        for (BodyObject body : movers) {
+            body.startTransaction();
+        }
+        try {
+            for (BodyObject body : movers) {
+                PresentsSession client = _locator.lookupSession(body);
+                if (client != null) {
+                    client.setClassLoader(pmgr.getClass().getClassLoader());
+                }
+                leaveOccupiedPlace(body);
+                pmgr.bodyWillEnter(body);
+                body.willEnterPlace(place, plobj);
+            }
+
+        } finally {
+            for (DObject dobj : places) {
+                dobj.commitTransaction();
+            }
+            for (BodyObject body : movers) {
+                body.commitTransaction();
+                // queue up an event to release the lock once these events are processed
+                body.releaseLock("moveToLock");
+            }
+        }
+
+        // finally let the clients know where they've gone
+        for (BodyObject body : movers) {
+            LocationSender.forcedMove(body.getClientObject(), placeOid);
+        }
+        return movers;
+    }
+
     /**
      * Removes the specified body from the place object they currently occupy. Does nothing if the
      * body is not currently in a place.
@@ -184,6 +291,5 @@ public class LocationManager
 
     @Inject protected RootDObjectManager _omgr;
     @Inject protected BodyLocator _locator;
-    @Inject protected ClientManager _clmgr;
     @Inject protected PlaceRegistry _plreg;
 }
@@ -0,0 +1,150 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.crowd.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.samskivert.util.Lifecycle;
+
+import static com.threerings.crowd.Log.log;
+
+/**
+ * Provides place managers with their own serial executors, all of which are multiplexed over a
+ * shared pool of threads, so that CPU-heavy work in one place neither waits behind nor holds up
+ * the work of other places or the distributed object thread.
+ *
+ * <p> Work handed to a place executor must honor the following contract: it must not read or
+ * modify distributed objects, the place or client registries or any other state owned by the
+ * distributed object thread. Anything it needs from that world must be captured before the work
+ * is submitted and its results must be handed back to the distributed object thread to be
+ * applied (see {@link PlaceManager#executeUnit}, which does this). In exchange, all of the work
+ * submitted for a single place runs in the order it was submitted and never concurrently, so a
+ * manager may keep state that is touched only by its executor without any further locking.
+ *
+ * <p> The number of threads in the pool defaults to the number of available processors and can
+ * be configured via the <code>com.threerings.crowd.placeExecutorThreads</code> system property.
+ */
+@Singleton
+public class PlaceExecutors
+    implements Lifecycle.ShutdownComponent
+{
+    @Inject public PlaceExecutors (Lifecycle cycle)
+    {
+        cycle.addComponent(this);
+    }
+
+    /**
+     * Creates a new serial executor with the supplied name (which is used when reporting
+     * failures).
+     */
+    public Executor create (String name)
+    {
+        return new SerialExecutor(name);
+    }
+
+    // from interface Lifecycle.ShutdownComponent
+    public synchronized void shutdown ()
+    {
+        if (_pool != null) {
+            _pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns our thread pool, creating it if necessary.
+     */
+    protected synchronized ExecutorService getPool ()
+    {
+        if (_pool == null) {
+            _pool = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactoryBuilder().
+                setNameFormat("PlaceExecutor-%d").setDaemon(true).build());
+        }
+        return _pool;
+    }
+
+    /**
+     * Returns the number of threads over which place executors are multiplexed.
+     */
+    protected int getThreadCount ()
+    {
+        return Math.max(1, Integer.getInteger("com.threerings.crowd.placeExecutorThreads",
+                                              Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Runs tasks one at a time, in order, on threads borrowed from our pool. */
+    protected class SerialExecutor
+        implements Executor, Runnable
+    {
+        public SerialExecutor (String name) {
+            _name = name;
+        }
+
+        public void execute (Runnable task) {
+            synchronized (this) {
+                _tasks.add(task);
+                if (_scheduled) {
+                    return;
+                }
+                _scheduled = true;
+            }
+            getPool().execute(this);
+        }
+
+        public void run () {
+            // run a limited number of tasks before giving other places a turn at this thread
+            for (int ii = 0; ii < MAX_TASKS_PER_TURN; ii++) {
+                Runnable task;
+                synchronized (this) {
+                    task = _tasks.poll();
+                    if (task == null) {
+                        _scheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    log.warning("Place executor task failed", "place", _name, "task", task, t);
+                }
+            }
+            getPool().execute(this);
+        }
+
+        protected String _name;
+        protected ArrayDeque<Runnable> _tasks = new ArrayDeque<Runnable>();
+        protected boolean _scheduled;
+    }
+
+    /** The threads over which our serial executors are multiplexed. */
+    protected ExecutorService _pool;
+
+    /** The maximum number of tasks a serial executor runs before yielding its thread. */
+    protected static final int MAX_TASKS_PER_TURN = 16;
+}
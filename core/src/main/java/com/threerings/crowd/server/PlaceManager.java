@@ -21,8 +21,11 @@
 
 package com.threerings.crowd.server;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -31,15 +34,20 @@ import com.google.inject.Injector;
 
 import com.samskivert.util.HashIntMap;
 import com.samskivert.util.Interval;
+import com.samskivert.util.Invoker;
 import com.samskivert.util.MethodFinder;
 import com.samskivert.util.StringUtil;
 
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+
 import com.threerings.presents.data.ClientObject;
 import com.threerings.presents.data.InvocationMarshaller;
 import com.threerings.presents.dobj.AccessController;
 import com.threerings.presents.dobj.DObject;
 import com.threerings.presents.dobj.DSet;
 import com.threerings.presents.dobj.DynamicListener;
+import com.threerings.presents.dobj.EntryDeltaEvent;
 import com.threerings.presents.dobj.EntryUpdatedEvent;
 import com.threerings.presents.dobj.MessageEvent;
 import com.threerings.presents.dobj.MessageListener;
@@ -151,13 +159,31 @@ public class PlaceManager
      */
     public void applyToOccupants (OccupantOp op)
     {
-        if (_plobj != null) {
+        if (_plobj == null) {
+            return;
+        }
+        if (publishesOccupantInfo()) {
             for (OccupantInfo info : _plobj.occupantInfo) {
                 op.apply(info);
             }
+        } else {
+            for (OccupantInfo info : _occInfo.values()) {
+                op.apply(info);
+            }
         }
     }
 
+    /**
+     * Returns the canonical occupant info record for the specified body or null if the body is
+     * not an occupant of this place. The record must not be modified directly, use {@link
+     * #updateOccupantInfo} to do that.
+     */
+    public <T extends OccupantInfo> T getOccupantInfo (int bodyOid)
+    {
+        @SuppressWarnings("unchecked") T info = (T)_occInfo.get(bodyOid);
+        return info;
+    }
+
     /**
      * Calls the supplied updater on the canonical occupant info record for the specified body
      * (which must be an occupant of this place) and broadcasts the update to all other occupants.
@@ -178,10 +204,74 @@ public class PlaceManager
         // update the canonical copy
         _occInfo.put(info.getBodyOid(), info);
         // clone the canonical copy and send an event updating the distributed set with that clone
-        _plobj.updateOccupantInfo(info.clone());
+        if (publishesOccupantInfo()) {
+            if (usesOccupantDeltas()) {
+                _plobj.updateSetDelta(PlaceObject.OCCUPANT_INFO, info.clone());
+            } else {
+                _plobj.updateOccupantInfo(info.clone());
+            }
+        } else {
+            // there's no place object event to trigger our usual update processing, so do it here
+            bodyUpdated(info.clone());
+        }
         return true;
     }
 
+    /**
+     * Runs the supplied unit's {@link Invoker.Unit#invoke} method on this place's serial executor
+     * and then, if it returns true and this place is still active, its {@link
+     * Invoker.Unit#handleResult} method on the distributed object thread. Units must honor the
+     * contract described in {@link PlaceExecutors}. Places that do not use an executor (see
+     * {@link #usesPlaceExecutor}) run both methods in turn on the distributed object thread.
+     */
+    public void executeUnit (final Invoker.Unit unit)
+    {
+        final PlaceObject plobj = _plobj;
+        final Runnable result = new Runnable() {
+            public void run () {
+                // don't deliver results to a place that has since shut down
+                if (plobj != null && plobj == _plobj && plobj.isActive()) {
+                    unit.handleResult();
+                }
+            }
+        };
+
+        _pendingUnits.incrementAndGet();
+        if (!usesPlaceExecutor()) {
+            _omgr.postRunnable(new Runnable() {
+                public void run () {
+                    boolean deliver;
+                    try {
+                        deliver = unit.invoke();
+                    } finally {
+                        _pendingUnits.decrementAndGet();
+                    }
+                    if (deliver) {
+                        result.run();
+                    }
+                }
+            });
+            return;
+        }
+
+        if (_executor == null) {
+            _executor = _executors.create(where());
+        }
+        _executor.execute(new Runnable() {
+            public void run () {
+                boolean deliver;
+                try {
+                    deliver = unit.invoke();
+                } finally {
+                    _pendingUnits.decrementAndGet();
+                }
+                if (deliver) {
+                    _omgr.postRunnable(result);
+                }
+            }
+        });
+    }
+
     /**
      * Called by the place registry after creating this place manager.
      */
@@ -312,6 +402,23 @@ public class PlaceManager
         return null;
     }
 
+    /**
+     * Provides an opportunity for the place manager to prevent a body from entering as part of a
+     * group move (see {@link LocationManager#moveBodies}). The bodies already accepted into the
+     * move have not yet been added to the place object, so a manager that limits its occupancy
+     * must count them as well as its current occupants. The default implementation simply calls
+     * {@link #ratifyBodyEntry(BodyObject)}.
+     *
+     * @param entering the bodies that have already been accepted to enter along with this one.
+     *
+     * @return <code>null</code> if the body can enter, otherwise a translatable message explaining
+     * the reason the body is blocked from entering
+     */
+    public String ratifyBodyEntry (BodyObject body, List<BodyObject> entering)
+    {
+        return ratifyBodyEntry(body);
+    }
+
     /**
      * This is called to inform the manager that a body is on the way in. This is called at the
      * very beginning of the entry process before the client is informed that it is allowed to
@@ -341,7 +448,10 @@ public class PlaceManager
         _plobj.startTransaction();
         try {
             // remove their occupant info (which is keyed on oid)
-            _plobj.removeFromOccupantInfo(body.getOid());
+            Integer key = Integer.valueOf(body.getOid());
+            if (_plobj.occupantInfo.containsKey(key)) {
+                _plobj.removeFromOccupantInfo(key);
+            }
             // and remove them from the occupant list
             _plobj.removeFromOccupants(body.getOid());
         } finally {
@@ -662,12 +772,37 @@ public class PlaceManager
     protected void addOccupantInfo (BodyObject body, OccupantInfo info)
     {
         // clone the canonical copy and insert it into the DSet
-        _plobj.addToOccupantInfo(info);
+        if (publishesOccupantInfo()) {
+            _plobj.addToOccupantInfo(info);
+        }
 
         // add the body oid to our place object's occupant list
         _plobj.addToOccupants(body.getOid());
     }
 
+    /**
+     * Returns true if occupant info records are published in {@link PlaceObject#occupantInfo} for
+     * all occupants to see. Very large places that partition their occupants into areas of
+     * interest (see {@link AreaOfInterestDelegate}) can return false to keep each occupant from
+     * having to hear about every other occupant of the place.
+     */
+    protected boolean publishesOccupantInfo ()
+    {
+        return true;
+    }
+
+    /**
+     * Returns true if occupant info updates should be sent as {@link EntryDeltaEvent}s carrying
+     * only the fields that changed rather than as complete records. ActionScript clients cannot
+     * decode delta events, so this is only suitable for places occupied solely by Java clients. By
+     * default this is controlled by the <code>com.threerings.crowd.occupantDeltas</code> system
+     * property.
+     */
+    protected boolean usesOccupantDeltas ()
+    {
+        return USE_OCCUPANT_DELTAS;
+    }
+
     /**
      * Returns whether the location should be marked as empty and potentially shutdown.
      */
@@ -721,6 +856,9 @@ public class PlaceManager
             (_shutdownInterval = _omgr.newInterval(new Runnable() {
                 public void run () {
                     log.debug("Unloading idle place '" + where() + "'.");
+                    if (getHibernationKey() != null) {
+                        _registry.hibernatePlace(PlaceManager.this);
+                    }
                     shutdown();
                 }
             })).schedule(idlePeriod);
@@ -748,6 +886,118 @@ public class PlaceManager
         return 5 * 60 * 1000L;
     }
 
+    /**
+     * Returns true if work submitted via {@link #executeUnit} should run on a serial executor
+     * dedicated to this place rather than on the distributed object thread. By default this is
+     * controlled by the <code>com.threerings.crowd.placeExecutors</code> system property.
+     */
+    protected boolean usesPlaceExecutor ()
+    {
+        return USE_PLACE_EXECUTORS;
+    }
+
+    /**
+     * Returns true if this manager may be reused by the place registry to manage a new place with
+     * the same manager class once this place has shut down. Managers that return true must
+     * override {@link #resetForReuse} to clear out any state of their own.
+     *
+     * <p> They must also make sure that nothing started on behalf of the old place can call back
+     * into the manager once it is reused: intervals must be cancelled, listeners added to objects
+     * other than the place object removed and so on by the time {@link #didShutdown} returns. Work
+     * that is still in flight at that point (invoker units posted by the manager, for example)
+     * must be reported by {@link #hasOutstandingWork}, in which case the manager is not pooled.
+     */
+    protected boolean isReusable ()
+    {
+        return false;
+    }
+
+    /**
+     * Returns true if work started on behalf of this manager's place may yet run and call back
+     * into the manager. The place registry does not pool a {@link #isReusable} manager that has
+     * outstanding work. This accounts for units passed to {@link #executeUnit}; derived classes
+     * that start work of their own elsewhere (on an invoker, say) should override this method to
+     * report it as well.
+     */
+    protected boolean hasOutstandingWork ()
+    {
+        return _pendingUnits.get() > 0;
+    }
+
+    /**
+     * Called by the place registry once this manager has been constructed, before any delegates
+     * are added for its place config and before it is initialized, to note the delegates and
+     * message handlers registered by its constructor. These are retained by {@link
+     * #resetForReuse}.
+     */
+    protected void noteConstructed ()
+    {
+        _ctorDelegates = (_delegates == null) ? null : Lists.newArrayList(_delegates);
+        _ctorHandlers = (_msghandlers == null) ? null : Maps.newHashMap(_msghandlers);
+    }
+
+    /**
+     * Called by the place registry when this manager has shut down and is about to be pooled for
+     * reuse. Derived classes that are {@link #isReusable} must override this method (being sure
+     * to call super) and return themselves to the state in which they were originally
+     * constructed. Injected dependencies are retained, as are the delegates and message handlers
+     * registered by the constructor (see {@link #noteConstructed}); those added for the old place
+     * are dropped.
+     */
+    protected void resetForReuse ()
+    {
+        cancelShutdowner();
+        _omgr = null;
+        _plobj = null;
+        _config = null;
+        _msghandlers = (_ctorHandlers == null) ? null : Maps.newHashMap(_ctorHandlers);
+        _delegates = (_ctorDelegates == null) ? null : Lists.newArrayList(_ctorDelegates);
+        _marshallers.clear();
+        _occInfo.clear();
+        _restored = false;
+        _executor = null;
+    }
+
+    /**
+     * Returns a key that uniquely identifies this place among all places that may be hibernated,
+     * or null if this place should not be hibernated (the default). A place that is hibernated has
+     * its place object (and any state written by {@link #writeHibernationState}) saved by the
+     * place registry when it is unloaded for being idle. When a place with the same key is next
+     * created, its place object is restored from that snapshot rather than created anew. This is
+     * called after {@link #init} so the key may be derived from the place config.
+     */
+    protected Object getHibernationKey ()
+    {
+        return null;
+    }
+
+    /**
+     * Writes any state maintained by this manager (rather than in its place object) that should
+     * be restored if this place is brought out of hibernation.
+     */
+    protected void writeHibernationState (ObjectOutputStream out)
+        throws IOException
+    {
+    }
+
+    /**
+     * Reads the state written by {@link #writeHibernationState}. This is called prior to {@link
+     * #startup} when a hibernated place is restored.
+     */
+    protected void readHibernationState (ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+    }
+
+    /**
+     * Returns true if this place was restored from hibernation, in which case {@link
+     * #didStartup} can skip any expensive initialization whose results were hibernated.
+     */
+    protected boolean wasRestored ()
+    {
+        return _restored;
+    }
+
     /**
      * An extensible way to add to the string representation of this class. Override this (being
      * sure to call super) and append your info to the buffer.
@@ -801,13 +1051,20 @@ public class PlaceManager
                 didShutdown();
             } catch (Throwable t) {
                 log.warning("Manager choked in didShutdown()", "where", where(), t);
+                return;
             }
+
+            // let the registry reuse us if it likes
+            _registry.releasePlaceManager(PlaceManager.this);
         }
     };
 
     /** We use this to inject dependencies into our access controller. */
     @Inject protected Injector _injector;
 
+    /** Provides our serial executor, if we use one. */
+    @Inject protected PlaceExecutors _executors;
+
     /** A reference to the place registry with which we're registered. */
     protected PlaceRegistry _registry;
 
@@ -832,6 +1089,11 @@ public class PlaceManager
     /** A list of the delegates in use by this manager. */
     protected List<PlaceManagerDelegate> _delegates;
 
+    /** The message handlers and delegates registered by our constructor, retained when we are
+     * reset for reuse. */
+    protected Map<String, MessageHandler> _ctorHandlers;
+    protected List<PlaceManagerDelegate> _ctorDelegates;
+
     /** A list of services registered with {@link #addProvider} which will be automatically
      * cleared when this manager shuts down. */
     protected List<InvocationMarshaller<?>> _marshallers = Lists.newArrayList();
@@ -846,8 +1108,25 @@ public class PlaceManager
     /** Used to do method lookup magic when we receive message events. */
     protected DynamicListener<?> _dispatcher;
 
+    /** Whether our place was restored from hibernation. */
+    protected boolean _restored;
+
+    /** The executor on which we run {@link #executeUnit} work, created when first needed. */
+    protected Executor _executor;
+
+    /** The number of {@link #executeUnit} units that have yet to be invoked. */
+    protected AtomicInteger _pendingUnits = new AtomicInteger();
+
     /** Maps from a PlaceManager subclass to a MethodFinder for it. When there are many many
      * instances of a PlaceManager in existence, having a MethodFinder instance for each gets quite
      * expensive. */
     protected static Map<Class<?>, MethodFinder> _dispatcherFinders = Maps.newHashMap();
+
+    /** Whether places run {@link #executeUnit} work on their own executors by default. */
+    protected static final boolean USE_PLACE_EXECUTORS =
+        Boolean.getBoolean("com.threerings.crowd.placeExecutors");
+
+    /** Whether places send occupant info updates as deltas by default. */
+    protected static final boolean USE_OCCUPANT_DELTAS =
+        Boolean.getBoolean("com.threerings.crowd.occupantDeltas");
 }
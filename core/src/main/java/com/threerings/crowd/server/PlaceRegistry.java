@@ -21,9 +21,20 @@
 
 package com.threerings.crowd.server;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
@@ -32,6 +43,10 @@ import com.samskivert.util.IntMap;
 import com.samskivert.util.IntMaps;
 import com.samskivert.util.Lifecycle;
 
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+
+import com.threerings.presents.data.InvocationMarshaller;
 import com.threerings.presents.dobj.RootDObjectManager;
 import com.threerings.presents.server.InvocationException;
 import com.threerings.presents.server.InvocationManager;
@@ -180,8 +195,13 @@ public class PlaceRegistry
         PlaceManager pmgr = null;
 
         try {
-            // create a place manager using the class supplied in the place config
-            pmgr = createPlaceManager(config);
+            // reuse a pooled place manager if we can, otherwise create one using the class
+            // supplied in the place config
+            pmgr = takePooledManager(config);
+            if (pmgr == null) {
+                pmgr = createPlaceManager(config);
+                pmgr.noteConstructed();
+            }
 
             // if we have delegates, inject their dependencies and add them
             if (delegates != null) {
@@ -207,8 +227,20 @@ public class PlaceRegistry
             throw new InvocationException(errmsg);
         }
 
-        // and create and register the place object
-        PlaceObject plobj = pmgr.createPlaceObject();
+        // and create and register the place object, restoring it from hibernation if possible
+        PlaceObject plobj = null;
+        Object hkey = pmgr.getHibernationKey();
+        byte[] snapshot = (hkey == null) ? null : _snapshots.remove(hkey);
+        if (snapshot != null) {
+            try {
+                plobj = restoreSnapshot(pmgr, snapshot);
+            } catch (Exception e) {
+                log.warning("Failed to restore hibernated place", "key", hkey, "pmgr", pmgr, e);
+            }
+        }
+        if (plobj == null) {
+            plobj = pmgr.createPlaceObject();
+        }
         _omgr.registerObject(plobj);
 
         // stick the manager into our table
@@ -242,6 +274,144 @@ public class PlaceRegistry
         return _injector.getInstance(clazz);
     }
 
+    /**
+     * Returns a pooled place manager that can manage a place with the supplied config or null if
+     * we have none.
+     */
+    protected PlaceManager takePooledManager (PlaceConfig config)
+    {
+        List<PlaceManager> pool = _pool.get(config.getManagerClassName());
+        return (pool == null || pool.isEmpty()) ? null : pool.remove(pool.size() - 1);
+    }
+
+    /**
+     * Called by a place manager once it has completely shut down. If the manager is reusable, has
+     * no work outstanding on behalf of its old place and we have room in our pool, it is reset
+     * and held for reuse by a subsequent place.
+     */
+    protected void releasePlaceManager (PlaceManager pmgr)
+    {
+        // only pool managers that are exactly what we would create for their config
+        if (!pmgr.isReusable() || pmgr.getConfig() == null) {
+            return;
+        }
+        // and that won't be called back by work started for their old place
+        if (pmgr.hasOutstandingWork()) {
+            log.info("Not pooling place manager with outstanding work", "pmgr", pmgr.where());
+            return;
+        }
+        String mclass = pmgr.getConfig().getManagerClassName();
+        if (!pmgr.getClass().getName().equals(mclass)) {
+            return;
+        }
+
+        List<PlaceManager> pool = _pool.get(mclass);
+        if (pool == null) {
+            _pool.put(mclass, pool = Lists.newArrayList());
+        }
+        if (pool.size() >= getMaxPooledManagers()) {
+            return;
+        }
+        try {
+            pmgr.resetForReuse();
+            pool.add(pmgr);
+        } catch (Exception e) {
+            log.warning("Place manager failed to reset for reuse", "pmgr", pmgr, e);
+        }
+    }
+
+    /**
+     * Returns the maximum number of idle place managers of any one class that we'll keep around
+     * for reuse.
+     */
+    protected int getMaxPooledManagers ()
+    {
+        return DEFAULT_MAX_POOLED_MANAGERS;
+    }
+
+    /**
+     * Called by a place manager that is about to shut down for having been idle, if it has a
+     * {@link PlaceManager#getHibernationKey}, to snapshot its state so that it may be restored
+     * the next time the place is created.
+     */
+    protected void hibernatePlace (PlaceManager pmgr)
+    {
+        Object hkey = pmgr.getHibernationKey();
+        try {
+            _snapshots.put(hkey, createSnapshot(pmgr));
+        } catch (Exception e) {
+            log.warning("Failed to hibernate place", "key", hkey, "pmgr", pmgr, e);
+            return;
+        }
+
+        // if we're holding too many snapshots, forget those that have been idle the longest
+        Iterator<byte[]> iter = _snapshots.values().iterator();
+        while (_snapshots.size() > getMaxSnapshots() && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Flattens and compresses the supplied manager's place object and hibernation state.
+     */
+    protected byte[] createSnapshot (PlaceManager pmgr)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(new DeflaterOutputStream(bout));
+        oout.writeObject(pmgr.getPlaceObject());
+        pmgr.writeHibernationState(oout);
+        oout.close();
+        return bout.toByteArray();
+    }
+
+    /**
+     * Restores the place object and hibernation state from a snapshot made by {@link
+     * #createSnapshot} into the supplied (initialized, but not yet started) manager.
+     */
+    protected PlaceObject restoreSnapshot (PlaceManager pmgr, byte[] snapshot)
+        throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream oin = new ObjectInputStream(
+            new InflaterInputStream(new ByteArrayInputStream(snapshot)));
+        oin.setClassLoader(pmgr.getClass().getClassLoader());
+        PlaceObject plobj = (PlaceObject)oin.readObject();
+        pmgr.readHibernationState(oin);
+        // our services were cleared when we shut down, the manager will register new ones
+        clearMarshallers(plobj);
+        pmgr._restored = true;
+        return plobj;
+    }
+
+    /**
+     * Clears out all of the invocation service marshallers of the supplied (not yet registered)
+     * place object, as those that were registered for it before it was hibernated are no longer
+     * valid.
+     */
+    protected void clearMarshallers (PlaceObject plobj)
+        throws IOException
+    {
+        for (Field field : plobj.getClass().getFields()) {
+            if (InvocationMarshaller.class.isAssignableFrom(field.getType()) &&
+                !Modifier.isStatic(field.getModifiers())) {
+                try {
+                    field.set(plobj, null);
+                } catch (IllegalAccessException iae) {
+                    throw new IOException("Unable to clear service " + field.getName(), iae);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of hibernated places for which we'll hold snapshots.
+     */
+    protected int getMaxSnapshots ()
+    {
+        return DEFAULT_MAX_SNAPSHOTS;
+    }
+
     /**
      * Selects the body locator to be used by the PlaceManager created for the supplied config.
      */
@@ -280,4 +450,16 @@ public class PlaceRegistry
 
     /** A mapping from place object id to place manager. */
     protected IntMap<PlaceManager> _pmgrs = IntMaps.newHashIntMap();
+
+    /** Idle place managers available for reuse, keyed on class name. */
+    protected Map<String, List<PlaceManager>> _pool = Maps.newHashMap();
+
+    /** Snapshots of hibernated places, keyed on hibernation key, in least recently used order. */
+    protected Map<Object, byte[]> _snapshots = new LinkedHashMap<Object, byte[]>(16, 0.75f, true);
+
+    /** The default maximum number of pooled place managers per class. */
+    protected static final int DEFAULT_MAX_POOLED_MANAGERS = 8;
+
+    /** The default maximum number of hibernated place snapshots. */
+    protected static final int DEFAULT_MAX_SNAPSHOTS = 1024;
 }
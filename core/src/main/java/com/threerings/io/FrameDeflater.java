@@ -0,0 +1,162 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses frames produced by a {@link FramingOutputStream} for transmission over a link whose
+ * other end reads them with an {@link InflatingFramedInputStream}. Every frame must be decodable
+ * as soon as it arrives, so each is flushed in its entirety; context is carried from frame to
+ * frame by priming the compressor with the most recently sent bytes as a preset dictionary.
+ * Frames that are too small to benefit from compression are sent uncompressed.
+ *
+ * <p><em>Note:</em> a frame deflater maintains state that must mirror that of the inflating
+ * stream on the other end of the link, so every frame sent on that link must pass through it,
+ * in order, from a single thread.
+ */
+public class FrameDeflater
+{
+    /**
+     * Creates a frame deflater.
+     *
+     * @param level the {@link Deflater} compression level.
+     * @param minSize frames with fewer than this many bytes of data are sent uncompressed.
+     * @param dictSize the number of previously sent bytes with which to prime the compressor for
+     * each frame. This must match the dictionary size of the receiving stream. Zero compresses
+     * every frame independently.
+     */
+    public FrameDeflater (int level, int minSize, int dictSize)
+    {
+        _deflater = new Deflater(level);
+        _minSize = minSize;
+        _history = new byte[dictSize];
+    }
+
+    /**
+     * Compresses the supplied frame (as returned by {@link
+     * FramingOutputStream#frameAndReturnBuffer}) and returns the bytes to be written to the link,
+     * which are themselves framed.
+     */
+    public byte[] deflate (ByteBuffer frame)
+    {
+        int length = frame.limit() - HEADER_SIZE;
+        byte[] data;
+        int offset;
+        if (frame.hasArray()) {
+            data = frame.array();
+            offset = frame.arrayOffset() + HEADER_SIZE;
+        } else {
+            data = new byte[length];
+            offset = 0;
+            frame.position(HEADER_SIZE);
+            frame.get(data);
+        }
+
+        byte[] out = null;
+        int size = 0;
+        if (length >= _minSize) {
+            _deflater.reset();
+            if (_historyLength > 0) {
+                _deflater.setDictionary(_history, _history.length - _historyLength,
+                                        _historyLength);
+            }
+            _deflater.setInput(data, offset, length);
+            _deflater.finish();
+            out = _buffer;
+            size = HEADER_SIZE + 1;
+            while (!_deflater.finished()) {
+                if (size == out.length) {
+                    byte[] nout = new byte[out.length * 2];
+                    System.arraycopy(out, 0, nout, 0, size);
+                    out = _buffer = nout;
+                }
+                size += _deflater.deflate(out, size, out.length - size);
+            }
+            out[HEADER_SIZE] = DEFLATED;
+        }
+
+        // if the data didn't compress (or was too small to try), send it as is
+        if (out == null || size >= HEADER_SIZE + 1 + length) {
+            out = _buffer;
+            size = HEADER_SIZE + 1 + length;
+            if (size > out.length) {
+                out = _buffer = new byte[size];
+            }
+            out[HEADER_SIZE] = STORED;
+            System.arraycopy(data, offset, out, HEADER_SIZE + 1, length);
+        }
+
+        _historyLength = appendHistory(_history, _historyLength, data, offset, length);
+
+        // write the frame length and return a copy of the frame
+        out[0] = (byte)((size >>> 24) & 0xFF);
+        out[1] = (byte)((size >>> 16) & 0xFF);
+        out[2] = (byte)((size >>>  8) & 0xFF);
+        out[3] = (byte)((size >>>  0) & 0xFF);
+        byte[] result = new byte[size];
+        System.arraycopy(out, 0, result, 0, size);
+        return result;
+    }
+
+    /**
+     * Appends the supplied data to a history buffer whose most recent bytes are kept at its end,
+     * and returns the new number of valid bytes in the buffer.
+     */
+    protected static int appendHistory (byte[] history, int have, byte[] data, int off, int len)
+    {
+        int size = history.length;
+        if (len >= size) {
+            System.arraycopy(data, off + len - size, history, 0, size);
+            return size;
+        }
+        int keep = Math.min(have, size - len);
+        System.arraycopy(history, size - keep, history, size - keep - len, keep);
+        System.arraycopy(data, off, history, size - len, len);
+        return keep + len;
+    }
+
+    /** Used to compress our frames. */
+    protected Deflater _deflater;
+
+    /** Frames with less data than this are not compressed. */
+    protected int _minSize;
+
+    /** The most recently sent data, used to prime the compressor. */
+    protected byte[] _history;
+
+    /** The number of valid bytes at the end of {@link #_history}. */
+    protected int _historyLength;
+
+    /** The buffer into which we compress frames. */
+    protected byte[] _buffer = new byte[1024];
+
+    /** Precedes the data of a frame that was sent uncompressed. */
+    protected static final byte STORED = 0;
+
+    /** Precedes the data of a frame that was compressed. */
+    protected static final byte DEFLATED = 1;
+
+    /** The size of the frame header (a 32-bit integer). */
+    protected static final int HEADER_SIZE = 4;
+}
@@ -0,0 +1,205 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A framed input stream that can be switched, at an agreed upon point in the stream, to reading
+ * frames that were compressed by a {@link FrameDeflater}. Until {@link #startInflating} is called
+ * it behaves exactly like a {@link FramedInputStream}.
+ */
+public class InflatingFramedInputStream extends FramedInputStream
+{
+    /**
+     * Treats all subsequently read frames as having been compressed by a {@link FrameDeflater}.
+     *
+     * @param dictSize the dictionary size used by the deflater on the other end of the link.
+     */
+    public void startInflating (int dictSize)
+    {
+        _inflater = new Inflater();
+        _history = new byte[dictSize];
+        _inflated = ByteBuffer.allocate(INITIAL_BUFFER_CAPACITY);
+        _inflated.flip();
+    }
+
+    /**
+     * Returns true if frames read by this stream are being decompressed.
+     */
+    public boolean isInflating ()
+    {
+        return (_inflater != null);
+    }
+
+    /**
+     * Returns the number of bytes that were read from the network for the current frame,
+     * including the frame header.
+     */
+    public int getFrameLength ()
+    {
+        return _length;
+    }
+
+    @Override
+    public boolean readFrame (ReadableByteChannel source)
+        throws IOException
+    {
+        if (!super.readFrame(source)) {
+            return false;
+        }
+        if (_inflater != null) {
+            inflateFrame();
+        }
+        return true;
+    }
+
+    @Override
+    public int read ()
+    {
+        if (_inflater == null) {
+            return super.read();
+        }
+        return (_inflated.remaining() > 0) ? (_inflated.get() & 0xFF) : -1;
+    }
+
+    @Override
+    public int read (byte[] b, int off, int len)
+    {
+        if (_inflater == null) {
+            return super.read(b, off, len);
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if ((len = Math.min(len, _inflated.remaining())) == 0) {
+            return -1;
+        }
+        _inflated.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public int available ()
+    {
+        return (_inflater == null) ? super.available() : _inflated.remaining();
+    }
+
+    @Override
+    public void reset ()
+    {
+        if (_inflater == null) {
+            super.reset();
+        } else {
+            _inflated.rewind();
+        }
+    }
+
+    /**
+     * Decompresses the frame that was just read into our inflated buffer.
+     */
+    protected void inflateFrame ()
+        throws IOException
+    {
+        byte[] data = _buffer.array();
+        int offset = _buffer.arrayOffset() + _buffer.position() + 1;
+        int length = _buffer.remaining() - 1;
+        if (length < 0) {
+            throw new IOException("Received empty compressed frame.");
+        }
+        byte mode = _buffer.get(_buffer.position());
+        _buffer.position(_buffer.limit());
+
+        _inflated.clear();
+        if (mode == FrameDeflater.STORED) {
+            ensureCapacity(length);
+            _inflated.put(data, offset, length);
+
+        } else if (mode == FrameDeflater.DEFLATED) {
+            _inflater.reset();
+            _inflater.setInput(data, offset, length);
+            try {
+                while (!_inflater.finished()) {
+                    ensureCapacity(1);
+                    int got = _inflater.inflate(
+                        _inflated.array(), _inflated.position(), _inflated.remaining());
+                    _inflated.position(_inflated.position() + got);
+                    if (got == 0) {
+                        if (_inflater.needsDictionary()) {
+                            _inflater.setDictionary(_history, _history.length - _historyLength,
+                                                    _historyLength);
+                        } else if (_inflater.needsInput()) {
+                            throw new IOException("Received truncated compressed frame.");
+                        }
+                    }
+                }
+            } catch (DataFormatException dfe) {
+                throw (IOException)new IOException("Received corrupt compressed frame.").
+                    initCause(dfe);
+            }
+
+        } else {
+            throw new IOException("Received frame with unknown compression mode " + mode + ".");
+        }
+        _inflated.flip();
+
+        _historyLength = FrameDeflater.appendHistory(
+            _history, _historyLength, _inflated.array(), 0, _inflated.limit());
+    }
+
+    /**
+     * Ensures that our inflated buffer has room for the specified number of additional bytes.
+     */
+    protected void ensureCapacity (int needed)
+        throws IOException
+    {
+        if (_inflated.remaining() >= needed) {
+            return;
+        }
+        int capacity = _inflated.capacity();
+        while (capacity - _inflated.position() < needed) {
+            capacity <<= 1;
+        }
+        if (capacity > MAX_BUFFER_CAPACITY) {
+            throw new IOException("Inflated frame exceeds maximum size.");
+        }
+        ByteBuffer newbuf = ByteBuffer.allocate(capacity);
+        newbuf.put((ByteBuffer)_inflated.flip());
+        _inflated = newbuf;
+    }
+
+    /** Used to decompress our frames, or null if we're not inflating. */
+    protected Inflater _inflater;
+
+    /** The decompressed contents of the current frame. */
+    protected ByteBuffer _inflated;
+
+    /** The most recently received data, used to prime the decompressor. */
+    protected byte[] _history;
+
+    /** The number of valid bytes at the end of {@link #_history}. */
+    protected int _historyLength;
+}
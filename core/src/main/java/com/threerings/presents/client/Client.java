@@ -42,6 +42,8 @@ import com.threerings.presents.dobj.DObjectManager;
 import com.threerings.presents.net.AuthResponseData;
 import com.threerings.presents.net.BootstrapData;
 import com.threerings.presents.net.Credentials;
+import com.threerings.presents.net.MigrateNotification;
+import com.threerings.presents.net.MigrationCreds;
 import com.threerings.presents.net.PingRequest;
 import com.threerings.presents.net.PongResponse;
 import com.threerings.presents.net.ThrottleUpdatedMessage;
@@ -447,6 +449,17 @@ public class Client
         return _bstrap;
     }
 
+    /**
+     * Returns the most recent resume ticket issued to this client, or null if the server does not
+     * issue them. This is retained after logoff so that a client whose connection dropped can log
+     * back on with a {@link com.threerings.presents.net.ResumeTicketCreds} rather than its
+     * original credentials.
+     */
+    public String getResumeTicket ()
+    {
+        return _resumeTicket;
+    }
+
     /**
      * Converts a server time stamp to a value comparable to client clock readings.
      */
@@ -698,6 +711,7 @@ public class Client
         // keep these around for interested parties
         _bstrap = data;
         _omgr = omgr;
+        _resumeTicket = data.resumeTicket;
 
         // extract bootstrap information
         _connectionId = data.connectionId;
@@ -720,6 +734,29 @@ public class Client
         // before turning the client loose to do things like request invocation services
     }
 
+    /**
+     * Called by the {@link ClientDObjectMgr} when our server tells us that our session has been
+     * migrated to another server. We move to that server, presenting the ticket it issued in place
+     * of our credentials, and then go back to using our own credentials for any future logons.
+     */
+    protected void gotMigrateNotification (MigrateNotification msg)
+    {
+        log.info("Following our session to its new server",
+                 "hostname", msg.hostname, "ports", msg.ports);
+
+        final Credentials creds = _creds;
+        _creds = new MigrationCreds(msg.ticket, creds);
+        moveToServer(msg.hostname, msg.ports, new InvocationService.ConfirmListener() {
+            public void requestProcessed () {
+                _creds = creds;
+            }
+            public void requestFailed (String cause) {
+                log.warning("Failed to follow our session to its new server", "cause", cause);
+                _creds = creds;
+            }
+        });
+    }
+
     /**
      * If this client is being used to proxy events from another server, this method can be
      * overridden to adjust the event in any way needed prior to dispatching the event.
@@ -1122,6 +1159,9 @@ public class Client
     /** General startup information provided by the server. */
     protected BootstrapData _bstrap;
 
+    /** The last resume ticket issued to us by the server. */
+    protected String _resumeTicket;
+
     /** The set of bootstrap service groups this client cares about. */
     protected HashSet<String> _bootGroups = Sets.newHashSet(); {
         _bootGroups.add(InvocationCodes.GLOBAL_GROUP);
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import java.awt.event.KeyEvent;
 
@@ -48,17 +49,20 @@ import com.threerings.presents.dobj.Subscriber;
 import com.threerings.presents.net.BootstrapData;
 import com.threerings.presents.net.BootstrapNotification;
 import com.threerings.presents.net.CompoundDownstreamMessage;
+import com.threerings.presents.net.CompoundUpstreamMessage;
 import com.threerings.presents.net.DownstreamMessage;
 import com.threerings.presents.net.EventNotification;
 import com.threerings.presents.net.FailureResponse;
 import com.threerings.presents.net.ForwardEventRequest;
 import com.threerings.presents.net.Message;
+import com.threerings.presents.net.MigrateNotification;
 import com.threerings.presents.net.ObjectResponse;
 import com.threerings.presents.net.PongResponse;
 import com.threerings.presents.net.SubscribeRequest;
 import com.threerings.presents.net.UnsubscribeRequest;
 import com.threerings.presents.net.UnsubscribeResponse;
 import com.threerings.presents.net.UpdateThrottleMessage;
+import com.threerings.presents.net.UpstreamMessage;
 
 import static com.threerings.presents.Log.log;
 
@@ -128,8 +132,37 @@ public class ClientDObjectMgr
     // inherit documentation from the interface
     public void postEvent (DEvent event)
     {
-        // send a forward event request to the server
-        _comm.postMessage(new ForwardEventRequest(event));
+        synchronized (_batch) {
+            // make sure any batched events go out ahead of this one
+            flushBatchedEvents();
+            // send a forward event request to the server
+            _comm.postMessage(new ForwardEventRequest(event));
+        }
+    }
+
+    /**
+     * Queues up an event to be forwarded to the server along with any other events batched during
+     * the current tick of the client's run queue. The batch is sent as a single
+     * {@link CompoundUpstreamMessage} once the run queue gets back around to us, which the server
+     * dispatches as a single unit. Events posted via {@link #postEvent} in the meanwhile will
+     * cause the batch to be sent early so that event ordering is preserved.
+     */
+    public void postBatchedEvent (DEvent event)
+    {
+        boolean schedule;
+        synchronized (_batch) {
+            _batch.add(new ForwardEventRequest(event));
+            schedule = (_batch.size() == 1);
+        }
+        if (schedule) {
+            _client.getRunQueue().postRunnable(new Runnable() {
+                public void run () {
+                    synchronized (_batch) {
+                        flushBatchedEvents();
+                    }
+                }
+            });
+        }
     }
 
     // inherit documentation from the interface
@@ -161,6 +194,18 @@ public class ClientDObjectMgr
         _delays.put(objclass, Long.valueOf(delay));
     }
 
+    /**
+     * Configures this manager to process up to the specified number of the messages and actions
+     * waiting in its queue each time it is run, posting itself to the run queue only when it is
+     * not already waiting to run. Messages that arrive together (and the events they contain) are
+     * thus applied in a single unit rather than one unit per message. Zero (the default) processes
+     * one message per unit.
+     */
+    public void setMaxDispatchBatch (int maxBatch)
+    {
+        _maxBatch = maxBatch;
+    }
+
     /**
      * Called by the communicator when a message arrives from the network layer. We queue it up for
      * processing and request some processing time on the main thread.
@@ -171,7 +216,7 @@ public class ClientDObjectMgr
             // append it to our queue
             _actions.append(msg);
             // and queue ourselves up to be run
-            _client.getRunQueue().postRunnable(this);
+            postDispatch();
         } else {
             log.info("Dropping message as RunQueue is shutdown", "msg", msg);
         }
@@ -183,11 +228,35 @@ public class ClientDObjectMgr
      */
     public void run ()
     {
-        // process the next event on our queue
+        if (_maxBatch <= 0) {
+            // process the next event on our queue
+            Object obj;
+            if ((obj = _actions.getNonBlocking()) != null) {
+                dispatchAction(obj);
+            }
+            return;
+        }
+
+        // clear our pending flag first so that anything queued while we're processing gets us
+        // posted again, then process everything that's waiting (up to our batch limit)
+        _dispatchPending.set(false);
         Object obj;
-        if ((obj = _actions.getNonBlocking()) != null) {
+        for (int ii = 0; ii < _maxBatch && (obj = _actions.getNonBlocking()) != null; ii++) {
             dispatchAction(obj);
         }
+        if (_actions.hasElements()) {
+            postDispatch();
+        }
+    }
+
+    /**
+     * Posts this manager to the run queue to process the contents of its queue.
+     */
+    protected void postDispatch ()
+    {
+        if (_maxBatch <= 0 || _dispatchPending.compareAndSet(false, true)) {
+            _client.getRunQueue().postRunnable(this);
+        }
     }
 
     protected void dispatchAction (Object obj)
@@ -218,6 +287,9 @@ public class ClientDObjectMgr
             UpdateThrottleMessage upmsg = (UpdateThrottleMessage)obj;
             _client.setOutgoingMessageThrottle(upmsg.messagesPerSec);
 
+        } else if (obj instanceof MigrateNotification) {
+            _client.gotMigrateNotification((MigrateNotification)obj);
+
         } else if (obj instanceof ObjectAction<?>) {
             ObjectAction<?> act = (ObjectAction<?>)obj;
             if (act.subscribe) {
@@ -240,6 +312,10 @@ public class ClientDObjectMgr
      */
     public void cleanup ()
     {
+        synchronized (_batch) {
+            _batch.clear();
+        }
+
         // tell any pending object subscribers that they're not getting their bits
         for (PendingRequest<?> req : _penders.values()) {
             for (Subscriber<?> sub : req.targets) {
@@ -257,13 +333,35 @@ public class ClientDObjectMgr
         });
     }
 
+    /**
+     * Sends any batched events to the server. The caller must hold the lock on {@link #_batch}.
+     */
+    protected void flushBatchedEvents ()
+    {
+        UpstreamMessage msg;
+        switch (_batch.size()) {
+        case 0:
+            return;
+        case 1:
+            msg = _batch.get(0);
+            break;
+        default:
+            CompoundUpstreamMessage cmsg = new CompoundUpstreamMessage();
+            cmsg.msgs.addAll(_batch);
+            msg = cmsg;
+            break;
+        }
+        _batch.clear();
+        _comm.postMessage(msg);
+    }
+
     protected <T extends DObject> void queueAction (int oid, Subscriber<T> target, boolean subscribe)
     {
         if (_client.getRunQueue().isRunning()) {
             // queue up an action
             _actions.append(new ObjectAction<T>(oid, target, subscribe));
             // and queue up the omgr to get invoked on the invoker thread
-            _client.getRunQueue().postRunnable(this);
+            postDispatch();
         } else {
             log.info("Dropping subscribe action as RunQueue is stopped",
                      "oid", oid, "subscribe", subscribe);
@@ -552,6 +650,12 @@ public class ClientDObjectMgr
     /** Our primary dispatch queue. */
     protected Queue<Object> _actions = new Queue<Object>();
 
+    /** The maximum number of actions processed each time we're run, or zero to process one. */
+    protected int _maxBatch;
+
+    /** Whether we've been posted to the run queue and not yet run (when batching). */
+    protected AtomicBoolean _dispatchPending = new AtomicBoolean();
+
     /** All of the distributed objects that are active on this client. */
     protected HashIntMap<DObject> _ocache = new HashIntMap<DObject>();
 
@@ -567,6 +671,9 @@ public class ClientDObjectMgr
     /** A set of objects waiting to be flushed. */
     protected HashIntMap<FlushRecord> _flushes = new HashIntMap<FlushRecord>();
 
+    /** Forward event requests batched up during the current run queue tick. */
+    protected List<UpstreamMessage> _batch = Lists.newArrayList();
+
     /** The modifiers for our dump table debug hook (Alt+Shift). */
     protected static int DUMP_OTABLE_MODMASK = KeyEvent.ALT_DOWN_MASK|KeyEvent.SHIFT_DOWN_MASK;
 
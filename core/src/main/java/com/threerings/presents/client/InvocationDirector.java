@@ -109,6 +109,17 @@ public class InvocationDirector
         _listenerMaxAge = milliseconds;
     }
 
+    /**
+     * Configures whether invocation requests issued during the same tick of the client's run queue
+     * are batched up and sent to the server as a single compound message. The server dispatches
+     * such a batch as a single unit and sends the responses back in a single compound message.
+     * Only requests sent via {@link Transport#DEFAULT} are batched.
+     */
+    public void setBatchRequests (boolean batchRequests)
+    {
+        _batchRequests = batchRequests;
+    }
+
     /**
      * Clears out our session information. This is called when the client ends its session with the
      * server.
@@ -247,8 +258,12 @@ public class InvocationDirector
 
 //         Log.info("Sending invreq " + event + ".");
 
-        // now dispatch the event
-        _omgr.postEvent(event);
+        // now dispatch the event, batching it up with its friends if so configured
+        if (_batchRequests && transport == Transport.DEFAULT && _omgr instanceof ClientDObjectMgr) {
+            ((ClientDObjectMgr)_omgr).postBatchedEvent(event);
+        } else {
+            _omgr.postEvent(event);
+        }
     }
 
     /**
@@ -440,6 +455,9 @@ public class InvocationDirector
     /** The last time we flushed our listeners. */
     protected long _lastFlushTime;
 
+    /** Whether or not we batch up requests sent during the same run queue tick. */
+    protected boolean _batchRequests;
+
     /** The max age of listeners. */
     protected long _listenerMaxAge = 90 * 1000L;
 
@@ -46,4 +46,7 @@ public interface AuthCodes
 
     /** A code indicating that we failed to establish a secure connection. */
     public static final String FAILED_TO_SECURE = "m.failed_to_secure";
+
+    /** A code indicating that the supplied resume ticket was invalid or has expired. */
+    public static final String INVALID_TICKET = "m.invalid_ticket";
 }
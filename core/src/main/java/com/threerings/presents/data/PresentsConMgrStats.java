@@ -34,6 +34,20 @@ public class PresentsConMgrStats extends ConMgrStats
      * are requested. */
     public int authQueueSize;
 
+    /** The number of bytes sent on compressed connections before and after compression. */
+    public long rawBytesOut, deflatedBytesOut;
+
+    /** The number of bytes received on compressed connections before and after decompression. */
+    public long deflatedBytesIn, inflatedBytesIn;
+
+    /**
+     * Formats the ratio of uncompressed to compressed bytes for reporting.
+     */
+    public static String ratio (long raw, long compressed)
+    {
+        return (compressed == 0) ? "n/a" : String.format("%.2f:1", raw / (double)compressed);
+    }
+
     @Override // from Object
     public PresentsConMgrStats clone ()
     {
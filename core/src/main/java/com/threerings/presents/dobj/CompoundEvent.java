@@ -152,6 +152,34 @@ public class CompoundEvent extends DEvent
         return this;
     }
 
+    @Override
+    public DEvent getClientEvent ()
+    {
+        StreamableArrayList<DEvent> events = null;
+        for (int ii = 0, nn = _events.size(); ii < nn; ii++) {
+            DEvent event = _events.get(ii), cevent = event.getClientEvent();
+            if (cevent != event && events == null) {
+                events = StreamableArrayList.newList();
+                events.addAll(_events.subList(0, ii));
+            }
+            if (events != null) {
+                events.add(cevent);
+            }
+        }
+        if (events == null) {
+            return this;
+        }
+
+        // at least one of our events has a different client form, so send a copy with those
+        CompoundEvent copy = new CompoundEvent();
+        copy.eventId = eventId;
+        copy._toid = _toid;
+        copy._soid = _soid;
+        copy._transport = _transport;
+        copy._events = events;
+        return copy;
+    }
+
     @Override
     public boolean applyToObject (DObject target)
         throws ObjectAccessException
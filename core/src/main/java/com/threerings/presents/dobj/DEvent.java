@@ -72,6 +72,16 @@ public abstract class DEvent implements Streamable
         return false;
     }
 
+    /**
+     * Returns the form of this event that should be sent to clients. Server-side listeners and
+     * peer servers always see the event itself, but an event may prepare a different outbound
+     * form (an encoded payload, for example) that is only streamed to clients.
+     */
+    public DEvent getClientEvent ()
+    {
+        return this;
+    }
+
     /**
      * Applies the attribute modifications represented by this event to the specified target
      * object. This is called by the distributed object manager in the course of dispatching events
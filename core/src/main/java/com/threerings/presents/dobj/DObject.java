@@ -277,6 +277,16 @@ public class DObject
         requestEntryUpdate(setName, getSet(setName), entry);
     }
 
+    /**
+     * Request to have the specified item updated in the specified DSet, transmitting to
+     * subscribers only those fields of the entry that changed (see {@link EntryDeltaEvent}). A
+     * full update is sent if the entry does not support deltas.
+     */
+    public void updateSetDelta (String setName, DSet.Entry entry)
+    {
+        requestEntryDelta(setName, getSet(setName), entry);
+    }
+
     /**
      * Request to have the specified key removed from the specified DSet.
      */
@@ -945,6 +955,28 @@ public class DObject
                   setOldEntry(oldEntry).setTransport(transport));
     }
 
+    /**
+     * Calls by derived instances when a set updater method was called and only the changed fields
+     * of the entry need be sent to subscribers.
+     */
+    protected <T extends DSet.Entry> void requestEntryDelta (String name, DSet<T> set, T entry)
+    {
+        // the delta is computed against the entry it replaces, which only the authority knows
+        if (!isAuthoritative()) {
+            requestEntryUpdate(name, set, entry);
+            return;
+        }
+        T oldEntry = set.update(entry);
+        if (oldEntry == null) {
+            log.warning("Set update had no old entry", "name", name, "entry", entry,
+                        new Exception());
+        }
+        EntryUpdatedEvent<T> event = EntryDeltaEvent.supports(entry, oldEntry) ?
+            new EntryDeltaEvent<T>(_oid, name, entry, oldEntry) :
+            new EntryUpdatedEvent<T>(_oid, name, entry);
+        postEvent(event.setOldEntry(oldEntry));
+    }
+
     protected boolean isAuthoritative ()
     {
         return _omgr != null && _omgr.isManager(this);
@@ -0,0 +1,300 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.presents.dobj;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import java.io.IOException;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.samskivert.util.ClassUtil;
+import com.samskivert.util.QuickSort;
+import com.samskivert.util.StringUtil;
+
+import com.threerings.io.NotStreamable;
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+
+import static com.threerings.presents.Log.log;
+
+/**
+ * An entry updated event that transmits only those fields of the updated entry that differ from
+ * the entry it replaced. The receiving side copies its cached entry, overwrites the changed fields
+ * and updates its set with the result, so listeners see an ordinary {@link EntryUpdatedEvent}.
+ *
+ * <p> The changed fields of an entry class are determined by comparing the values of its streamed
+ * fields (taken in name order so that all JVMs agree). Entry classes with custom streaming
+ * methods, without a zero argument constructor, or with more than 32 streamed fields cannot be
+ * sent as deltas; see {@link #supports}. These events cannot currently be decoded by ActionScript
+ * clients, so they should only be used for objects that are exclusively subscribed to by Java
+ * clients and peers. </p>
+ *
+ * @see DObject#updateSetDelta
+ *
+ * @param <T> the type of entry being handled by this event. This must match the type on the set
+ * that generated this event.
+ */
+public class EntryDeltaEvent<T extends DSet.Entry> extends EntryUpdatedEvent<T>
+{
+    /**
+     * Returns true if the supplied updated entry can be sent as a delta against the supplied
+     * previous value of that entry.
+     */
+    public static boolean supports (DSet.Entry entry, DSet.Entry oldEntry)
+    {
+        return (oldEntry != null) && (entry.getClass() == oldEntry.getClass()) &&
+            (getDeltaFields(entry.getClass()) != null);
+    }
+
+    /**
+     * Constructs a new entry delta event on the specified target object for the specified set
+     * name. The caller must first confirm that the entries are {@link #supports supported}.
+     *
+     * @param targetOid the object id of the object whose set contains the entry.
+     * @param name the name of the attribute in which to update the specified entry.
+     * @param entry the updated entry.
+     * @param oldEntry the entry being replaced, against which the delta is computed.
+     */
+    public EntryDeltaEvent (int targetOid, String name, T entry, T oldEntry)
+    {
+        super(targetOid, name, entry);
+        _key = entry.getKey();
+
+        Field[] fields = getDeltaFields(entry.getClass());
+        List<Object> values = Lists.newArrayList();
+        try {
+            for (int ii = 0; ii < fields.length; ii++) {
+                Object value = fields[ii].get(entry);
+                if (!valueEquals(value, fields[ii].get(oldEntry))) {
+                    _mask |= (1 << ii);
+                    values.add(value);
+                }
+            }
+        } catch (IllegalAccessException iae) {
+            throw new RuntimeException(iae);
+        }
+        _values = values.toArray();
+    }
+
+    /** Used when unserializing. */
+    public EntryDeltaEvent ()
+    {
+        super(0, null, null);
+    }
+
+    /**
+     * Returns the number of fields that are transmitted with this event.
+     */
+    public int getChangedFieldCount ()
+    {
+        return _values.length;
+    }
+
+    @Override
+    public Comparable<?> getKey ()
+    {
+        return _key;
+    }
+
+    @Override
+    public boolean applyToObject (DObject target)
+        throws ObjectAccessException
+    {
+        // only apply the change if we haven't already
+        if (!alreadyApplied()) {
+            DSet<T> set = target.getSet(_name);
+            T oldEntry = set.get(_key);
+            if (oldEntry == null) {
+                log.warning("No matching entry to apply delta", "event", this, "set", set);
+                return false;
+            }
+            _entry = applyDelta(oldEntry);
+            if (_entry == null) {
+                return false;
+            }
+            _oldEntry = set.update(_entry);
+        }
+        return true;
+    }
+
+    /**
+     * Writes our custom streamable fields.
+     */
+    public void writeObject (ObjectOutputStream out)
+        throws IOException
+    {
+        out.writeInt(_toid);
+        out.writeIntern(_name);
+        out.writeObject(_key);
+        out.writeInt(_mask);
+        out.writeObject(_values);
+    }
+
+    /**
+     * Reads our custom streamable fields.
+     */
+    public void readObject (ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        _toid = in.readInt();
+        _name = in.readIntern();
+        _key = (Comparable<?>)in.readObject();
+        _mask = in.readInt();
+        _values = (Object[])in.readObject();
+    }
+
+    @Override
+    protected void toString (StringBuilder buf)
+    {
+        buf.append("ELDELTA:");
+        buf.append("targetOid=").append(_toid).append(", name=").append(_name);
+        buf.append(", key=");
+        StringUtil.toString(buf, _key);
+        buf.append(", mask=").append(Integer.toHexString(_mask)).append(", values=");
+        StringUtil.toString(buf, _values);
+    }
+
+    /**
+     * Creates a copy of the supplied entry with our changed fields applied to it, or returns null
+     * if that is not possible.
+     */
+    protected T applyDelta (T oldEntry)
+    {
+        Class<?> eclass = oldEntry.getClass();
+        Field[] fields = getDeltaFields(eclass);
+        if (fields == null || Integer.bitCount(_mask) != _values.length ||
+                (fields.length < Integer.SIZE && (_mask >>> fields.length) != 0)) {
+            log.warning("Delta does not match cached entry", "event", this, "entry", oldEntry);
+            return null;
+        }
+        try {
+            @SuppressWarnings("unchecked") T entry = (T)_ctors.get(eclass).newInstance();
+            for (int ii = 0, vv = 0; ii < fields.length; ii++) {
+                fields[ii].set(entry, ((_mask & (1 << ii)) != 0) ?
+                               _values[vv++] : fields[ii].get(oldEntry));
+            }
+            return entry;
+        } catch (Exception e) {
+            log.warning("Failed to apply entry delta", "event", this, "entry", oldEntry, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the fields compared and transmitted for entries of the specified class, or null if
+     * the class cannot be sent as deltas.
+     */
+    protected static Field[] getDeltaFields (Class<?> eclass)
+    {
+        Field[] fields = _fields.get(eclass);
+        if (fields == null) {
+            fields = computeDeltaFields(eclass);
+            _fields.put(eclass, fields);
+        }
+        return (fields.length == 0) ? null : fields;
+    }
+
+    /**
+     * Reflects on the specified entry class to determine its delta fields, returning an empty
+     * array if the class cannot be sent as deltas.
+     */
+    protected static Field[] computeDeltaFields (Class<?> eclass)
+    {
+        // custom streamed classes may stream state that is not reflected in their fields
+        for (Class<?> cclass = eclass; cclass != null; cclass = cclass.getSuperclass()) {
+            for (Method method : cclass.getDeclaredMethods()) {
+                String mname = method.getName();
+                if (mname.equals("writeObject") || mname.equals("readObject")) {
+                    return NO_FIELDS;
+                }
+            }
+        }
+
+        List<Field> fields = Lists.newArrayList();
+        ClassUtil.getFields(eclass, fields);
+        for (int ii = fields.size() - 1; ii >= 0; ii--) {
+            if (fields.get(ii).getAnnotation(NotStreamable.class) != null) {
+                fields.remove(ii);
+            }
+        }
+        if (fields.isEmpty() || fields.size() > Integer.SIZE) {
+            return NO_FIELDS;
+        }
+        QuickSort.sort(fields, FIELD_NAME_ORDER);
+
+        try {
+            Constructor<?> ctor = eclass.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            _ctors.put(eclass, ctor);
+        } catch (NoSuchMethodException nsme) {
+            return NO_FIELDS;
+        }
+        return fields.toArray(new Field[fields.size()]);
+    }
+
+    /**
+     * Compares two field values, comparing the contents of arrays.
+     */
+    protected static boolean valueEquals (Object v1, Object v2)
+    {
+        boolean arrays = (v1 != null && v1.getClass().isArray()) ||
+            (v2 != null && v2.getClass().isArray());
+        return arrays ? Arrays.deepEquals(new Object[] { v1 }, new Object[] { v2 }) :
+            Objects.equal(v1, v2);
+    }
+
+    /** The key of the updated entry. */
+    protected Comparable<?> _key;
+
+    /** A bit for each delta field (in name order) whose value is included in this event. */
+    protected int _mask;
+
+    /** The values of the changed fields. */
+    protected Object[] _values;
+
+    /** The delta fields for each entry class, or an empty array for unsupported classes. */
+    protected static Map<Class<?>, Field[]> _fields = Maps.newConcurrentMap();
+
+    /** The zero argument constructor for each supported entry class. */
+    protected static Map<Class<?>, Constructor<?>> _ctors = Maps.newConcurrentMap();
+
+    /** Used to mark entry classes that cannot be sent as deltas. */
+    protected static final Field[] NO_FIELDS = new Field[0];
+
+    /** Orders delta fields by name. */
+    protected static final Comparator<Field> FIELD_NAME_ORDER = new Comparator<Field>() {
+        public int compare (Field f1, Field f2) {
+            return f1.getName().compareTo(f2.getName());
+        }
+    };
+}
@@ -42,4 +42,8 @@ public class BootstrapData extends SimpleStreamableObject
 
     /** A list of handles to invocation services. */
     public List<InvocationMarshaller<?>> services;
+
+    /** A ticket that can be presented via {@link ResumeTicketCreds} to reattach to this session
+     * after a dropped connection, or null if the server does not issue resume tickets. */
+    public String resumeTicket;
 }
@@ -0,0 +1,56 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.presents.net;
+
+/**
+ * Instructs the client that its session has been migrated to another server and that it should
+ * move there, authenticating with {@link MigrationCreds} that present the supplied ticket.
+ */
+public class MigrateNotification extends DownstreamMessage
+{
+    /** The hostname of the server to which the client should move. */
+    public final String hostname;
+
+    /** The ports on which the client should connect to its new server. */
+    public final int[] ports;
+
+    /** The ticket the client should present to its new server. */
+    public final String ticket;
+
+    /**
+     * Zero argument constructor used when unserializing an instance.
+     */
+    public MigrateNotification ()
+    {
+        this.hostname = null;
+        this.ports = null;
+        this.ticket = null;
+    }
+
+    public MigrateNotification (String hostname, int[] ports, String ticket)
+    {
+        this.hostname = hostname;
+        this.ports = ports;
+        this.ticket = ticket;
+    }
+}
@@ -0,0 +1,143 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.presents.net;
+
+import com.threerings.presents.data.ClientObject;
+
+/**
+ * Credentials used by a client to arrive at the server to which its session was migrated. The
+ * ticket is issued by that server when it accepts the migration and is consumed the first time it
+ * is presented. The client also sends the credentials it originally logged on with, but the server
+ * never trusts those: when the ticket is redeemed, the credentials that the client's previous
+ * server authenticated are supplied via {@link #setVerifiedCredentials} and are used in their
+ * place, along with the client object that was migrated (see {@link #setMigratedObject}).
+ */
+public class MigrationCreds extends Credentials
+{
+    /**
+     * Zero argument constructor used when unserializing an instance.
+     */
+    public MigrationCreds ()
+    {
+    }
+
+    /**
+     * Creates credentials that present the supplied migration ticket.
+     */
+    public MigrationCreds (String ticket, Credentials creds)
+    {
+        _ticket = ticket;
+        _creds = creds;
+    }
+
+    /**
+     * Returns the migration ticket presented by these credentials.
+     */
+    public String getTicket ()
+    {
+        return _ticket;
+    }
+
+    /**
+     * Returns the credentials that the client claims to have originally logged on with. These
+     * have not been verified and must not be trusted on the server; see {@link
+     * #getVerifiedCredentials}.
+     */
+    public Credentials getCredentials ()
+    {
+        return _creds;
+    }
+
+    /**
+     * Returns the credentials with which the client originally logged on, as authenticated by the
+     * server from which it migrated, or null if the ticket has not been redeemed.
+     */
+    public Credentials getVerifiedCredentials ()
+    {
+        return _verified;
+    }
+
+    /**
+     * Supplies the credentials with which the client originally logged on, as authenticated by the
+     * server from which it migrated. Called on the server when the ticket is redeemed.
+     */
+    public void setVerifiedCredentials (Credentials creds)
+    {
+        _verified = creds;
+    }
+
+    /**
+     * Supplies the client object that was migrated from the client's previous server. Called on
+     * the server when the ticket is redeemed, so that the session started for these credentials
+     * (and only that session) uses the object in place of a freshly resolved one.
+     */
+    public void setMigratedObject (ClientObject clobj)
+    {
+        _migrated = clobj;
+    }
+
+    /**
+     * Returns and clears the client object supplied via {@link #setMigratedObject}, or returns
+     * null if there is none.
+     */
+    public ClientObject takeMigratedObject ()
+    {
+        ClientObject clobj = _migrated;
+        _migrated = null;
+        return clobj;
+    }
+
+    /**
+     * Returns the verified credentials with which the client originally logged on if the supplied
+     * credentials are migration credentials, or the supplied credentials otherwise.
+     */
+    public static Credentials unwrap (Credentials creds)
+    {
+        return (creds instanceof MigrationCreds) ?
+            ((MigrationCreds)creds).getVerifiedCredentials() : creds;
+    }
+
+    @Override
+    public String getDatagramSecret ()
+    {
+        // the ticket is a bearer secret, so we use that of the credentials being migrated
+        Credentials creds = (_verified != null) ? _verified : _creds;
+        return (creds == null) ? "" : creds.getDatagramSecret();
+    }
+
+    @Override
+    public String toString ()
+    {
+        // the ticket is left out as it would allow anyone reading the logs to claim the session
+        return "[creds=" + _creds + "]";
+    }
+
+    protected String _ticket;
+    protected Credentials _creds;
+
+    /** The credentials authenticated by the client's previous server, set when redeemed. */
+    protected transient Credentials _verified;
+
+    /** The client object migrated from the client's previous server, set when redeemed. */
+    protected transient ClientObject _migrated;
+}
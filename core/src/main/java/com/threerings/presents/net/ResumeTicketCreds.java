@@ -0,0 +1,68 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.net;
+
+/**
+ * Credentials used by a client to reattach to its existing session on a server using the resume
+ * ticket it was issued in its {@link BootstrapData}. Authenticating with these credentials does
+ * not involve the server's normal authenticator, so reconnecting in this manner is much cheaper
+ * than logging on afresh.
+ */
+public class ResumeTicketCreds extends Credentials
+{
+    /**
+     * Zero argument constructor used when unserializing an instance.
+     */
+    public ResumeTicketCreds ()
+    {
+    }
+
+    /**
+     * Creates credentials that present the supplied resume ticket.
+     */
+    public ResumeTicketCreds (String ticket)
+    {
+        _ticket = ticket;
+    }
+
+    /**
+     * Returns the resume ticket presented by these credentials.
+     */
+    public String getTicket ()
+    {
+        return _ticket;
+    }
+
+    @Override
+    public String getDatagramSecret ()
+    {
+        return _ticket;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return "[ticket=" + _ticket + "]";
+    }
+
+    protected String _ticket;
+}
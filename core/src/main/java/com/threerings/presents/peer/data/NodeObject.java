@@ -68,6 +68,22 @@ public class NodeObject extends DObject
     /** The field name of the <code>cacheData</code> field. */
     @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
     public static final String CACHE_DATA = "cacheData";
+
+    /** The field name of the <code>cacheBatch</code> field. */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public static final String CACHE_BATCH = "cacheBatch";
+
+    /** The field name of the <code>heartbeat</code> field. */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public static final String HEARTBEAT = "heartbeat";
+
+    /** The field name of the <code>members</code> field. */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public static final String MEMBERS = "members";
+
+    /** The field name of the <code>leaseToken</code> field. */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public static final String LEASE_TOKEN = "leaseToken";
     // AUTO-GENERATED: FIELDS END
 
     /** Identifies a locked resource. */
@@ -132,6 +148,64 @@ public class NodeObject extends DObject
         }
     }
 
+    /** Used for informing peers of a batch of changes to persistent data. */
+    public static class CacheBatch extends SimpleStreamableObject
+    {
+        /** The cache that should be purged. */
+        public final String cache;
+
+        /** The stale data in the cache. */
+        public final Streamable[] data;
+
+        public CacheBatch (String cache, Streamable[] data)
+        {
+            this.cache = cache;
+            this.data = data;
+        }
+    }
+
+    /** Describes a node in the cluster and how to connect to it. */
+    public static class Member extends SimpleStreamableObject
+        implements Comparable<Member>, DSet.Entry
+    {
+        /** The unique name of the node. */
+        public final String nodeName;
+
+        /** The DNS name used to connect to the node by other peers. */
+        public final String hostName;
+
+        /** The DNS name used to connect to the node by normal clients. */
+        public final String publicHostName;
+
+        /** The region in which the node exists. */
+        public final String region;
+
+        /** The port on which to connect to the node. */
+        public final int port;
+
+        public Member (
+            String nodeName, String hostName, String publicHostName, String region, int port)
+        {
+            this.nodeName = nodeName;
+            this.hostName = hostName;
+            this.publicHostName = publicHostName;
+            this.region = region;
+            this.port = port;
+        }
+
+        // documentation inherited from interface Comparable
+        public int compareTo (Member omember)
+        {
+            return nodeName.compareTo(omember.nodeName);
+        }
+
+        // documentation inherited from interface DSet.Entry
+        public Comparable<?> getKey ()
+        {
+            return nodeName;
+        }
+    }
+
     /** The node name of this peer. */
     public String nodeName;
 
@@ -156,6 +230,19 @@ public class NodeObject extends DObject
     /** A field we use to broadcast changes to possible cached data. */
     public CacheData cacheData;
 
+    /** A field we use to broadcast batches of changes to possibly cached data. */
+    public CacheBatch cacheBatch;
+
+    /** Updated periodically by the node to let its peers know that it is alive. */
+    public long heartbeat;
+
+    /** The nodes (including itself) that this node considers to be live members of the cluster. */
+    public DSet<Member> members = new DSet<Member>();
+
+    /** The highest lock lease fencing token granted to or by this node, from which a newly
+     * promoted lock arbiter continues. */
+    public long leaseToken;
+
     // AUTO-GENERATED: METHODS START
     /**
      * Requests that the <code>nodeName</code> field be set to the
@@ -360,5 +447,107 @@ public class NodeObject extends DObject
             CACHE_DATA, value, ovalue);
         this.cacheData = value;
     }
+
+    /**
+     * Requests that the <code>cacheBatch</code> field be set to the
+     * specified value. The local value will be updated immediately and an
+     * event will be propagated through the system to notify all listeners
+     * that the attribute did change. Proxied copies of this object (on
+     * clients) will apply the value change when they received the
+     * attribute changed notification.
+     */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public void setCacheBatch (NodeObject.CacheBatch value)
+    {
+        NodeObject.CacheBatch ovalue = this.cacheBatch;
+        requestAttributeChange(
+            CACHE_BATCH, value, ovalue);
+        this.cacheBatch = value;
+    }
+
+    /**
+     * Requests that the <code>heartbeat</code> field be set to the
+     * specified value. The local value will be updated immediately and an
+     * event will be propagated through the system to notify all listeners
+     * that the attribute did change. Proxied copies of this object (on
+     * clients) will apply the value change when they received the
+     * attribute changed notification.
+     */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public void setHeartbeat (long value)
+    {
+        long ovalue = this.heartbeat;
+        requestAttributeChange(
+            HEARTBEAT, Long.valueOf(value), Long.valueOf(ovalue));
+        this.heartbeat = value;
+    }
+
+    /**
+     * Requests that the specified entry be added to the
+     * <code>members</code> set. The set will not change until the event is
+     * actually propagated through the system.
+     */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public void addToMembers (NodeObject.Member elem)
+    {
+        requestEntryAdd(MEMBERS, members, elem);
+    }
+
+    /**
+     * Requests that the entry matching the supplied key be removed from
+     * the <code>members</code> set. The set will not change until the
+     * event is actually propagated through the system.
+     */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public void removeFromMembers (Comparable<?> key)
+    {
+        requestEntryRemove(MEMBERS, members, key);
+    }
+
+    /**
+     * Requests that the specified entry be updated in the
+     * <code>members</code> set. The set will not change until the event is
+     * actually propagated through the system.
+     */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public void updateMembers (NodeObject.Member elem)
+    {
+        requestEntryUpdate(MEMBERS, members, elem);
+    }
+
+    /**
+     * Requests that the <code>members</code> field be set to the
+     * specified value. Generally one only adds, updates and removes
+     * entries of a distributed set, but certain situations call for a
+     * complete replacement of the set value. The local value will be
+     * updated immediately and an event will be propagated through the
+     * system to notify all listeners that the attribute did
+     * change. Proxied copies of this object (on clients) will apply the
+     * value change when they received the attribute changed notification.
+     */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public void setMembers (DSet<NodeObject.Member> value)
+    {
+        requestAttributeChange(MEMBERS, value, this.members);
+        DSet<NodeObject.Member> clone = (value == null) ? null : value.clone();
+        this.members = clone;
+    }
+
+    /**
+     * Requests that the <code>leaseToken</code> field be set to the
+     * specified value. The local value will be updated immediately and an
+     * event will be propagated through the system to notify all listeners
+     * that the attribute did change. Proxied copies of this object (on
+     * clients) will apply the value change when they received the
+     * attribute changed notification.
+     */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public void setLeaseToken (long value)
+    {
+        long ovalue = this.leaseToken;
+        requestAttributeChange(
+            LEASE_TOKEN, Long.valueOf(value), Long.valueOf(ovalue));
+        this.leaseToken = value;
+    }
     // AUTO-GENERATED: METHODS END
 }
@@ -0,0 +1,37 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.peer.net;
+
+import com.threerings.presents.net.AuthResponseData;
+
+/**
+ * The auth response data returned to a peer, which indicates whether the frames sent between the
+ * two nodes will be compressed from here on out.
+ */
+public class PeerAuthResponseData extends AuthResponseData
+{
+    /** Whether all frames following the auth response are compressed. */
+    public boolean compress;
+
+    /** The dictionary size used to compress those frames in both directions. */
+    public int dictionarySize;
+}
@@ -22,6 +22,7 @@
 package com.threerings.presents.peer.net;
 
 import com.threerings.presents.net.ServiceCreds;
+import com.threerings.presents.peer.data.NodeObject;
 
 /**
  * Used by peer servers in a cluster installation to authenticate with one another.
@@ -29,8 +30,29 @@ import com.threerings.presents.net.ServiceCreds;
 public class PeerCreds extends ServiceCreds
 {
     public PeerCreds (String nodeName, String sharedSecret)
+    {
+        this(nodeName, sharedSecret, null);
+    }
+
+    /**
+     * Creates credentials that also describe the authenticating node, so that the node on which
+     * it is authenticating can connect back to it without having to consult the node table.
+     */
+    public PeerCreds (String nodeName, String sharedSecret, NodeObject.Member member)
     {
         super(nodeName, sharedSecret);
+        _member = member;
+    }
+
+    /**
+     * Creates credentials that describe the authenticating node and indicate whether it would
+     * like the frames sent between it and the node on which it is authenticating to be compressed.
+     */
+    public PeerCreds (String nodeName, String sharedSecret, NodeObject.Member member,
+                      boolean compress)
+    {
+        this(nodeName, sharedSecret, member);
+        _compress = compress;
     }
 
     /**
@@ -39,4 +61,26 @@ public class PeerCreds extends ServiceCreds
     public PeerCreds ()
     {
     }
+
+    /**
+     * Returns the description of the authenticating node, or null if it did not provide one.
+     */
+    public NodeObject.Member getMember ()
+    {
+        return _member;
+    }
+
+    /**
+     * Returns true if the authenticating node would like its connection to be compressed.
+     */
+    public boolean wantsCompression ()
+    {
+        return _compress;
+    }
+
+    /** Describes the authenticating node. */
+    protected NodeObject.Member _member;
+
+    /** Whether the authenticating node would like its connection to be compressed. */
+    protected boolean _compress;
 }
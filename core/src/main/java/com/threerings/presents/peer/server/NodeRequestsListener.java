@@ -32,6 +32,9 @@ import com.threerings.presents.client.InvocationService;
 public interface
     NodeRequestsListener<T> extends InvocationService.InvocationListener
 {
+    /** The error reported for nodes that did not respond before a request's deadline. */
+    public static final String TIMED_OUT = "m.node_request_timed_out";
+
     /**
      * Called upon the successful completion of {@link PeerManager#invokeNodeRequest}, regardless
      * of how many nodes were contacted or applicable.
@@ -50,4 +53,18 @@ public interface
         public Map<String, String> getNodeErrors ();
         boolean wasDropped ();
     }
+
+    /**
+     * A listener that is also told of each node's response as it arrives. Responses that arrive
+     * after the aggregate result has been reported (because a quorum was reached or the request
+     * timed out) are not passed along.
+     */
+    public interface PartialResultsListener<T> extends NodeRequestsListener<T>
+    {
+        /** Called when the specified node successfully processes the request. */
+        public void nodeProcessed (String nodeName, T result);
+
+        /** Called when the specified node fails to process the request. */
+        public void nodeFailed (String nodeName, String cause);
+    }
 }
@@ -23,18 +23,26 @@ package com.threerings.presents.peer.server;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Predicates;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
@@ -47,6 +55,7 @@ import com.samskivert.util.Lifecycle;
 import com.samskivert.util.ObserverList;
 import com.samskivert.util.ResultListener;
 import com.samskivert.util.ResultListenerList;
+import com.samskivert.util.StringUtil;
 import com.samskivert.util.Tuple;
 
 import com.samskivert.jdbc.RepositoryUnit;
@@ -54,6 +63,7 @@ import com.samskivert.jdbc.WriteOnlyUnit;
 
 import com.threerings.io.ObjectInputStream;
 import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.SimpleStreamableObject;
 import com.threerings.io.Streamable;
 
 import com.threerings.util.Name;
@@ -61,22 +71,34 @@ import com.threerings.util.Name;
 import com.threerings.presents.annotation.PeerInvoker;
 import com.threerings.presents.client.Client;
 import com.threerings.presents.client.InvocationService;
+import com.threerings.presents.data.AuthCodes;
 import com.threerings.presents.data.ClientObject;
 import com.threerings.presents.data.InvocationCodes;
 import com.threerings.presents.dobj.DObject;
+import com.threerings.presents.dobj.DSet;
+import com.threerings.presents.dobj.EntryAddedEvent;
+import com.threerings.presents.dobj.EntryRemovedEvent;
+import com.threerings.presents.dobj.EntryUpdatedEvent;
 import com.threerings.presents.dobj.ObjectAccessException;
+import com.threerings.presents.dobj.SetAdapter;
 import com.threerings.presents.dobj.Subscriber;
+import com.threerings.presents.net.AuthResponse;
+import com.threerings.presents.net.AuthResponseData;
+import com.threerings.presents.net.Credentials;
 import com.threerings.presents.net.DownstreamMessage;
 import com.threerings.presents.net.Message;
+import com.threerings.presents.net.MigrationCreds;
 import com.threerings.presents.peer.client.PeerService;
 import com.threerings.presents.peer.data.ClientInfo;
 import com.threerings.presents.peer.data.DObjectAddress;
 import com.threerings.presents.peer.data.NodeObject;
 import com.threerings.presents.peer.data.PeerAuthName;
 import com.threerings.presents.peer.data.PeerMarshaller;
+import com.threerings.presents.peer.net.PeerAuthResponseData;
 import com.threerings.presents.peer.net.PeerCreds;
 import com.threerings.presents.peer.server.persist.NodeRecord;
 import com.threerings.presents.peer.server.persist.NodeRepository;
+import com.threerings.presents.server.ChainedAuthenticator;
 import com.threerings.presents.server.ClientManager;
 import com.threerings.presents.server.InvocationException;
 import com.threerings.presents.server.InvocationManager;
@@ -85,6 +107,7 @@ import com.threerings.presents.server.PresentsSession;
 import com.threerings.presents.server.ReportManager;
 import com.threerings.presents.server.ServiceAuthenticator;
 import com.threerings.presents.server.SessionFactory;
+import com.threerings.presents.server.net.AuthingConnection;
 import com.threerings.presents.server.net.PresentsConnectionManager;
 
 import static com.threerings.presents.Log.log;
@@ -93,6 +116,22 @@ import static com.threerings.presents.Log.log;
  * Manages connections to the other nodes in a Presents server cluster. Each server maintains a
  * client connection to the other servers and subscribes to the {@link NodeObject} of all peer
  * servers and uses those objects to communicate cross-node information.
+ *
+ * <p> Nodes publish a heartbeat on their node object, which their peers use to detect nodes that
+ * have hung or become unreachable well before their connections time out. By default nodes
+ * discover one another by polling the NODES table. If membership gossip is enabled (see {@link
+ * #useGossipMembership}), nodes instead learn of one another via the set of live members published
+ * in each node object and via the credentials of peers that connect to them, and the NODES table
+ * is only consulted to seed a node that is not connected to any peers.
+ *
+ * <p> Locks are normally acquired by announcing the intent to acquire them and waiting for all
+ * peers to ratify. If lease locks are enabled (see {@link #useLeaseLocks}), a single arbiter node
+ * (the live member of the cluster with the highest priority) instead grants leases on locks, each
+ * with a fencing token. The arbiter grants no new leases unless it is connected to all other live
+ * members (though it always renews those it granted), and the last token granted is published in
+ * {@link NodeObject#leaseToken} so that a new arbiter continues from above it. Lease holders renew
+ * their leases periodically and leases that are not renewed expire, so the locks of a node that
+ * dies are freed automatically, and nodes that stop sending heartbeats drop out of arbitration.
  */
 public abstract class PeerManager
     implements PeerProvider, ClientManager.ClientObserver, Lifecycle.ShutdownComponent
@@ -109,6 +148,19 @@ public abstract class PeerManager
         void changedCacheData (Streamable data);
     }
 
+    /**
+     * A stale cache observer that wishes to be notified of batches of changed data all at once
+     * rather than one datum at a time.
+     */
+    public static interface BulkStaleCacheObserver extends StaleCacheObserver
+    {
+        /**
+         * Called when some possibly cached data has changed on one of our peer servers. The data
+         * are supplied in the order in which they were broadcast, with duplicates removed.
+         */
+        void changedCacheData (String cache, List<Streamable> data);
+    }
+
     /**
      * Used by entities that wish to know when this peer has been forced into immediately releasing
      * a lock.
@@ -121,6 +173,25 @@ public abstract class PeerManager
         void droppedLock (NodeObject.Lock lock);
     }
 
+    /**
+     * Used by entities that wish to track the clients logged onto every node in the cluster (this
+     * node included) without scanning the clients of every node object.
+     */
+    public static interface ClusterClientObserver
+    {
+        /**
+         * Called when a client's record is added to or updated in the node object of the
+         * specified node.
+         */
+        void clientAddedToNode (String nodeName, ClientInfo clinfo);
+
+        /**
+         * Called when a client's record is removed from the node object of the specified node, or
+         * when we lose our connection to that node.
+         */
+        void clientRemovedFromNode (String nodeName, ClientInfo clinfo);
+    }
+
     /**
      * Wraps an operation that needs a shared resource lock to be acquired before it can be
      * performed, and released after it completes. Used by {@link PeerManager#performWithLock}.
@@ -153,6 +224,23 @@ public abstract class PeerManager
      */
     public static abstract class NodeAction implements Streamable.Closure, NodeApplicant
     {
+        /**
+         * Returns a key identifying the state conveyed by this action, or null (the default). If
+         * this action is invoked while an earlier action of the same class with an equal key is
+         * still waiting to be sent to a peer, the earlier action will not be sent.
+         */
+        public Object getCoalescingKey () {
+            return null;
+        }
+
+        /**
+         * Returns a key that identifies the node(s) to which this action should be routed, or
+         * null (the default) if every node should be asked whether it {@link #isApplicable}. See
+         * {@link PeerManager#resolveRoutingKey} for the types of keys that are understood.
+         */
+        public Object getRoutingKey () {
+            return null;
+        }
 
         /** Invokes the action on the target server. */
         public void invoke () {
@@ -171,6 +259,15 @@ public abstract class PeerManager
      */
     public static abstract class NodeRequest implements Streamable.Closure, NodeApplicant
     {
+        /**
+         * Returns a key that identifies the node(s) to which this request should be routed, or
+         * null (the default) if every node should be asked whether it {@link #isApplicable}. See
+         * {@link PeerManager#resolveRoutingKey} for the types of keys that are understood.
+         */
+        public Object getRoutingKey () {
+            return null;
+        }
+
         /** Invokes the action on the target server. */
         public void invoke (final InvocationService.ResultListener listener) {
             try {
@@ -183,6 +280,35 @@ public abstract class PeerManager
         protected abstract void execute (InvocationService.ResultListener listener);
     }
 
+    /** Tracks the time taken by a single node to respond to node requests. */
+    public static class RequestLatency implements Cloneable
+    {
+        /** The number of responses received. */
+        public long responses;
+
+        /** The number of those responses that reported failure. */
+        public long failures;
+
+        /** The number of requests to which the node failed to respond in time. */
+        public long timeouts;
+
+        /** The total and maximum number of milliseconds taken to respond. */
+        public long totalTime, maxTime;
+
+        /** Returns the average number of milliseconds taken to respond. */
+        public long getAverageTime () {
+            return (responses == 0) ? 0 : (totalTime / responses);
+        }
+
+        @Override public RequestLatency clone () {
+            try {
+                return (RequestLatency)super.clone();
+            } catch (CloneNotSupportedException cnse) {
+                throw new AssertionError(cnse);
+            }
+        }
+    }
+
     /** Returned by {@link #getStats}. */
     public static class Stats implements Cloneable
     {
@@ -201,9 +327,36 @@ public abstract class PeerManager
         /** The number of lock requests that have timed out. */
         public long lockTimeouts;
 
+        /** The number of batches of lock leases renewed. */
+        public long leaseRenewals;
+
+        /** The number of lock leases that expired before they could be renewed. */
+        public long leasesExpired;
+
         /** The number of node actions we've invoked. */
         public long nodeActionsInvoked;
 
+        /** The number of node actions sent to peers and the number of messages used to send them
+         * (which is lower when actions are batched). */
+        public long nodeActionsSent, nodeActionBatches;
+
+        /** The number of node actions that were superseded before being sent to a peer. */
+        public long nodeActionsCoalesced;
+
+        /** The number of stale cache broadcasts requested and the number of batches used to send
+         * them. */
+        public long staleCacheBroadcasts, staleCacheBatches;
+
+        /** The number of stale cache broadcasts that duplicated one already awaiting delivery. */
+        public long staleCacheCoalesced;
+
+        /** The number of node requests that were abandoned because a node failed to respond in
+         * time. */
+        public long nodeRequestTimeouts;
+
+        /** The node request response times of each node to which we've sent requests. */
+        public Map<String, RequestLatency> nodeRequestLatency = Maps.newConcurrentMap();
+
         /** The total number of messages received from all of our peers. This is updated on the
          * conmgr thread which is why it's atomic. */
         public AtomicLong peerMessagesIn = new AtomicLong(0);
@@ -223,10 +376,37 @@ public abstract class PeerManager
             peerMessagesOut++;
         }
 
+        public void noteNodeRequestCompleted (String nodeName, long elapsed, boolean success) {
+            RequestLatency latency = getRequestLatency(nodeName);
+            latency.responses++;
+            latency.totalTime += elapsed;
+            latency.maxTime = Math.max(latency.maxTime, elapsed);
+            if (!success) {
+                latency.failures++;
+            }
+        }
+
+        public void noteNodeRequestTimedOut (String nodeName) {
+            nodeRequestTimeouts++;
+            getRequestLatency(nodeName).timeouts++;
+        }
+
+        protected RequestLatency getRequestLatency (String nodeName) {
+            RequestLatency latency = nodeRequestLatency.get(nodeName);
+            if (latency == null) {
+                nodeRequestLatency.put(nodeName, latency = new RequestLatency());
+            }
+            return latency;
+        }
+
         @Override public Stats clone () {
             try {
                 Stats cstats = (Stats)super.clone();
                 cstats.peerMessagesIn = new AtomicLong(peerMessagesIn.get());
+                cstats.nodeRequestLatency = Maps.newConcurrentMap();
+                for (Map.Entry<String, RequestLatency> entry : nodeRequestLatency.entrySet()) {
+                    cstats.nodeRequestLatency.put(entry.getKey(), entry.getValue().clone());
+                }
                 return cstats;
             } catch (Exception e) {
                 throw new RuntimeException(e);
@@ -352,14 +532,12 @@ public abstract class PeerManager
         _sharedSecret = sharedSecret;
         _nodeNamespace = nodeNamespace;
         _adHoc = adHoc;
+        // an ad hoc node's membership is whatever it is told it is
+        _membershipLoaded = adHoc;
 
         // wire ourselves into the server
-        _conmgr.addChainedAuthenticator(
-            new ServiceAuthenticator<PeerCreds>(PeerCreds.class, PeerAuthName.class) {
-            @Override protected boolean areValid (PeerCreds creds) {
-                return isAuthenticPeer(creds);
-            }
-        });
+        _conmgr.addChainedAuthenticator(new PeerAuthenticator());
+        _conmgr.addChainedAuthenticator(new MigrationAuthenticator());
         _clmgr.addSessionFactory(
             SessionFactory.newSessionFactory(PeerCreds.class, PeerSession.class,
                                              PeerAuthName.class, PeerClientResolver.class));
@@ -382,6 +560,28 @@ public abstract class PeerManager
             });
         }
 
+        // we are the first member of our cluster as far as we know
+        _nodeobj.addToMembers(createMember(_self));
+
+        // index the clients on our node object along with those of our peers
+        _nodeobj.addListener(new SetAdapter<DSet.Entry>() {
+            @Override public void entryAdded (EntryAddedEvent<DSet.Entry> event) {
+                if (NodeObject.CLIENTS.equals(event.getName())) {
+                    peerAddedClient(_nodeName, (ClientInfo)event.getEntry());
+                }
+            }
+            @Override public void entryUpdated (EntryUpdatedEvent<DSet.Entry> event) {
+                if (NodeObject.CLIENTS.equals(event.getName())) {
+                    peerUpdatedClient(_nodeName, (ClientInfo)event.getEntry());
+                }
+            }
+            @Override public void entryRemoved (EntryRemovedEvent<DSet.Entry> event) {
+                if (NodeObject.CLIENTS.equals(event.getName())) {
+                    peerRemovedClient(_nodeName, (ClientInfo)event.getOldEntry());
+                }
+            }
+        });
+
         // set the invocation service
         _nodeobj.setPeerService(_invmgr.registerProvider(this, PeerMarshaller.class));
 
@@ -395,6 +595,24 @@ public abstract class PeerManager
                     refreshPeers();
                 }
             }).schedule(5000L, 60*1000L);
+
+            // and our heartbeat interval, which also checks on the health of our peers
+            _omgr.newInterval(new Runnable() {
+                public void run () {
+                    long now = System.currentTimeMillis();
+                    _nodeobj.setHeartbeat(now);
+                    checkPeers(now);
+                }
+            }).schedule(HEARTBEAT_INTERVAL, true);
+        }
+
+        // renew any lock leases we hold three times per lease period
+        if (useLeaseLocks()) {
+            _omgr.newInterval(new Runnable() {
+                public void run () {
+                    renewLeases();
+                }
+            }).schedule(getLeaseDuration()/3, true);
         }
 
         // give derived classes an easy way to get in on the init action
@@ -413,13 +631,36 @@ public abstract class PeerManager
      * Locates the client with the specified name. Returns null if the client is not logged onto
      * any peer.
      */
-    public ClientInfo locateClient (final Name key)
+    public ClientInfo locateClient (Name key)
+    {
+        Tuple<String, ClientInfo> loc = _clientLocs.get(key);
+        return (loc == null) ? null : loc.right;
+    }
+
+    /**
+     * Returns the name of the node onto which the client with the specified name is logged, or
+     * null if the client is not logged onto any peer.
+     */
+    public String locateClientNode (Name key)
+    {
+        Tuple<String, ClientInfo> loc = _clientLocs.get(key);
+        return (loc == null) ? null : loc.left;
+    }
+
+    /**
+     * Locates all of the clients with the specified names. Clients that are not logged onto any
+     * peer will not have an entry in the returned map.
+     */
+    public Map<Name, ClientInfo> locateClients (Collection<? extends Name> keys)
     {
-        return lookupNodeDatum(new Function<NodeObject,ClientInfo>() {
-            public ClientInfo apply (NodeObject nodeobj) {
-                return nodeobj.clients.get(key);
+        Map<Name, ClientInfo> clients = Maps.newHashMap();
+        for (Name key : keys) {
+            Tuple<String, ClientInfo> loc = _clientLocs.get(key);
+            if (loc != null) {
+                clients.put(key, loc.right);
             }
-        });
+        }
+        return clients;
     }
 
     /**
@@ -490,17 +731,21 @@ public abstract class PeerManager
         // first serialize the action to make sure we can
         byte[] actionBytes = flattenAction(action);
 
+        // if the action is routed by key, only consider the nodes to which that key resolves
+        Set<String> targets = resolveRoutingKey(action.getRoutingKey());
+
         // invoke the action on our local server if appropriate
         boolean invoked = false;
-        if (action.isApplicable(_nodeobj)) {
+        if ((targets == null || targets.contains(_nodeName)) && action.isApplicable(_nodeobj)) {
             invokeAction(null, actionBytes);
             invoked = true;
         }
 
-        // now send it to any remote node that is also appropriate
-        for (PeerNode peer : _peers.values()) {
+        // now queue it up for delivery to any remote node that is also appropriate
+        Object key = getCoalescingKey(action);
+        for (PeerNode peer : getTargetPeers(targets)) {
             if (peer.nodeobj != null && action.isApplicable(peer.nodeobj)) {
-                peer.nodeobj.peerService.invokeAction(actionBytes);
+                queueAction(peer, key, actionBytes);
                 invoked = true;
             }
         }
@@ -517,14 +762,25 @@ public abstract class PeerManager
 
     /**
      * Invokes a node action on a specific node <em>without</em> executing {@link
-     * NodeAction#isApplicable} to determine whether the action is applicable.
+     * NodeAction#isApplicable} to determine whether the action is applicable. This method does
+     * not need to be called from the distributed object thread.
      */
-    public void invokeNodeAction (String nodeName, NodeAction action)
+    public void invokeNodeAction (final String nodeName, final NodeAction action)
     {
+        // if we're not on the dobjmgr thread, get there
+        if (!_omgr.isDispatchThread()) {
+            _omgr.postRunnable(new Runnable() {
+                public void run () {
+                    invokeNodeAction(nodeName, action);
+                }
+            });
+            return;
+        }
+
         PeerNode peer = _peers.get(nodeName);
         if (peer != null) {
             if (peer.nodeobj != null) {
-                peer.nodeobj.peerService.invokeAction(flattenAction(action));
+                queueAction(peer, getCoalescingKey(action), flattenAction(action));
 
             } else {
                 log.warning("Dropped NodeAction", "nodeName", nodeName, "action", action);
@@ -540,16 +796,40 @@ public abstract class PeerManager
      * distributed object thread, but this method does not need to be called from there.
      *
      * If any one node reports failure, this function reports failure. If all nodes report success,
-     * this function will report success.
+     * this function will report success. Results are not reported until every node has responded;
+     * use {@link #invokeNodeRequest(NodeRequest,long,int,NodeRequestsListener)} to bound the wait.
      */
     public <T> void invokeNodeRequest (
         final NodeRequest request, final NodeRequestsListener<T> listener)
+    {
+        invokeNodeRequest(request, 0L, 0, listener);
+    }
+
+    /**
+     * Invokes the supplied request on all servers in parallel, reporting the results as soon as
+     * the specified number of nodes have processed it successfully, every node has responded, or
+     * the deadline passes, whichever comes first. The request will execute on the distributed
+     * object thread, but this method does not need to be called from there. If the listener is a
+     * {@link NodeRequestsListener.PartialResultsListener} it will be told of each node's response
+     * as it arrives.
+     *
+     * @param timeout the number of milliseconds after which nodes that have not responded are
+     * reported as having failed with {@link NodeRequestsListener#TIMED_OUT}, or zero to wait for
+     * them indefinitely.
+     * @param quorum the number of successful responses after which results are reported (one
+     * reports the first success), or zero to wait for every node. Nodes that have not responded
+     * when results are reported appear in neither the results nor the errors. If enough nodes
+     * fail that a quorum can no longer be reached, results are reported immediately.
+     */
+    public <T> void invokeNodeRequest (
+        final NodeRequest request, final long timeout, final int quorum,
+        final NodeRequestsListener<T> listener)
     {
         // if we're not on the dobjmgr thread, get there
         if (!_omgr.isDispatchThread()) {
             _omgr.postRunnable(new Runnable() {
                 public void run () {
-                    invokeNodeRequest(request, listener);
+                    invokeNodeRequest(request, timeout, quorum, listener);
                 }
             });
             return;
@@ -559,35 +839,18 @@ public abstract class PeerManager
         byte[] requestBytes = flattenRequest(request);
 
         // build a set of node names (including the local node) to which to send the request
-        final Set<String> nodes = findApplicableNodes(request);
+        Set<String> nodes = findApplicableNodes(request, request.getRoutingKey());
         if (nodes.isEmpty()) {
             listener.requestsProcessed(new NodeRequestsResultImpl<T>());
             return;
         }
 
-        final Map<String, T> results = Maps.newHashMap();
-        final Map<String, String> failures = Maps.newHashMap();
-        final AtomicInteger completedNodes = new AtomicInteger();
-        for (final String node : nodes) {
-            invokeNodeRequest(node, requestBytes, new InvocationService.ResultListener() {
-                public void requestProcessed (Object result) {
-                    // check off this node's successful response
-                    @SuppressWarnings("unchecked")
-                    T castResult = (T) result;
-                    results.put(node, castResult);
-                    nodeDone();
-                }
-                public void requestFailed (String cause) {
-                    failures.put(node, cause);
-                    nodeDone();
-                }
-                protected void nodeDone () {
-                    if (completedNodes.incrementAndGet() == nodes.size()) {
-                        // if all nodes have responded, let caller know
-                        listener.requestsProcessed(new NodeRequestsResultImpl<T>(results, failures));
-                    }
-                }
-            });
+        NodeRequestCollector<T> collector = new NodeRequestCollector<T>(nodes, quorum, listener);
+        if (timeout > 0L) {
+            collector.scheduleTimeout(timeout);
+        }
+        for (String node : nodes) {
+            invokeNodeRequest(node, requestBytes, collector.createListener(node));
         }
     }
 
@@ -596,11 +859,22 @@ public abstract class PeerManager
      */
     public Set<String> findApplicableNodes (NodeApplicant applicant)
     {
+        return findApplicableNodes(applicant, null);
+    }
+
+    /**
+     * Returns all nodes for which <code>applicant.isApplicable</code> returns true. If a routing
+     * key is supplied and can be resolved (see {@link #resolveRoutingKey}), only the nodes to
+     * which it resolves are considered.
+     */
+    public Set<String> findApplicableNodes (NodeApplicant applicant, Object routingKey)
+    {
+        Set<String> targets = resolveRoutingKey(routingKey);
         Set<String> nodes = Sets.newHashSet();
-        if (applicant.isApplicable(_nodeobj)) {
+        if ((targets == null || targets.contains(_nodeName)) && applicant.isApplicable(_nodeobj)) {
             nodes.add(_nodeobj.nodeName);
         }
-        for (PeerNode peer : _peers.values()) {
+        for (PeerNode peer : getTargetPeers(targets)) {
             if (peer.nodeobj != null && applicant.isApplicable(peer.nodeobj)) {
                 nodes.add(peer.getNodeName());
             }
@@ -609,7 +883,8 @@ public abstract class PeerManager
     }
 
     /**
-     * Invokes a node request on a specific node and returns the result through the listener.
+     * Invokes a node request on a specific node and returns the result through the listener. This
+     * method does not need to be called from the distributed object thread.
      */
     public void invokeNodeRequest (String nodeName, NodeRequest request,
         InvocationService.ResultListener listener)
@@ -634,10 +909,83 @@ public abstract class PeerManager
         proxyRemoteObject(new DObjectAddress(nodeName, remoteOid), listener);
     }
 
-    public <T extends DObject> void proxyRemoteObject (
+    public void proxyRemoteObject (DObjectAddress remote, ResultListener<Integer> listener)
+    {
+        proxyRemoteObject(remote, false, listener);
+    }
+
+    /**
+     * Proxies the specified remote object as a read-only replica. If this server already has a
+     * replica of the object, the caller shares it and is told its oid immediately without a round
+     * trip to the object's node. Events posted on a replica locally are dropped rather than being
+     * forwarded to the object's node, so it only ever reflects the state of the original. Each
+     * successful call must be balanced by a call to {@link #releaseReplica}. Objects managed by
+     * this server cannot be replicated.
+     */
+    public void replicateRemoteObject (
         final DObjectAddress remote, final ResultListener<Integer> listener)
+    {
+        final Replica replica = _replicas.get(remote);
+        if (replica != null) {
+            if (replica.penders != null) {
+                replica.penders.add(listener);
+            } else {
+                replica.refs++;
+                listener.requestCompleted(replica.oid);
+            }
+            return;
+        }
+
+        final Replica nreplica = new Replica();
+        nreplica.penders.add(listener);
+        _replicas.put(remote, nreplica);
+        proxyRemoteObject(remote, true, new ResultListener<Integer>() {
+            public void requestCompleted (Integer oid) {
+                List<ResultListener<Integer>> penders = nreplica.penders;
+                nreplica.penders = null;
+                nreplica.oid = oid;
+                nreplica.refs = penders.size();
+                for (ResultListener<Integer> pender : penders) {
+                    pender.requestCompleted(oid);
+                }
+            }
+            public void requestFailed (Exception cause) {
+                _replicas.remove(remote);
+                for (ResultListener<Integer> pender : nreplica.penders) {
+                    pender.requestFailed(cause);
+                }
+            }
+        });
+    }
+
+    /**
+     * Releases a replica obtained via {@link #replicateRemoteObject}. The replica is unproxied
+     * when its last user releases it; the caller must be sure that it has no remaining local
+     * subscribers at that point.
+     */
+    public void releaseReplica (DObjectAddress remote)
+    {
+        Replica replica = _replicas.get(remote);
+        if (replica == null || replica.penders != null) {
+            log.warning("Requested to release unknown replica", "addr", remote);
+            return;
+        }
+        if (--replica.refs == 0) {
+            _replicas.remove(remote);
+            unproxyRemoteObject(remote);
+        }
+    }
+
+    protected <T extends DObject> void proxyRemoteObject (
+        final DObjectAddress remote, final boolean readOnly, final ResultListener<Integer> listener)
     {
         if (Objects.equal(remote.nodeName, _nodeName)) {
+            // we can't keep events from being applied to our own objects
+            if (readOnly) {
+                String errmsg = "Cannot replicate local object [key=" + remote + "].";
+                listener.requestFailed(new ObjectAccessException(errmsg));
+                return;
+            }
             // Still subscribe if the DObject is local to preserve the behavior of
             // DObject.setDestroyOnLastSubscriberRemoved on the proxied object
             _omgr.subscribeToObject(remote.oid, new Subscriber<T>() {
@@ -671,7 +1019,7 @@ public abstract class PeerManager
                 // make a note of this proxy mapping
                 _proxies.put(remote, new Tuple<Subscriber<?>, DObject>(this, object));
                 // map the object into our local oid space
-                _omgr.registerProxyObject(object, peer.getDObjectManager());
+                _omgr.registerProxyObject(object, peer.getDObjectManager(), readOnly);
                 // then tell the caller about the (now remapped) oid
                 listener.requestCompleted(object.getOid());
             }
@@ -693,10 +1041,12 @@ public abstract class PeerManager
 
     /**
      * Unsubscribes from and clears a proxied object. The caller must be sure that there are no
-     * remaining subscribers to the object on this local server.
+     * remaining subscribers to the object on this local server. If the object is a replica (see
+     * {@link #replicateRemoteObject}), it is cleared regardless of how many users it has.
      */
     public void unproxyRemoteObject (DObjectAddress addr)
     {
+        _replicas.remove(addr);
         Tuple<Subscriber<?>, DObject> bits = _proxies.remove(addr);
         if (bits == null) {
             log.warning("Requested to clear unknown proxy", "addr", addr);
@@ -791,6 +1141,57 @@ public abstract class PeerManager
         return (peer == null) ? -1 : peer.getPort();
     }
 
+    /**
+     * Moves the session of a client that is logged onto this node to the specified peer without
+     * the client having to log on there afresh. The client object is flattened and sent to the
+     * peer, which holds onto it and issues a ticket with which the client may claim it. The
+     * client is then told to move to the peer (see {@link Client#moveToServer}), presenting that
+     * ticket, whereupon its session resumes there with the object it had here rather than being
+     * authenticated and resolved anew. Its session on this node ends when it logs off to move.
+     * Changes made to the client object after this method is called will not be seen on the peer,
+     * so callers should avoid making any. This must be called on the dobjmgr thread.
+     *
+     * @param listener notified once the client has been told to move, or if the peer could not be
+     * asked to take the client.
+     */
+    public void migrateClient (
+        final Name username, String nodeName, final ResultListener<Void> listener)
+    {
+        PresentsSession session = _clmgr.getClient(username);
+        ClientObject clobj = (session == null) ? null : session.getClientObject();
+        if (clobj == null) {
+            listener.requestFailed(new Exception("Client not logged on [who=" + username + "]."));
+            return;
+        }
+        PeerNode peer = _peers.get(nodeName);
+        if (peer == null || peer.nodeobj == null) {
+            listener.requestFailed(new Exception("Not connected to peer [node=" + nodeName + "]."));
+            return;
+        }
+
+        final String hostname = peer.getPublicHostName();
+        final int[] ports = new int[] { peer.getPort() };
+        // ship the credentials that we authenticated so that the peer need not trust the client's
+        MigrateClientRequest request =
+            new MigrateClientRequest(username, session.getCredentials(), clobj);
+        invokeNodeRequest(nodeName, request,
+            new InvocationService.ResultListener() {
+            public void requestProcessed (Object result) {
+                PresentsSession session = _clmgr.getClient(username);
+                if (session == null || session.getClientObject() == null) {
+                    listener.requestFailed(new Exception(
+                        "Client logged off during migration [who=" + username + "]."));
+                    return;
+                }
+                session.migrateTo(hostname, ports, (String)result);
+                listener.requestCompleted(null);
+            }
+            public void requestFailed (String cause) {
+                listener.requestFailed(new InvocationException(cause));
+            }
+        });
+    }
+
     /**
      * Acquires a lock on a resource shared amongst this node's peers.  If the lock is successfully
      * acquired, the supplied listener will receive this node's name.  If another node acquires the
@@ -798,6 +1199,16 @@ public abstract class PeerManager
      */
     public void acquireLock (final NodeObject.Lock lock, final ResultListener<String> listener)
     {
+        if (useLeaseLocks()) {
+            acquireLeases(Collections.singletonList(lock),
+                          new ChainedResultListener<Map<NodeObject.Lock, String>, String>(listener) {
+                public void requestCompleted (Map<NodeObject.Lock, String> owners) {
+                    _target.requestCompleted(owners.get(lock));
+                }
+            });
+            return;
+        }
+
         // wait until any pending resolution is complete
         queryLock(lock, new ChainedResultListener<String, String>(listener) {
             public void requestCompleted (String result) {
@@ -821,6 +1232,11 @@ public abstract class PeerManager
      */
     public void releaseLock (final NodeObject.Lock lock, final ResultListener<String> listener)
     {
+        if (useLeaseLocks()) {
+            releaseLease(lock, listener);
+            return;
+        }
+
         // wait until any pending resolution is complete
         queryLock(lock, new ChainedResultListener<String, String>(listener) {
             public void requestCompleted (String result) {
@@ -892,12 +1308,12 @@ public abstract class PeerManager
      */
     public String queryLock (NodeObject.Lock lock)
     {
-        for (NodeObject nodeobj : getNodeObjects()) {
-            if (nodeobj.locks.contains(lock)) {
-                return nodeobj.nodeName;
-            }
+        // our own locks are checked directly, as they are only indexed once their events dispatch
+        if (_nodeobj.locks.contains(lock)) {
+            return _nodeName;
         }
-        return null;
+        Set<String> owners = _lockOwners.get(lock);
+        return owners.isEmpty() ? null : owners.iterator().next();
     }
 
     /**
@@ -931,6 +1347,59 @@ public abstract class PeerManager
         });
     }
 
+    /**
+     * Acquires a batch of locks. The supplied listener is notified with a map from each lock to
+     * the name of the node that holds it after the attempt (this node's name for the locks that
+     * were acquired, null for locks that could not be resolved). In lease mode all of the locks
+     * are requested from the lock arbiter in a single round trip; otherwise they are each
+     * acquired via {@link #acquireLock}.
+     */
+    public void acquireLocks (Collection<NodeObject.Lock> locks,
+                              final ResultListener<Map<NodeObject.Lock, String>> listener)
+    {
+        if (useLeaseLocks()) {
+            acquireLeases(locks, listener);
+            return;
+        }
+
+        final Map<NodeObject.Lock, String> owners = Maps.newHashMap();
+        final int count = locks.size();
+        if (count == 0) {
+            listener.requestCompleted(owners);
+            return;
+        }
+        for (final NodeObject.Lock lock : locks) {
+            acquireLock(lock, new ResultListener<String>() {
+                public void requestCompleted (String owner) {
+                    noteOwner(owner);
+                }
+                public void requestFailed (Exception cause) {
+                    log.warning("Lock acquisition failed", "lock", lock, cause);
+                    noteOwner(null);
+                }
+                protected void noteOwner (String owner) {
+                    owners.put(lock, owner);
+                    if (owners.size() == count) {
+                        listener.requestCompleted(owners);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the fencing token of this node's lease on the specified lock, or zero if this node
+     * does not hold an unexpired lease on the lock. Tokens increase monotonically with each new
+     * lease granted, so a resource that records the highest token it has seen can reject
+     * operations from a node whose lease has since expired and been granted to another node. A
+     * lease's token may increase if its renewal is granted by a new arbiter.
+     */
+    public long getFencingToken (NodeObject.Lock lock)
+    {
+        HeldLease held = _heldLeases.get(lock);
+        return (held == null || held.expires <= System.currentTimeMillis()) ? 0L : held.token;
+    }
+
     /**
      * Adds an observer to notify when this peer has been forced to drop a lock immediately.
      */
@@ -947,6 +1416,22 @@ public abstract class PeerManager
         _dropobs.remove(observer);
     }
 
+    /**
+     * Adds an observer to be notified of clients logging onto and off of any node.
+     */
+    public void addClusterClientObserver (ClusterClientObserver observer)
+    {
+        _clusterobs.add(observer);
+    }
+
+    /**
+     * Removes a cluster client observer from the list.
+     */
+    public void removeClusterClientObserver (ClusterClientObserver observer)
+    {
+        _clusterobs.remove(observer);
+    }
+
     /**
      * Called by {@link PeerSession}s when clients subscribe to the {@link NodeObject}.
      */
@@ -997,11 +1482,56 @@ public abstract class PeerManager
     }
 
     /**
-     * Called when cached data has changed on the local server and needs to inform our peers.
+     * Configures the number of milliseconds for which stale data for the specified cache is
+     * collected before being sent to our peers. By default data are sent as soon as the events
+     * currently queued on the dobj thread have been processed; caches that see bursts of changes
+     * may opt into a longer delay to send fewer, larger batches.
+     */
+    public void setStaleCacheDelay (String cache, long delay)
+    {
+        _staleCacheDelays.put(cache, delay);
+    }
+
+    /**
+     * Called when cached data has changed on the local server and needs to inform our peers. The
+     * data broadcast for a cache while the events currently queued on the dobj thread are
+     * processed (or for longer, see {@link #setStaleCacheDelay}) are delivered to our peers in a
+     * single batch. Duplicate data within a batch are sent only once: data are compared using
+     * {@link Object#equals} and {@link Object#hashCode}, so only data classes that implement those
+     * are coalesced, and equal data must describe the same stale cache entries. This method does
+     * not need to be called from the distributed object thread.
      */
-    public void broadcastStaleCacheData (String cache, Streamable data)
+    public void broadcastStaleCacheData (final String cache, final Streamable data)
     {
-        _nodeobj.setCacheData(new NodeObject.CacheData(cache, data));
+        // if we're not on the dobjmgr thread, get there
+        if (!_omgr.isDispatchThread()) {
+            _omgr.postRunnable(new Runnable() {
+                public void run () {
+                    broadcastStaleCacheData(cache, data);
+                }
+            });
+            return;
+        }
+
+        _stats.staleCacheBroadcasts++;
+        Set<Streamable> pending = _staleCache.get(cache);
+        if (pending == null) {
+            _staleCache.put(cache, pending = Sets.newLinkedHashSet());
+            Runnable flusher = new Runnable() {
+                public void run () {
+                    flushStaleCacheData(cache);
+                }
+            };
+            long delay = getStaleCacheDelay(cache);
+            if (delay <= 0L) {
+                _omgr.postRunnable(flusher);
+            } else {
+                _omgr.newInterval(flusher).schedule(delay);
+            }
+        }
+        if (!pending.add(data)) {
+            _stats.staleCacheCoalesced++;
+        }
     }
 
     /**
@@ -1027,6 +1557,18 @@ public abstract class PeerManager
         // clear out our client observer registration
         _clmgr.removeClientObserver(this);
 
+        // send along any stale cache data that is waiting to go out
+        if (_nodeobj != null) {
+            for (String cache : Lists.newArrayList(_staleCache.keySet())) {
+                flushStaleCacheData(cache);
+            }
+        }
+
+        // let our peers know that we're leaving
+        if (_nodeobj != null && _nodeobj.members.containsKey(_nodeName)) {
+            _nodeobj.removeFromMembers(_nodeName);
+        }
+
         // clear our record from the node table
         if (!_adHoc) {
             _invoker.postUnit(new WriteOnlyUnit("shutdownNode(" + _nodeName + ")") {
@@ -1167,6 +1709,18 @@ public abstract class PeerManager
             return;
         }
 
+        // if we're using membership gossip and we're in contact with the cluster, we need only let
+        // the world know that we're alive so that new nodes can seed their membership from us
+        if (useGossipMembership() && hasLivePeers()) {
+            _invoker.postUnit(new WriteOnlyUnit("heartbeatNode(" + _nodeName + ")") {
+                @Override
+                public void invokePersist () throws Exception {
+                    _noderepo.heartbeatNode(_nodeName);
+                }
+            });
+            return;
+        }
+
         // load up information on our nodes
         _invoker.postUnit(new RepositoryUnit("refreshPeers") {
             @Override
@@ -1182,6 +1736,8 @@ public abstract class PeerManager
             }
             @Override
             public void handleSuccess () {
+                _membershipLoaded = true;
+
                 // refresh peers with loaded records
                 long now = System.currentTimeMillis();
                 for (Iterator<NodeRecord> it = _nodes.values().iterator(); it.hasNext(); ) {
@@ -1200,7 +1756,11 @@ public abstract class PeerManager
                     }
                 }
 
-                // remove peers for which we no longer have up-to-date records
+                // remove peers for which we no longer have up-to-date records (when gossiping,
+                // checkPeers() takes care of forgetting about peers)
+                if (useGossipMembership()) {
+                    return;
+                }
                 for (Iterator<PeerNode> it = _peers.values().iterator(); it.hasNext(); ) {
                     PeerNode peer = it.next();
                     if (!_nodes.containsKey(peer.getNodeName())) {
@@ -1280,7 +1840,7 @@ public abstract class PeerManager
     /**
      * Called when possibly cached data has changed on one of our peer servers.
      */
-    protected void changedCacheData (String cache, final Streamable data)
+    protected void changedCacheData (final String cache, final Streamable data)
     {
         // see if we have any observers
         ObserverList<StaleCacheObserver> list = _cacheobs.get(cache);
@@ -1290,25 +1850,124 @@ public abstract class PeerManager
         // if so, notify them
         list.apply(new ObserverList.ObserverOp<StaleCacheObserver>() {
             public boolean apply (StaleCacheObserver observer) {
-                observer.changedCacheData(data);
+                if (observer instanceof BulkStaleCacheObserver) {
+                    ((BulkStaleCacheObserver)observer).changedCacheData(
+                        cache, Collections.singletonList(data));
+                } else {
+                    observer.changedCacheData(data);
+                }
                 return true;
             }
         });
     }
 
     /**
-     * Called when we have been forced to drop a lock.
+     * Called when a batch of possibly cached data has changed on one of our peer servers.
      */
-    protected void droppedLock (final NodeObject.Lock lock)
+    protected void changedCacheData (final String cache, final List<Streamable> data)
     {
-        _nodeobj.removeFromLocks(lock);
-        _stats.locksHijacked++;
-        _dropobs.apply(new ObserverList.ObserverOp<DroppedLockObserver>() {
-            public boolean apply (DroppedLockObserver observer) {
-                observer.droppedLock(lock);
-                return true;
-            }
-        });
+        // see if we have any observers
+        ObserverList<StaleCacheObserver> list = _cacheobs.get(cache);
+        if (list == null) {
+            return;
+        }
+        // if so, notify them
+        list.apply(new ObserverList.ObserverOp<StaleCacheObserver>() {
+            public boolean apply (StaleCacheObserver observer) {
+                if (observer instanceof BulkStaleCacheObserver) {
+                    ((BulkStaleCacheObserver)observer).changedCacheData(cache, data);
+                } else {
+                    for (Streamable datum : data) {
+                        observer.changedCacheData(datum);
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Sends the stale data collected for the specified cache to our peers.
+     */
+    protected void flushStaleCacheData (String cache)
+    {
+        Set<Streamable> pending = _staleCache.remove(cache);
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        _nodeobj.setCacheBatch(new NodeObject.CacheBatch(
+            cache, pending.toArray(new Streamable[pending.size()])));
+        _stats.staleCacheBatches++;
+    }
+
+    /**
+     * Returns the number of milliseconds for which stale data for the specified cache is collected
+     * before being sent to our peers. If zero, the data are sent once the events currently queued
+     * on the dobj thread have been processed.
+     */
+    protected long getStaleCacheDelay (String cache)
+    {
+        Long delay = _staleCacheDelays.get(cache);
+        return (delay == null) ? DEFAULT_STALE_CACHE_DELAY : delay;
+    }
+
+    /**
+     * Returns the number of milliseconds for which we hold onto the client object of a client
+     * that is migrating here from a peer while waiting for the client to arrive.
+     */
+    protected long getMigrationTimeout ()
+    {
+        return DEFAULT_MIGRATION_TIMEOUT;
+    }
+
+    /**
+     * Called when a peer asks us to take over the session of one of its clients. Holds onto the
+     * client object until the client arrives or we tire of waiting for it, and returns the ticket
+     * that the client must present to claim it.
+     */
+    protected String acceptMigrant (
+        final Name username, Credentials creds, final ClientObject clobj)
+    {
+        byte[] bytes = new byte[16];
+        _rando.nextBytes(bytes);
+        final String ticket = StringUtil.hexlate(bytes);
+        _migrants.put(ticket, new Migrant(username, creds, clobj));
+
+        _omgr.newInterval(new Runnable() {
+            public void run () {
+                if (_migrants.remove(ticket) != null) {
+                    log.info("Migrating client never arrived", "who", username);
+                }
+            }
+        }).schedule(getMigrationTimeout());
+
+        log.info("Accepted migrating client", "who", username);
+        return ticket;
+    }
+
+    /**
+     * Called when we have been forced to drop a lock.
+     */
+    protected void droppedLock (NodeObject.Lock lock)
+    {
+        _stats.locksHijacked++;
+        lostLock(lock);
+    }
+
+    /**
+     * Called when we no longer hold a lock that we did not release, either because it was taken
+     * from us or because its lease expired. Notifies our dropped lock observers.
+     */
+    protected void lostLock (final NodeObject.Lock lock)
+    {
+        _heldLeases.remove(lock);
+        _nodeobj.removeFromLocks(lock);
+        _dropobs.apply(new ObserverList.ObserverOp<DroppedLockObserver>() {
+            public boolean apply (DroppedLockObserver observer) {
+                observer.droppedLock(lock);
+                return true;
+            }
+        });
     }
 
     /**
@@ -1327,6 +1986,326 @@ public abstract class PeerManager
         _nodeobj.removeFromClients(info.getKey());
     }
 
+    /**
+     * Returns true if locks should be granted as leases by a lock arbiter rather than ratified by
+     * all peers. This must be the same for all nodes in a cluster.
+     */
+    protected boolean useLeaseLocks ()
+    {
+        return LEASE_LOCKS;
+    }
+
+    /**
+     * Returns the duration for which lock leases are granted. Leases are renewed three times per
+     * lease period.
+     */
+    protected long getLeaseDuration ()
+    {
+        return DEFAULT_LEASE_DURATION;
+    }
+
+    /**
+     * Returns the name of the node that arbitrates lock leases: the live member of the cluster
+     * with the highest priority. Members come from the NODES table (or from gossip), less those
+     * that have {@link #hasFailed failed}, so that all nodes agree on the arbiter except for the
+     * brief period in which they differ on whether a silent node has failed. A node that cannot
+     * reach the arbiter is refused its leases rather than electing itself.
+     */
+    protected String getLockArbiter ()
+    {
+        long now = System.currentTimeMillis();
+        String arbiter = _nodeName;
+        for (PeerNode peer : _peers.values()) {
+            if (!hasFailed(peer, now) && hasPriority(peer.getNodeName(), arbiter)) {
+                arbiter = peer.getNodeName();
+            }
+        }
+        return arbiter;
+    }
+
+    /**
+     * Returns true if we have not heard from the supplied peer for long enough that we consider
+     * it to have failed. Failed peers take no part in lease arbitration, so that the leases they
+     * held expire on their own and the remaining nodes can carry on without them. We wait at
+     * least as long as a lease lasts so that any leases granted by a failed arbiter have expired
+     * before another node takes its place.
+     */
+    protected boolean hasFailed (PeerNode peer, long now)
+    {
+        return now - peer.getLastHeartbeat() > Math.max(PEER_FAILURE_TIMEOUT, getLeaseDuration());
+    }
+
+    /**
+     * Returns null if we may grant leases as the lock arbiter, or the reason that we may not: we
+     * must have loaded the cluster membership, consider ourselves the arbiter, and be connected
+     * to (and hearing heartbeats from) every other live member, so that we know of all locks held
+     * under leases granted by any predecessor and of the last fencing token it granted.
+     */
+    protected String checkLeaseArbiter ()
+    {
+        if (!_membershipLoaded) {
+            return "Cluster membership not yet loaded";
+        }
+        String arbiter = getLockArbiter();
+        if (!arbiter.equals(_nodeName)) {
+            return "Not the lock arbiter [arbiter=" + arbiter + "]";
+        }
+        long now = System.currentTimeMillis();
+        for (PeerNode peer : _peers.values()) {
+            if ((peer.nodeobj == null || peer.isSuspect()) && !hasFailed(peer, now)) {
+                return "Not connected to peer [node=" + peer.getNodeName() + "]";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Notes a fencing token granted by the lock arbiter, as reported by a peer, so that we will
+     * grant higher tokens if we become the arbiter.
+     */
+    protected void observedLeaseToken (long token)
+    {
+        _lastToken = Math.max(_lastToken, token);
+    }
+
+    /**
+     * Notes a fencing token granted to or by this node and publishes it in our node object so
+     * that whichever node next becomes the arbiter continues from above it.
+     */
+    protected void publishLeaseToken (long token)
+    {
+        observedLeaseToken(token);
+        if (_nodeobj.leaseToken < _lastToken) {
+            _nodeobj.setLeaseToken(_lastToken);
+        }
+    }
+
+    /**
+     * Sends a lease request for the supplied locks to the lock arbiter.
+     */
+    protected void invokeLeaseRequest (
+        int op, NodeObject.Lock[] locks, InvocationService.ResultListener listener)
+    {
+        invokeNodeRequest(getLockArbiter(), new LeaseRequest(_nodeName, op, locks), listener);
+    }
+
+    /**
+     * Requests leases on the supplied locks from the lock arbiter.
+     */
+    protected void acquireLeases (Collection<NodeObject.Lock> locks,
+                                  final ResultListener<Map<NodeObject.Lock, String>> listener)
+    {
+        final Map<NodeObject.Lock, String> owners = Maps.newHashMap();
+        List<NodeObject.Lock> wanted = Lists.newArrayList();
+        for (NodeObject.Lock lock : locks) {
+            if (_heldLeases.containsKey(lock)) {
+                owners.put(lock, _nodeName);
+            } else {
+                wanted.add(lock);
+            }
+        }
+        if (wanted.isEmpty()) {
+            listener.requestCompleted(owners);
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        final NodeObject.Lock[] lockArray = wanted.toArray(new NodeObject.Lock[wanted.size()]);
+        invokeLeaseRequest(LeaseRequest.ACQUIRE, lockArray,
+                           new InvocationService.ResultListener() {
+            public void requestProcessed (Object result) {
+                LeaseResult lres = (LeaseResult)result;
+                long wait = System.currentTimeMillis() - start;
+                for (int ii = 0; ii < lockArray.length; ii++) {
+                    if (lres.tokens[ii] != 0L) {
+                        leaseGranted(lockArray[ii], lres.tokens[ii], start, wait);
+                    }
+                    owners.put(lockArray[ii], lres.owners[ii]);
+                }
+                listener.requestCompleted(owners);
+            }
+            public void requestFailed (String cause) {
+                listener.requestFailed(new InvocationException(cause));
+            }
+        });
+    }
+
+    /**
+     * Called when the lock arbiter has granted or renewed our lease on a lock.
+     *
+     * @param requested the time at which we requested the lease, from which its expiry is
+     * computed.
+     */
+    protected void leaseGranted (NodeObject.Lock lock, long token, long requested, long wait)
+    {
+        HeldLease held = _heldLeases.get(lock);
+        if (held == null) {
+            _heldLeases.put(lock, held = new HeldLease());
+            _nodeobj.addToLocks(lock);
+            _stats.locksAcquired++;
+            _stats.lockAcquireWait += wait;
+        }
+        held.token = token;
+        held.expires = requested + getLeaseDuration();
+        publishLeaseToken(token);
+    }
+
+    /**
+     * Releases our lease on the supplied lock.
+     */
+    protected void releaseLease (NodeObject.Lock lock, final ResultListener<String> listener)
+    {
+        if (_heldLeases.remove(lock) == null) {
+            String owner = queryLock(lock);
+            if (owner != null) {
+                log.warning("Tried to release lock held by another peer", "lock", lock,
+                            "owner", owner);
+            }
+            listener.requestCompleted(owner);
+            return;
+        }
+
+        _nodeobj.removeFromLocks(lock);
+        _stats.locksReleased++;
+        invokeLeaseRequest(LeaseRequest.RELEASE, new NodeObject.Lock[] { lock },
+                           new InvocationService.ResultListener() {
+            public void requestProcessed (Object result) {
+                listener.requestCompleted(null);
+            }
+            public void requestFailed (String cause) {
+                // our lease will expire on its own
+                log.info("Failed to release lease", "cause", cause);
+                listener.requestCompleted(null);
+            }
+        });
+    }
+
+    /**
+     * Called periodically to renew the leases we hold, drop those that we were unable to renew in
+     * time, and to flush expired leases that we granted while acting as arbiter.
+     */
+    protected void renewLeases ()
+    {
+        final long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<NodeObject.Lock, LeaseRecord>> it = _leases.entrySet().iterator();
+                it.hasNext(); ) {
+            if (it.next().getValue().expires <= now) {
+                it.remove();
+            }
+        }
+
+        for (Iterator<Map.Entry<NodeObject.Lock, HeldLease>> it =
+                _heldLeases.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<NodeObject.Lock, HeldLease> entry = it.next();
+            if (entry.getValue().expires <= now) {
+                log.warning("Lease expired before it could be renewed", "lock", entry.getKey());
+                it.remove();
+                _stats.leasesExpired++;
+                lostLock(entry.getKey());
+            }
+        }
+        if (_heldLeases.isEmpty()) {
+            return;
+        }
+
+        final NodeObject.Lock[] locks =
+            _heldLeases.keySet().toArray(new NodeObject.Lock[_heldLeases.size()]);
+        invokeLeaseRequest(LeaseRequest.RENEW, locks, new InvocationService.ResultListener() {
+            public void requestProcessed (Object result) {
+                LeaseResult lres = (LeaseResult)result;
+                _stats.leaseRenewals++;
+                for (int ii = 0; ii < locks.length; ii++) {
+                    if (!_heldLeases.containsKey(locks[ii])) {
+                        continue; // released while we were renewing
+                    }
+                    if (lres.tokens[ii] != 0L) {
+                        leaseGranted(locks[ii], lres.tokens[ii], now, 0L);
+                    } else if (lres.owners[ii] == null) {
+                        // the arbiter could not decide; we'll try again before the lease expires
+                        log.info("Lease renewal deferred", "lock", locks[ii]);
+                    } else {
+                        log.warning("Lease renewal refused", "lock", locks[ii],
+                                    "owner", lres.owners[ii]);
+                        _heldLeases.remove(locks[ii]);
+                        droppedLock(locks[ii]);
+                    }
+                }
+            }
+            public void requestFailed (String cause) {
+                // we'll try again shortly and drop our leases if they expire in the meanwhile
+                log.info("Failed to renew leases", "count", locks.length, "cause", cause);
+            }
+        });
+    }
+
+    /**
+     * Processes a lease request from the specified node, in our capacity as lock arbiter.
+     */
+    protected LeaseResult processLeaseRequest (String nodeName, int op, NodeObject.Lock[] locks)
+        throws InvocationException
+    {
+        // releases are always honored, as are renewals of the leases we granted, but we grant
+        // nothing new unless we're sure we're the arbiter
+        String refusal = (op == LeaseRequest.RELEASE) ? null : checkLeaseArbiter();
+        if (refusal != null && op != LeaseRequest.RENEW) {
+            log.info("Refusing lease request", "node", nodeName, "reason", refusal);
+            throw new InvocationException(InvocationCodes.INTERNAL_ERROR);
+        }
+
+        long now = System.currentTimeMillis();
+        LeaseResult result = new LeaseResult(locks.length);
+        for (int ii = 0; ii < locks.length; ii++) {
+            NodeObject.Lock lock = locks[ii];
+            LeaseRecord lease = _leases.get(lock);
+            if (lease != null && lease.expires <= now) {
+                _leases.remove(lock);
+                lease = null;
+            }
+
+            if (refusal != null) {
+                // we can only vouch for unexpired leases that we granted to this very node; we
+                // leave the rest undecided so that the node retries rather than dropping them
+                if (lease != null && Objects.equal(lease.owner, nodeName)) {
+                    lease.expires = now + getLeaseDuration();
+                    result.owners[ii] = nodeName;
+                    result.tokens[ii] = lease.token;
+                }
+                continue;
+            }
+
+            if (op == LeaseRequest.RELEASE) {
+                if (lease != null && Objects.equal(lease.owner, nodeName)) {
+                    _leases.remove(lock);
+                }
+                continue;
+            }
+
+            if (lease != null && !Objects.equal(lease.owner, nodeName)) {
+                result.owners[ii] = lease.owner;
+                continue;
+            }
+
+            if (lease == null) {
+                // we may have only just become the arbiter, so respect any locks that are still
+                // held under leases granted by our predecessor
+                String owner = queryLock(lock);
+                if (owner != null && !Objects.equal(owner, nodeName)) {
+                    result.owners[ii] = owner;
+                    continue;
+                }
+                lease = new LeaseRecord();
+                lease.owner = nodeName;
+                lease.token = ++_lastToken;
+                _leases.put(lock, lease);
+            }
+            lease.expires = now + getLeaseDuration();
+            result.owners[ii] = nodeName;
+            result.tokens[ii] = lease.token;
+        }
+        publishLeaseToken(_lastToken);
+        return result;
+    }
+
     /**
      * Creates a {@link PeerNode} to manage our connection to the specified peer.
      */
@@ -1340,7 +2319,223 @@ public abstract class PeerManager
      */
     protected PeerCreds createCreds ()
     {
-        return new PeerCreds(_nodeName, _sharedSecret);
+        return new PeerCreds(_nodeName, _sharedSecret, createMember(_self), useCompression());
+    }
+
+    /**
+     * Returns true if we should ask that our connections to our peers be compressed, and agree to
+     * compress connections from peers that ask.
+     */
+    protected boolean useCompression ()
+    {
+        return COMPRESS_LINKS;
+    }
+
+    /**
+     * Returns the {@link Deflater} level with which we compress frames sent to our peers.
+     */
+    protected int getCompressionLevel ()
+    {
+        return Deflater.BEST_SPEED;
+    }
+
+    /**
+     * Returns the size below which frames sent to our peers are not compressed.
+     */
+    protected int getCompressionMinSize ()
+    {
+        return DEFAULT_COMPRESSION_MIN_SIZE;
+    }
+
+    /**
+     * Returns the number of recently sent bytes with which the compressor is primed for each frame
+     * sent on connections accepted from our peers. Frames must be flushed individually so that
+     * they can be decoded on arrival, so this is what carries context from one frame to the next.
+     */
+    protected int getCompressionDictionarySize ()
+    {
+        return DEFAULT_COMPRESSION_DICTIONARY_SIZE;
+    }
+
+    /**
+     * Returns true if peers should be discovered via membership gossip rather than by polling the
+     * NODES table. This must be the same for all nodes in a cluster.
+     */
+    protected boolean useGossipMembership ()
+    {
+        return GOSSIP_MEMBERSHIP;
+    }
+
+    /**
+     * Creates a membership record describing the node identified by the supplied record.
+     */
+    protected NodeObject.Member createMember (NodeRecord record)
+    {
+        return new NodeObject.Member(
+            record.nodeName, record.hostName, record.publicHostName, record.region, record.port);
+    }
+
+    /**
+     * Creates a node record describing the node identified by the supplied membership record.
+     */
+    protected NodeRecord createRecord (NodeObject.Member member)
+    {
+        NodeRecord record = new NodeRecord(
+            member.nodeName, member.hostName, member.publicHostName, member.region, member.port);
+        record.lastUpdated = new Timestamp(System.currentTimeMillis());
+        return record;
+    }
+
+    /**
+     * Returns true if we are connected to at least one healthy peer.
+     */
+    protected boolean hasLivePeers ()
+    {
+        for (PeerNode peer : _peers.values()) {
+            if (peer.nodeobj != null && !peer.isSuspect()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called periodically to check for peers that have stopped sending heartbeats and, if we're
+     * using membership gossip, to reconnect to or forget about peers to which we are not
+     * connected. Silent peers are always suspected, but we only disconnect from them when
+     * gossiping; otherwise we leave that to the connection itself failing, as we always have, and
+     * to {@link #refreshPeers}.
+     */
+    protected void checkPeers (long now)
+    {
+        for (Iterator<PeerNode> it = _peers.values().iterator(); it.hasNext(); ) {
+            PeerNode peer = it.next();
+            long silence = now - peer.getLastHeartbeat();
+
+            if (peer.nodeobj != null) {
+                if (useGossipMembership() && silence > PEER_FAILURE_TIMEOUT) {
+                    log.warning("Peer stopped sending heartbeats, disconnecting",
+                                "node", peer.getNodeName(), "silence", silence);
+                    peer.shutdown();
+
+                } else if ((silence > PEER_SUSPECT_TIMEOUT) != peer.isSuspect()) {
+                    peer.setSuspect(!peer.isSuspect());
+                    if (peer.isSuspect()) {
+                        log.info("Suspecting silent peer", "node", peer.getNodeName(),
+                                 "silence", silence);
+                        memberWentDown(peer);
+                    } else {
+                        log.info("Silent peer has recovered", "node", peer.getNodeName());
+                        memberCameUp(peer);
+                    }
+                }
+                continue;
+            }
+
+            if (!useGossipMembership()) {
+                continue; // refreshPeers() takes care of reconnecting
+            }
+
+            // if no one has heard from this peer in a while, forget about it; if it comes back, it
+            // will reconnect to one of us and we'll hear about it again
+            if (silence > PEER_DROP_TIMEOUT && !isLiveMember(peer.getNodeName())) {
+                log.info("Forgetting unreachable peer", "node", peer.getNodeName());
+                peer.shutdown();
+                it.remove();
+
+            } else if (now - peer.getLastConnectStamp() > PEER_RECONNECT_INTERVAL) {
+                NodeRecord record = peer.getRecord();
+                record.lastUpdated = new Timestamp(now);
+                peer.refresh(record);
+            }
+        }
+    }
+
+    /**
+     * Returns true if any of our healthy peers consider the specified node to be a live member of
+     * the cluster.
+     */
+    protected boolean isLiveMember (String nodeName)
+    {
+        for (PeerNode peer : _peers.values()) {
+            if (peer.nodeobj != null && !peer.isSuspect() &&
+                    peer.nodeobj.members.containsKey(nodeName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the specified node is in the namespace of nodes with which we peer.
+     */
+    protected boolean inNamespace (String nodeName)
+    {
+        return StringUtil.isBlank(_nodeNamespace) || nodeName.startsWith(_nodeNamespace);
+    }
+
+    /**
+     * Called when we have connected to the supplied peer, or it has resumed sending heartbeats.
+     * Publishes it as a live member of the cluster.
+     */
+    protected void memberCameUp (PeerNode peer)
+    {
+        NodeObject.Member member = createMember(peer.getRecord());
+        if (_nodeobj.members.containsKey(member.getKey())) {
+            _nodeobj.updateMembers(member);
+        } else {
+            _nodeobj.addToMembers(member);
+        }
+    }
+
+    /**
+     * Called when we have lost our connection to the supplied peer or suspect that it has failed.
+     * Removes it from our published set of live members.
+     */
+    protected void memberWentDown (PeerNode peer)
+    {
+        if (_nodeobj.members.containsKey(peer.getNodeName())) {
+            _nodeobj.removeFromMembers(peer.getNodeName());
+        }
+    }
+
+    /**
+     * Called when the specified node reports that the supplied node is a live member of the
+     * cluster. If we're using membership gossip, we connect to any such node of which we were
+     * not already aware.
+     */
+    protected void peerAddedMember (String nodeName, NodeObject.Member member)
+    {
+        if (!useGossipMembership() || Objects.equal(member.nodeName, _nodeName) ||
+                !inNamespace(member.nodeName)) {
+            return;
+        }
+        if (!_peers.containsKey(member.nodeName)) {
+            log.info("Learned of new peer", "node", member.nodeName, "from", nodeName);
+        }
+        try {
+            refreshPeer(createRecord(member));
+        } catch (Exception e) {
+            log.warning("Failure refreshing peer", "member", member, e);
+        }
+    }
+
+    /**
+     * Called when the specified node reports that the supplied node is no longer a live member
+     * of the cluster. If we're using membership gossip and the node is reporting its own
+     * departure, we forget about it immediately. Otherwise we rely on our own connection to the
+     * node (or lack thereof) to determine its fate.
+     */
+    protected void peerRemovedMember (String nodeName, NodeObject.Member member)
+    {
+        if (!useGossipMembership() || !member.nodeName.equals(nodeName)) {
+            return;
+        }
+        PeerNode peer = _peers.remove(nodeName);
+        if (peer != null) {
+            log.info("Peer left the cluster", "node", nodeName);
+            peer.shutdown();
+        }
     }
 
     /**
@@ -1372,6 +2567,76 @@ public abstract class PeerManager
         // nothing to do by default
     }
 
+    /**
+     * Called when a client is added to the node object of the specified node (which may be this
+     * node). Updates our client location index.
+     */
+    protected void peerAddedClient (final String nodeName, final ClientInfo clinfo)
+    {
+        _clusterobs.apply(new ObserverList.ObserverOp<ClusterClientObserver>() {
+            public boolean apply (ClusterClientObserver observer) {
+                observer.clientAddedToNode(nodeName, clinfo);
+                return true;
+            }
+        });
+
+        // if a client is briefly logged onto two nodes, we prefer the local node's record
+        Comparable<?> key = clinfo.getKey();
+        Tuple<String, ClientInfo> oloc = _clientLocs.get(key);
+        if (oloc == null || Objects.equal(oloc.left, nodeName) ||
+                Objects.equal(nodeName, _nodeName)) {
+            _clientLocs.put(key, Tuple.newTuple(nodeName, clinfo));
+        }
+    }
+
+    /**
+     * Called when a client's record is updated in the node object of the specified node (which may
+     * be this node). Updates our client location index.
+     */
+    protected void peerUpdatedClient (String nodeName, ClientInfo clinfo)
+    {
+        peerAddedClient(nodeName, clinfo);
+    }
+
+    /**
+     * Called when a client is removed from the node object of the specified node (which may be
+     * this node), or when we lose our connection to that node. Updates our client location index.
+     */
+    protected void peerRemovedClient (final String nodeName, final ClientInfo clinfo)
+    {
+        _clusterobs.apply(new ObserverList.ObserverOp<ClusterClientObserver>() {
+            public boolean apply (ClusterClientObserver observer) {
+                observer.clientRemovedFromNode(nodeName, clinfo);
+                return true;
+            }
+        });
+
+        Comparable<?> key = clinfo.getKey();
+        Tuple<String, ClientInfo> oloc = _clientLocs.get(key);
+        if (oloc == null || !Objects.equal(oloc.left, nodeName)) {
+            return;
+        }
+        _clientLocs.remove(key);
+
+        // in the rare event that the client is also logged onto some other node, index that
+        if (!Objects.equal(nodeName, _nodeName)) {
+            ClientInfo info = _nodeobj.clients.get(key);
+            if (info != null) {
+                _clientLocs.put(key, Tuple.newTuple(_nodeName, info));
+                return;
+            }
+        }
+        for (PeerNode peer : _peers.values()) {
+            if (peer.nodeobj != null && !peer.getNodeName().equals(nodeName)) {
+                ClientInfo info = peer.nodeobj.clients.get(key);
+                if (info != null) {
+                    _clientLocs.put(key, Tuple.newTuple(peer.getNodeName(), info));
+                    return;
+                }
+            }
+        }
+    }
+
     /**
      * Called when a peer connects to this server.
      */
@@ -1379,7 +2644,12 @@ public abstract class PeerManager
     {
         // this may be the first we've heard of this guy, so let's refresh our peers and
         // potentially connect right back to him
-        refreshPeers();
+        NodeObject.Member member = ((PeerCreds)session.getCredentials()).getMember();
+        if (useGossipMembership() && member != null) {
+            peerAddedMember(member.nodeName, member);
+        } else {
+            refreshPeers();
+        }
         // pass our stats record in so that it can count up messages in/out
         session.setStats(_stats);
     }
@@ -1459,51 +2729,181 @@ public abstract class PeerManager
         if (handler == null) {
             createLockHandler(peer, lock, false);
         } else {
-            log.warning("Received request to release resolving lock",
-               "node", peer.getNodeName(), "handler", handler);
+            log.warning("Received request to release resolving lock",
+               "node", peer.getNodeName(), "handler", handler);
+        }
+    }
+
+    /**
+     * Called when a peer adds a lock.
+     */
+    protected void peerAddedLock (String nodeName, NodeObject.Lock lock)
+    {
+        _lockOwners.put(lock, nodeName);
+
+        // check for hijacking
+        if (_nodeobj.locks.contains(lock)) {
+            log.warning("Client hijacked lock owned by this node", "lock", lock, "node", nodeName);
+            droppedLock(lock);
+        }
+
+        // notify the handler, if any
+        LockHandler handler = _locks.get(lock);
+        if (handler != null) {
+            handler.peerAddedLock(nodeName);
+        }
+    }
+
+    /**
+     * Called when a peer updates a lock.
+     */
+    protected void peerUpdatedLock (String nodeName, NodeObject.Lock lock)
+    {
+        // notify the handler, if any
+        LockHandler handler = _locks.get(lock);
+        if (handler != null) {
+            handler.peerUpdatedLock(nodeName);
+        }
+    }
+
+    /**
+     * Called when a peer removes a lock.
+     */
+    protected void peerRemovedLock (String nodeName, NodeObject.Lock lock)
+    {
+        _lockOwners.remove(lock, nodeName);
+
+        // notify the handler, if any
+        LockHandler handler = _locks.get(lock);
+        if (handler != null) {
+            handler.peerRemovedLock(nodeName);
+        }
+    }
+
+    /**
+     * Resolves a routing key supplied by a {@link NodeAction} or {@link NodeRequest} to the names
+     * of the nodes to which it routes, using the indexes we maintain rather than scanning every
+     * node object. A {@link Name} routes to the node onto which that client is logged and a
+     * {@link NodeObject.Lock} to the node that holds the lock; a collection of keys routes to the
+     * union of its members. Derived classes can override this method to understand other kinds
+     * of keys (place ids, for example) and should call super for those they don't.
+     *
+     * @return the target nodes (which may be empty), or null if the key is null or cannot be
+     * resolved, in which case every node must be considered.
+     */
+    protected Set<String> resolveRoutingKey (Object key)
+    {
+        if (key instanceof Name) {
+            String node = locateClientNode((Name)key);
+            return (node == null) ? Collections.<String>emptySet() : Collections.singleton(node);
+
+        } else if (key instanceof NodeObject.Lock) {
+            String node = queryLock((NodeObject.Lock)key);
+            return (node == null) ? Collections.<String>emptySet() : Collections.singleton(node);
+
+        } else if (key instanceof Collection<?>) {
+            Set<String> nodes = Sets.newHashSet();
+            for (Object elem : (Collection<?>)key) {
+                Set<String> enodes = resolveRoutingKey(elem);
+                if (enodes == null) {
+                    return null;
+                }
+                nodes.addAll(enodes);
+            }
+            return nodes;
+
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the peers named in the supplied set of targets, or all of our peers if the targets
+     * are null.
+     */
+    protected Collection<PeerNode> getTargetPeers (Set<String> targets)
+    {
+        if (targets == null) {
+            return _peers.values();
+        }
+        List<PeerNode> peers = Lists.newArrayListWithCapacity(targets.size());
+        for (String node : targets) {
+            PeerNode peer = _peers.get(node);
+            if (peer != null) {
+                peers.add(peer);
+            }
+        }
+        return peers;
+    }
+
+    /**
+     * Returns the key under which the supplied action should be queued for delivery to peers, or
+     * null if it should not be coalesced with other actions.
+     */
+    protected Object getCoalescingKey (NodeAction action)
+    {
+        Object key = action.getCoalescingKey();
+        return (key == null) ? null : Tuple.newTuple(action.getClass(), key);
+    }
+
+    /**
+     * Queues up a flattened action for delivery to the supplied peer and makes sure that our
+     * outbound actions will be flushed shortly.
+     */
+    protected void queueAction (PeerNode peer, Object key, byte[] actionBytes)
+    {
+        if (peer.queueAction(key, actionBytes)) {
+            _stats.nodeActionsCoalesced++;
+        }
+        if (_actionFlushPending) {
+            return;
+        }
+        _actionFlushPending = true;
+
+        Runnable flusher = new Runnable() {
+            public void run () {
+                flushNodeActions();
+            }
+        };
+        long delay = getActionFlushDelay();
+        if (delay <= 0L) {
+            _omgr.postRunnable(flusher);
+        } else {
+            _omgr.newInterval(flusher).schedule(delay);
         }
     }
 
     /**
-     * Called when a peer adds a lock.
+     * Sends all queued node actions to our peers.
      */
-    protected void peerAddedLock (String nodeName, NodeObject.Lock lock)
+    protected void flushNodeActions ()
     {
-        // check for hijacking
-        if (_nodeobj.locks.contains(lock)) {
-            log.warning("Client hijacked lock owned by this node", "lock", lock, "node", nodeName);
-            droppedLock(lock);
-        }
-
-        // notify the handler, if any
-        LockHandler handler = _locks.get(lock);
-        if (handler != null) {
-            handler.peerAddedLock(nodeName);
+        _actionFlushPending = false;
+        for (PeerNode peer : _peers.values()) {
+            flushNodeActions(peer);
         }
     }
 
     /**
-     * Called when a peer updates a lock.
+     * Sends any node actions queued for the supplied peer.
      */
-    protected void peerUpdatedLock (String nodeName, NodeObject.Lock lock)
+    protected void flushNodeActions (PeerNode peer)
     {
-        // notify the handler, if any
-        LockHandler handler = _locks.get(lock);
-        if (handler != null) {
-            handler.peerUpdatedLock(nodeName);
+        int sent = peer.flushActions();
+        if (sent > 0) {
+            _stats.nodeActionsSent += sent;
+            _stats.nodeActionBatches++;
         }
     }
 
     /**
-     * Called when a peer removes a lock.
+     * Returns the number of milliseconds for which node actions are queued up before being sent
+     * to our peers, allowing many actions to be sent in a single message. If zero, actions are
+     * sent once the events currently queued on the dobj thread have been processed.
      */
-    protected void peerRemovedLock (String nodeName, NodeObject.Lock lock)
+    protected long getActionFlushDelay ()
     {
-        // notify the handler, if any
-        LockHandler handler = _locks.get(lock);
-        if (handler != null) {
-            handler.peerRemovedLock(nodeName);
-        }
+        return DEFAULT_ACTION_FLUSH_DELAY;
     }
 
     /**
@@ -1512,10 +2912,13 @@ public abstract class PeerManager
     protected byte[] flattenAction (NodeAction action)
     {
         try {
-            ByteArrayOutputStream bout = new ByteArrayOutputStream();
-            ObjectOutputStream oout = new ObjectOutputStream(bout);
-            oout.writeObject(action);
-            return bout.toByteArray();
+            synchronized (_flattenBuffer) {
+                _flattenBuffer.reset();
+                ObjectOutputStream oout = new ObjectOutputStream(_flattenBuffer);
+                oout.writeObject(action);
+                oout.flush();
+                return _flattenBuffer.toByteArray();
+            }
         } catch (Exception e) {
             throw new IllegalArgumentException(
                 "Failed to serialize node action [action=" + action + "].", e);
@@ -1528,22 +2931,37 @@ public abstract class PeerManager
     protected byte[] flattenRequest (NodeRequest request)
     {
         try {
-            ByteArrayOutputStream bout = new ByteArrayOutputStream();
-            ObjectOutputStream oout = new ObjectOutputStream(bout);
-            oout.writeObject(request);
-            return bout.toByteArray();
+            synchronized (_flattenBuffer) {
+                _flattenBuffer.reset();
+                ObjectOutputStream oout = new ObjectOutputStream(_flattenBuffer);
+                oout.writeObject(request);
+                oout.flush();
+                return _flattenBuffer.toByteArray();
+            }
         } catch (Exception e) {
             throw new IllegalArgumentException(
                 "Failed to serialize node request [request=" + request + "].", e);
         }
     }
 
-    protected void invokeNodeRequest (String nodeName, byte[] requestBytes,
-        InvocationService.ResultListener listener)
+    protected void invokeNodeRequest (final String nodeName, final byte[] requestBytes,
+        final InvocationService.ResultListener listener)
     {
+        // if we're not on the dobjmgr thread, get there
+        if (!_omgr.isDispatchThread()) {
+            _omgr.postRunnable(new Runnable() {
+                public void run () {
+                    invokeNodeRequest(nodeName, requestBytes, listener);
+                }
+            });
+            return;
+        }
+
         PeerNode peer = _peers.get(nodeName);
         if (peer != null) {
             if (peer.nodeobj != null) {
+                // make sure the request is delivered after any actions we've already invoked
+                flushNodeActions(peer);
                 peer.nodeobj.peerService.invokeRequest(requestBytes, listener);
 
             } else {
@@ -1589,6 +3007,99 @@ public abstract class PeerManager
         return nodeName1.compareTo(nodeName2) < 0;
     }
 
+    /**
+     * Authenticates our peers and negotiates the compression of their connections.
+     */
+    protected class PeerAuthenticator extends ServiceAuthenticator<PeerCreds>
+    {
+        public PeerAuthenticator ()
+        {
+            super(PeerCreds.class, PeerAuthName.class);
+        }
+
+        @Override // from ServiceAuthenticator
+        protected boolean areValid (PeerCreds creds)
+        {
+            return isAuthenticPeer(creds);
+        }
+
+        @Override // from Authenticator
+        protected AuthResponseData createResponseData ()
+        {
+            return new PeerAuthResponseData();
+        }
+
+        @Override // from ServiceAuthenticator
+        protected void processAuthentication (AuthingConnection conn, AuthResponse rsp)
+            throws Exception
+        {
+            super.processAuthentication(conn, rsp);
+            PeerCreds creds = (PeerCreds)conn.getAuthRequest().getCredentials();
+            if (useCompression() && creds.wantsCompression()) {
+                PeerAuthResponseData data = (PeerAuthResponseData)rsp.getData();
+                data.compress = true;
+                data.dictionarySize = getCompressionDictionarySize();
+            }
+        }
+
+        @Override // from Authenticator
+        protected void finishAuthentication (
+            final AuthingConnection conn, AuthResponse rsp,
+            ResultListener<AuthingConnection> onComplete)
+        {
+            final PeerAuthResponseData data = (PeerAuthResponseData)rsp.getData();
+            if (!data.compress || !AuthResponseData.SUCCESS.equals(data.code)) {
+                super.finishAuthentication(conn, rsp, onComplete);
+                return;
+            }
+
+            // our peer sends nothing more until it hears back from us, so we can start inflating
+            // now, but we must not deflate until our response has been sent, and must do so
+            // before the connection is handed off to its running counterpart
+            conn.startInflating(data.dictionarySize);
+            super.finishAuthentication(conn, rsp,
+                new ChainedResultListener<AuthingConnection, AuthingConnection>(onComplete) {
+                public void requestCompleted (AuthingConnection result) {
+                    conn.startDeflating(getCompressionLevel(), getCompressionMinSize(),
+                                        data.dictionarySize);
+                    _target.requestCompleted(result);
+                }
+            });
+        }
+    }
+
+    /**
+     * Authenticates clients that arrive presenting a ticket issued by {@link #acceptMigrant}.
+     */
+    protected class MigrationAuthenticator extends ChainedAuthenticator
+    {
+        @Override // from ChainedAuthenticator
+        public boolean shouldHandleConnection (AuthingConnection conn)
+        {
+            return conn.getAuthRequest().getCredentials() instanceof MigrationCreds;
+        }
+
+        @Override // from Authenticator
+        protected void processAuthentication (AuthingConnection conn, AuthResponse rsp)
+            throws Exception
+        {
+            // tickets are good for one use only
+            MigrationCreds creds = (MigrationCreds)conn.getAuthRequest().getCredentials();
+            String ticket = creds.getTicket();
+            Migrant migrant = (ticket == null) ? null : _migrants.remove(ticket);
+            if (migrant == null) {
+                throw new AuthException(AuthCodes.INVALID_TICKET);
+            }
+
+            // the session is set up using the credentials authenticated by the client's previous
+            // server, never those sent along by the client, and with the object it migrated
+            creds.setVerifiedCredentials(migrant.creds);
+            creds.setMigratedObject(migrant.clobj);
+            conn.setAuthName(migrant.username);
+            rsp.getData().code = AuthResponseData.SUCCESS;
+        }
+    }
+
     /**
      * Handles a lock in a state of resolution.
      */
@@ -1781,6 +3292,309 @@ public abstract class PeerManager
         protected long _startStamp = System.currentTimeMillis();
     }
 
+    /**
+     * Delivers a batch of flattened node actions to a peer.
+     */
+    protected static class NodeActionBatch extends NodeAction
+    {
+        public NodeActionBatch (byte[][] actions)
+        {
+            _actions = actions;
+        }
+
+        public NodeActionBatch ()
+        {
+        }
+
+        // from interface NodeApplicant
+        public boolean isApplicable (NodeObject nodeobj)
+        {
+            return true; // our actions have already been deemed applicable
+        }
+
+        @Override
+        protected void execute ()
+        {
+            for (byte[] action : _actions) {
+                _peermgr.invokeAction(null, action);
+            }
+        }
+
+        protected byte[][] _actions;
+
+        @Inject protected transient PeerManager _peermgr;
+    }
+
+    /**
+     * Asks the lock arbiter to grant, renew or release leases on a batch of locks.
+     */
+    protected static class LeaseRequest extends NodeRequest
+    {
+        /** Lease request operations. */
+        public static final int ACQUIRE = 0, RENEW = 1, RELEASE = 2;
+
+        public LeaseRequest (String nodeName, int op, NodeObject.Lock[] locks)
+        {
+            _nodeName = nodeName;
+            _op = op;
+            _locks = locks;
+        }
+
+        public LeaseRequest ()
+        {
+        }
+
+        // from interface NodeApplicant
+        public boolean isApplicable (NodeObject nodeobj)
+        {
+            return true; // we're only ever sent to the arbiter
+        }
+
+        @Override
+        protected void execute (InvocationService.ResultListener listener)
+        {
+            try {
+                listener.requestProcessed(_peermgr.processLeaseRequest(_nodeName, _op, _locks));
+            } catch (InvocationException ie) {
+                listener.requestFailed(ie.getMessage());
+            }
+        }
+
+        protected String _nodeName;
+        protected int _op;
+        protected NodeObject.Lock[] _locks;
+
+        @Inject protected transient PeerManager _peermgr;
+    }
+
+    /**
+     * The arbiter's response to a {@link LeaseRequest}.
+     */
+    public static class LeaseResult extends SimpleStreamableObject
+    {
+        /** The node that holds each requested lock, if known. */
+        public String[] owners;
+
+        /** The fencing token of each granted lease, or zero if the lease was not granted. */
+        public long[] tokens;
+
+        public LeaseResult (int count)
+        {
+            owners = new String[count];
+            tokens = new long[count];
+        }
+
+        public LeaseResult ()
+        {
+        }
+    }
+
+    /**
+     * Hands the client object of a client that is migrating to the target node.
+     */
+    protected static class MigrateClientRequest extends NodeRequest
+    {
+        public MigrateClientRequest (Name username, Credentials creds, ClientObject clobj)
+        {
+            _username = username;
+            _creds = creds;
+            _clobj = clobj;
+        }
+
+        public MigrateClientRequest ()
+        {
+        }
+
+        // from interface NodeApplicant
+        public boolean isApplicable (NodeObject nodeobj)
+        {
+            return true; // we're only ever sent to the target node
+        }
+
+        @Override
+        protected void execute (InvocationService.ResultListener listener)
+        {
+            listener.requestProcessed(_peermgr.acceptMigrant(_username, _creds, _clobj));
+        }
+
+        protected Name _username;
+        protected Credentials _creds;
+        protected ClientObject _clobj;
+
+        @Inject protected transient PeerManager _peermgr;
+    }
+
+    /** A client that is migrating here from a peer. */
+    protected static class Migrant
+    {
+        /** The client's authentication name. */
+        public final Name username;
+
+        /** The credentials with which the client was authenticated by the peer. */
+        public final Credentials creds;
+
+        /** The client object as it was flattened on the peer. */
+        public final ClientObject clobj;
+
+        public Migrant (Name username, Credentials creds, ClientObject clobj)
+        {
+            this.username = username;
+            this.creds = creds;
+            this.clobj = clobj;
+        }
+    }
+
+    /** A lease that we hold on a lock. */
+    protected static class HeldLease
+    {
+        /** The lease's fencing token. */
+        public long token;
+
+        /** The time at which we must consider the lease to have expired. */
+        public long expires;
+    }
+
+    /** A lease that we have granted as lock arbiter. */
+    protected static class LeaseRecord
+    {
+        /** The node holding the lease. */
+        public String owner;
+
+        /** The lease's fencing token. */
+        public long token;
+
+        /** The time at which the lease expires. */
+        public long expires;
+    }
+
+    /**
+     * Collects the responses of the nodes to which a node request was sent and reports them once
+     * enough have arrived.
+     */
+    protected class NodeRequestCollector<T>
+    {
+        public NodeRequestCollector (
+            Set<String> nodes, int quorum, NodeRequestsListener<T> listener)
+        {
+            _nodes = nodes;
+            _quorum = quorum;
+            _listener = listener;
+        }
+
+        /**
+         * Reports whatever results we have after the specified number of milliseconds.
+         */
+        public void scheduleTimeout (long timeout)
+        {
+            _timeout = _omgr.newInterval(new Runnable() {
+                public void run () {
+                    timedOut();
+                }
+            });
+            _timeout.schedule(timeout);
+        }
+
+        /**
+         * Creates a listener for the response of the specified node.
+         */
+        public InvocationService.ResultListener createListener (final String node)
+        {
+            final long started = System.currentTimeMillis();
+            return new InvocationService.ResultListener() {
+                public void requestProcessed (Object result) {
+                    _stats.noteNodeRequestCompleted(
+                        node, System.currentTimeMillis() - started, true);
+                    @SuppressWarnings("unchecked") T castResult = (T)result;
+                    nodeProcessed(node, castResult);
+                }
+                public void requestFailed (String cause) {
+                    _stats.noteNodeRequestCompleted(
+                        node, System.currentTimeMillis() - started, false);
+                    nodeFailed(node, cause);
+                }
+            };
+        }
+
+        protected void nodeProcessed (String node, T result)
+        {
+            if (_reported) {
+                return;
+            }
+            _results.put(node, result);
+            if (_listener instanceof NodeRequestsListener.PartialResultsListener<?>) {
+                ((NodeRequestsListener.PartialResultsListener<T>)_listener).nodeProcessed(
+                    node, result);
+            }
+            checkReport();
+        }
+
+        protected void nodeFailed (String node, String cause)
+        {
+            if (_reported) {
+                return;
+            }
+            _errors.put(node, cause);
+            if (_listener instanceof NodeRequestsListener.PartialResultsListener<?>) {
+                ((NodeRequestsListener.PartialResultsListener<T>)_listener).nodeFailed(
+                    node, cause);
+            }
+            checkReport();
+        }
+
+        protected void timedOut ()
+        {
+            if (_reported) {
+                return;
+            }
+            for (String node : _nodes) {
+                if (!_results.containsKey(node) && !_errors.containsKey(node)) {
+                    _errors.put(node, NodeRequestsListener.TIMED_OUT);
+                    _stats.noteNodeRequestTimedOut(node);
+                }
+            }
+            report();
+        }
+
+        protected void checkReport ()
+        {
+            int nodes = _nodes.size();
+            if (_results.size() + _errors.size() == nodes ||
+                (_quorum > 0 && (_results.size() >= _quorum || nodes - _errors.size() < _quorum))) {
+                report();
+            }
+        }
+
+        protected void report ()
+        {
+            _reported = true;
+            if (_timeout != null) {
+                _timeout.cancel();
+            }
+            _listener.requestsProcessed(new NodeRequestsResultImpl<T>(_results, _errors));
+        }
+
+        protected Set<String> _nodes;
+        protected int _quorum;
+        protected NodeRequestsListener<T> _listener;
+        protected Interval _timeout;
+        protected boolean _reported;
+        protected Map<String, T> _results = Maps.newHashMap();
+        protected Map<String, String> _errors = Maps.newHashMap();
+    }
+
+    /** Tracks the users of a read-only replica of a remote object. */
+    protected static class Replica
+    {
+        /** The local oid of the replica. */
+        public int oid;
+
+        /** The number of callers sharing the replica. */
+        public int refs;
+
+        /** Callers waiting for the replica to be resolved, or null once it has been. */
+        public List<ResultListener<Integer>> penders = Lists.newArrayList();
+    }
+
     protected static class NodeRequestsResultImpl<T>
         implements NodeRequestsListener.NodeRequestsResult<T>
     {
@@ -1841,15 +3655,58 @@ public abstract class PeerManager
     /** Contains a mapping of proxied objects to subscriber instances. */
     protected Map<DObjectAddress, Tuple<Subscriber<?>, DObject>> _proxies = Maps.newHashMap();
 
+    /** Read-only replicas of remote objects, which are also present in {@link #_proxies}. */
+    protected Map<DObjectAddress, Replica> _replicas = Maps.newHashMap();
+
     /** Our stale cache observers. */
     protected Map<String, ObserverList<StaleCacheObserver>> _cacheobs = Maps.newHashMap();
 
+    /** Stale cache data waiting to be broadcast to our peers, by cache. */
+    protected Map<String, Set<Streamable>> _staleCache = Maps.newHashMap();
+
+    /** The delays configured for caches that collect their stale data for longer. */
+    protected Map<String, Long> _staleCacheDelays = Maps.newConcurrentMap();
+
     /** Listeners for dropped locks. */
     protected ObserverList<DroppedLockObserver> _dropobs = ObserverList.newFastUnsafe();
 
+    /** Observers of the clients logged onto every node. */
+    protected ObserverList<ClusterClientObserver> _clusterobs = ObserverList.newFastUnsafe();
+
+    /** An index of all clients logged onto this node and our peers, by client info key, mapped
+     * to the name of the node onto which they are logged and their client info. */
+    protected Map<Comparable<?>, Tuple<String, ClientInfo>> _clientLocs = Maps.newHashMap();
+
+    /** An index of all locks held by our peers, mapped to the names of their holders (of which
+     * there may briefly be more than one while a hijacked lock is resolved), in order of
+     * acquisition. Our own locks are found in our node object. */
+    protected SetMultimap<NodeObject.Lock, String> _lockOwners = LinkedHashMultimap.create();
+
+    /** A buffer that is reused when flattening node actions and requests. */
+    protected ByteArrayOutputStream _flattenBuffer = new ByteArrayOutputStream();
+
+    /** Whether or not we have scheduled our queued node actions to be flushed. */
+    protected boolean _actionFlushPending;
+
+    /** The lock leases held by this node. */
+    protected Map<NodeObject.Lock, HeldLease> _heldLeases = Maps.newHashMap();
+
+    /** The lock leases granted by this node while acting as lock arbiter. */
+    protected Map<NodeObject.Lock, LeaseRecord> _leases = Maps.newHashMap();
+
+    /** The highest fencing token granted by this node or known to have been granted by any
+     * other arbiter (see {@link NodeObject#leaseToken}). */
+    protected long _lastToken;
+
+    /** Whether we have loaded the cluster membership from which the lock arbiter is chosen. */
+    protected boolean _membershipLoaded;
+
     /** Locks in the process of resolution. */
     protected Map<NodeObject.Lock, LockHandler> _locks = Maps.newHashMap();
 
+    /** Clients migrating here from our peers, by ticket. */
+    protected ConcurrentMap<String, Migrant> _migrants = Maps.newConcurrentMap();
+
     /** Used to track runtime statistics. */
     protected Stats _stats = new Stats();
 
@@ -1865,4 +3722,53 @@ public abstract class PeerManager
 
     /** The default lock timeout. */
     protected static final long DEFAULT_LOCK_TIMEOUT = 5000L;
+
+    /** The default delay before queued node actions are sent to our peers. */
+    protected static final long DEFAULT_ACTION_FLUSH_DELAY = 5L;
+
+    /** The default time for which stale cache data is collected before being broadcast. */
+    protected static final long DEFAULT_STALE_CACHE_DELAY = 0L;
+
+    /** The default time for which we wait for a migrating client to arrive. */
+    protected static final long DEFAULT_MIGRATION_TIMEOUT = 30 * 1000L;
+
+    /** Used to generate migration tickets. */
+    protected static final SecureRandom _rando = new SecureRandom();
+
+    /** Whether or not we ask for our connections to peers to be compressed. */
+    protected static final boolean COMPRESS_LINKS =
+        Boolean.getBoolean("com.threerings.presents.peer.compress");
+
+    /** Frames smaller than this are not worth compressing. */
+    protected static final int DEFAULT_COMPRESSION_MIN_SIZE = 64;
+
+    /** The default number of recently sent bytes used to prime the compressor for each frame. */
+    protected static final int DEFAULT_COMPRESSION_DICTIONARY_SIZE = 4096;
+
+    /** Whether or not locks are granted as leases by default. */
+    protected static final boolean LEASE_LOCKS =
+        Boolean.getBoolean("com.threerings.presents.peer.leaseLocks");
+
+    /** The default duration of a lock lease. */
+    protected static final long DEFAULT_LEASE_DURATION = 15000L;
+
+    /** Whether or not peers are discovered via membership gossip by default. */
+    protected static final boolean GOSSIP_MEMBERSHIP =
+        Boolean.getBoolean("com.threerings.presents.peer.gossip");
+
+    /** The frequency with which we update our heartbeat and check on our peers. */
+    protected static final long HEARTBEAT_INTERVAL = 1000L;
+
+    /** The period of silence after which we suspect that a peer has failed. */
+    protected static final long PEER_SUSPECT_TIMEOUT = 5000L;
+
+    /** The period of silence after which we disconnect from a peer, when gossiping. */
+    protected static final long PEER_FAILURE_TIMEOUT = 15000L;
+
+    /** The frequency with which we try to reconnect to disconnected peers when gossiping. */
+    protected static final long PEER_RECONNECT_INTERVAL = 5000L;
+
+    /** The period after which we forget about a disconnected peer if no one else is in contact
+     * with it. */
+    protected static final long PEER_DROP_TIMEOUT = 60000L;
 }
@@ -23,8 +23,11 @@ package com.threerings.presents.peer.server;
 
 import java.net.ConnectException;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Map;
 
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
 import com.threerings.presents.client.Client;
@@ -41,8 +44,10 @@ import com.threerings.presents.dobj.EntryUpdatedEvent;
 import com.threerings.presents.dobj.ObjectAccessException;
 import com.threerings.presents.dobj.SetListener;
 import com.threerings.presents.dobj.Subscriber;
+import com.threerings.presents.net.AuthResponseData;
 import com.threerings.presents.peer.data.ClientInfo;
 import com.threerings.presents.peer.data.NodeObject;
+import com.threerings.presents.peer.net.PeerAuthResponseData;
 import com.threerings.presents.peer.net.PeerBootstrapData;
 import com.threerings.presents.peer.server.persist.NodeRecord;
 import com.threerings.presents.server.PresentsDObjectMgr;
@@ -66,6 +71,7 @@ public class PeerNode
     public void init (NodeRecord record)
     {
         _record = record;
+        _lastHeartbeat = System.currentTimeMillis();
         _client = new Client(null, _omgr) {
             @Override protected void convertFromRemote (DObject target, DEvent event) {
                 super.convertFromRemote(target, event);
@@ -129,6 +135,47 @@ public class PeerNode
         return _record.port;
     }
 
+    /**
+     * Returns the record that describes this peer.
+     */
+    public NodeRecord getRecord ()
+    {
+        return _record;
+    }
+
+    /**
+     * Returns the time at which we last heard a heartbeat from this peer (or first learned of the
+     * peer or connected to it, whichever is most recent).
+     */
+    public long getLastHeartbeat ()
+    {
+        return _lastHeartbeat;
+    }
+
+    /**
+     * Returns the time at which we last attempted to connect to this peer.
+     */
+    public long getLastConnectStamp ()
+    {
+        return _lastConnectStamp;
+    }
+
+    /**
+     * Returns true if we are connected to this peer but have not heard its heartbeat recently.
+     */
+    public boolean isSuspect ()
+    {
+        return _suspect;
+    }
+
+    /**
+     * Notes whether or not we suspect that this peer has failed.
+     */
+    public void setSuspect (boolean suspect)
+    {
+        _suspect = suspect;
+    }
+
     public void refresh (NodeRecord record)
     {
         // if the hostname of this node changed, kill our existing client and connect anew
@@ -161,6 +208,56 @@ public class PeerNode
         _lastConnectStamp = System.currentTimeMillis();
     }
 
+    /**
+     * Queues up a flattened node action for delivery to this peer the next time our outbound
+     * actions are flushed.
+     *
+     * @param key if non-null, any action queued with an equal key that has not yet been sent is
+     * dropped in favor of this action.
+     *
+     * @return true if a previously queued action was superseded.
+     */
+    public boolean queueAction (Object key, byte[] actionBytes)
+    {
+        boolean superseded = false;
+        if (key == null) {
+            key = new Object();
+        } else {
+            superseded = (_actions.remove(key) != null);
+        }
+        _actions.put(key, actionBytes);
+        return superseded;
+    }
+
+    /**
+     * Sends any queued node actions to this peer, packing them into a single invocation if there
+     * are more than one.
+     *
+     * @return the number of actions sent.
+     */
+    public int flushActions ()
+    {
+        int count = _actions.size();
+        if (count == 0) {
+            return 0;
+        }
+        if (nodeobj == null) {
+            log.warning("Dropped NodeActions", "nodeName", getNodeName(), "count", count);
+            _actions.clear();
+            return 0;
+        }
+
+        byte[][] actions = _actions.values().toArray(new byte[count][]);
+        _actions.clear();
+        if (count == 1) {
+            nodeobj.peerService.invokeAction(actions[0]);
+        } else {
+            nodeobj.peerService.invokeAction(
+                _peermgr.flattenAction(new PeerManager.NodeActionBatch(actions)));
+        }
+        return count;
+    }
+
     public void shutdown ()
     {
         if (_client.isActive()) {
@@ -222,7 +319,9 @@ public class PeerNode
             return;
         }
         String nodeName = getNodeName();
+        _peermgr.memberWentDown(this);
         for (ClientInfo clinfo : nodeobj.clients) {
+            _peermgr.peerRemovedClient(nodeName, clinfo);
             _peermgr.clientLoggedOff(nodeName, clinfo);
         }
         for (NodeObject.Lock lock : nodeobj.locks) {
@@ -233,6 +332,7 @@ public class PeerNode
 
         _peermgr.disconnectedFromPeer(this);
         _listener = null;
+        _suspect = false;
         nodeobj = null;
     }
 
@@ -248,16 +348,24 @@ public class PeerNode
         // listen for lock and cache updates
         nodeobj = object;
         nodeobj.addListener(_listener = createListener());
+        _lastHeartbeat = System.currentTimeMillis();
+        _suspect = false;
 
+        _peermgr.memberCameUp(this);
         _peermgr.connectedToPeer(this);
 
         String nodeName = getNodeName();
+        for (NodeObject.Member member : nodeobj.members) {
+            _peermgr.peerAddedMember(nodeName, member);
+        }
         for (ClientInfo clinfo : nodeobj.clients) {
+            _peermgr.peerAddedClient(nodeName, clinfo);
             _peermgr.clientLoggedOn(nodeName, clinfo);
         }
         for (NodeObject.Lock lock : nodeobj.locks) {
             _peermgr.peerAddedLock(nodeName, lock);
         }
+        _peermgr.observedLeaseToken(nodeobj.leaseToken);
     }
 
     // documentation inherited from interface Subscriber
@@ -276,7 +384,19 @@ public class PeerNode
 
     protected Communicator createCommunicator (Client client)
     {
-        return new ServerCommunicator(client, _conmgr, _omgr);
+        return new ServerCommunicator(client, _conmgr, _omgr) {
+            @Override protected synchronized void logonSucceeded (AuthResponseData data) {
+                super.logonSucceeded(data);
+                // this is called on the conmgr thread as the auth response is read, so we can
+                // switch our connection over before it reads or sends another frame
+                if (data instanceof PeerAuthResponseData && ((PeerAuthResponseData)data).compress) {
+                    int dictSize = ((PeerAuthResponseData)data).dictionarySize;
+                    _conn.startInflating(dictSize);
+                    _conn.startDeflating(_peermgr.getCompressionLevel(),
+                                         _peermgr.getCompressionMinSize(), dictSize);
+                }
+            }
+        };
     }
 
     /**
@@ -304,6 +424,16 @@ public class PeerNode
 
             } else if (name.equals(NodeObject.CACHE_DATA)) {
                 _peermgr.changedCacheData(nodeobj.cacheData.cache, nodeobj.cacheData.data);
+
+            } else if (name.equals(NodeObject.CACHE_BATCH)) {
+                NodeObject.CacheBatch batch = (NodeObject.CacheBatch)event.getValue();
+                _peermgr.changedCacheData(batch.cache, Arrays.asList(batch.data));
+
+            } else if (name.equals(NodeObject.HEARTBEAT)) {
+                _lastHeartbeat = System.currentTimeMillis();
+
+            } else if (name.equals(NodeObject.LEASE_TOKEN)) {
+                _peermgr.observedLeaseToken(nodeobj.leaseToken);
             }
         }
 
@@ -311,16 +441,24 @@ public class PeerNode
         public void entryAdded (EntryAddedEvent<DSet.Entry> event) {
             String name = event.getName();
             if (NodeObject.CLIENTS.equals(name)) {
+                _peermgr.peerAddedClient(getNodeName(), (ClientInfo)event.getEntry());
                 _peermgr.clientLoggedOn(getNodeName(), (ClientInfo)event.getEntry());
 
             } else if (NodeObject.LOCKS.equals(name)) {
                 _peermgr.peerAddedLock(getNodeName(), (NodeObject.Lock)event.getEntry());
+
+            } else if (NodeObject.MEMBERS.equals(name)) {
+                _peermgr.peerAddedMember(getNodeName(), (NodeObject.Member)event.getEntry());
             }
         }
 
         // documentation inherited from interface SetListener
         public void entryUpdated (EntryUpdatedEvent<DSet.Entry> event) {
-            if (NodeObject.LOCKS.equals(event.getName())) {
+            String name = event.getName();
+            if (NodeObject.CLIENTS.equals(name)) {
+                _peermgr.peerUpdatedClient(getNodeName(), (ClientInfo)event.getEntry());
+
+            } else if (NodeObject.LOCKS.equals(name)) {
                 _peermgr.peerUpdatedLock(getNodeName(), (NodeObject.Lock)event.getEntry());
             }
         }
@@ -329,10 +467,14 @@ public class PeerNode
         public void entryRemoved (EntryRemovedEvent<DSet.Entry> event) {
             String name = event.getName();
             if (NodeObject.CLIENTS.equals(name)) {
+                _peermgr.peerRemovedClient(getNodeName(), (ClientInfo)event.getOldEntry());
                 _peermgr.clientLoggedOff(getNodeName(), (ClientInfo)event.getOldEntry());
 
             } else if (NodeObject.LOCKS.equals(name)) {
                 _peermgr.peerRemovedLock(getNodeName(), (NodeObject.Lock)event.getOldEntry());
+
+            } else if (NodeObject.MEMBERS.equals(name)) {
+                _peermgr.peerRemovedMember(getNodeName(), (NodeObject.Member)event.getOldEntry());
             }
         }
     } // END: class NodeObjectListener
@@ -341,6 +483,11 @@ public class PeerNode
     protected NodeObjectListener _listener;
     protected Client _client;
     protected long _lastConnectStamp;
+    protected long _lastHeartbeat;
+    protected boolean _suspect;
+
+    /** Flattened node actions waiting to be sent to this peer, mapped by coalescing key. */
+    protected Map<Object, byte[]> _actions = Maps.newLinkedHashMap();
 
     @Inject protected PeerManager _peermgr;
     @Inject protected PresentsDObjectMgr _omgr;
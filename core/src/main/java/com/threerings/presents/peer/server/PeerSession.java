@@ -25,6 +25,7 @@ import com.google.inject.Inject;
 
 import com.samskivert.util.Throttle;
 
+import com.threerings.presents.dobj.DEvent;
 import com.threerings.presents.dobj.DObject;
 import com.threerings.presents.net.BootstrapData;
 import com.threerings.presents.net.DownstreamMessage;
@@ -117,6 +118,13 @@ public class PeerSession extends PresentsSession
         _peermgr.peerEndedSession(this);
     }
 
+    @Override // from PresentsSession
+    protected DEvent getOutboundEvent (DEvent event)
+    {
+        // peers are servers too and see events exactly as our local listeners do
+        return event;
+    }
+
     @Override // from PresentsSession
     protected final boolean postMessage (DownstreamMessage msg, PresentsConnection expect)
     {
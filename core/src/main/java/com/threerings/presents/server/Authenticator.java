@@ -61,7 +61,7 @@ public abstract class Authenticator
         final AuthResponseData rdata = createResponseData();
         final AuthResponse rsp = new AuthResponse(rdata);
 
-        invoker.postUnit(new Invoker.Unit("authenticateConnection") {
+        invoker.postUnit(new PresentsAuthInvoker.ConnectionUnit("authenticateConnection", conn) {
             @Override
             public boolean invoke () {
                 try {
@@ -80,23 +80,38 @@ public abstract class Authenticator
             }
 
             @Override
-            public void handleResult () {
-                // stuff a reference to the auth response into the connection so that we have
-                // access to it later in the authentication process
-                conn.setAuthResponse(rsp);
-
-                // send the response back to the client
-                conn.postMessage(rsp);
+            public void reject () {
+                rdata.code = AuthCodes.SERVER_UNAVAILABLE;
+            }
 
-                // if the authentication request was granted, let the connection manager know that
-                // we just authed
-                if (AuthResponseData.SUCCESS.equals(rdata.code)) {
-                    onComplete.requestCompleted(conn);
-                }
+            @Override
+            public void handleResult () {
+                finishAuthentication(conn, rsp, onComplete);
             }
         });
     }
 
+    /**
+     * Delivers the auth response to the client and lets the connection manager know if the
+     * authentication was successful. This must be called on the dobjmgr thread.
+     */
+    protected void finishAuthentication (AuthingConnection conn, AuthResponse rsp,
+                                         ResultListener<AuthingConnection> onComplete)
+    {
+        // stuff a reference to the auth response into the connection so that we have access to it
+        // later in the authentication process
+        conn.setAuthResponse(rsp);
+
+        // send the response back to the client
+        conn.postMessage(rsp);
+
+        // if the authentication request was granted, let the connection manager know that we just
+        // authed
+        if (AuthResponseData.SUCCESS.equals(rsp.getData().code)) {
+            onComplete.requestCompleted(conn);
+        }
+    }
+
     /**
      * Create a new AuthResponseData instance to use for authenticating a connection.
      */
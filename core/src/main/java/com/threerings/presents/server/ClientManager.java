@@ -25,9 +25,11 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -45,6 +47,7 @@ import com.threerings.presents.annotation.EventThread;
 import com.threerings.presents.data.ClientObject;
 import com.threerings.presents.net.AuthRequest;
 import com.threerings.presents.net.AuthResponse;
+import com.threerings.presents.net.ResumeTicketCreds;
 import com.threerings.presents.server.net.AuthingConnection;
 import com.threerings.presents.server.net.PresentsConnection;
 
@@ -59,7 +62,9 @@ import static com.threerings.presents.Log.log;
  *
  * <p> The client manager operates with thread safety because it is called both from the conmgr
  * thread (to notify of connections showing up or going away) and from the dobjmgr thread (when
- * clients are given the boot for application-defined reasons).
+ * clients are given the boot for application-defined reasons). Its tables are concurrent maps, so
+ * lookups and reports do not block; modifications that must be made atomically are serialized by
+ * synchronizing on the client manager.
  */
 @Singleton
 public class ClientManager
@@ -163,9 +168,7 @@ public class ClientManager
      */
     public int getClientCount ()
     {
-        synchronized (_usermap) {
-            return _usermap.size();
-        }
+        return _usermap.size();
     }
 
     /**
@@ -175,15 +178,22 @@ public class ClientManager
     public List<PresentsSession> getSessionsForAddress (byte[] addr)
     {
         List<PresentsSession> sessions = Lists.newArrayListWithExpectedSize(1);
-        synchronized (_usermap) {
-            for (PresentsSession session : _usermap.values()) {
-                InetAddress sessionAddr = session.getInetAddress();
-                if (sessionAddr == null) {
-                    continue;
-                }
-                if (Arrays.equals(addr, sessionAddr.getAddress())) {
-                    sessions.add(session);
-                }
+        Map<Connection, PresentsSession> conns;
+        try {
+            conns = _addrmap.get(InetAddress.getByAddress(addr));
+        } catch (UnknownHostException uhe) {
+            return sessions; // not a valid address, so no one is logged on from it
+        }
+        if (conns == null) {
+            return sessions;
+        }
+        for (PresentsSession session : conns.values()) {
+            // a session may briefly be mapped to both its old and new connection, and we only
+            // want to report it if its current connection is from the address in question
+            InetAddress sessionAddr = session.getInetAddress();
+            if (sessionAddr != null && Arrays.equals(addr, sessionAddr.getAddress()) &&
+                !sessions.contains(session)) {
+                sessions.add(session);
             }
         }
         return sessions;
@@ -241,9 +251,7 @@ public class ClientManager
      */
     public PresentsSession getClient (Name authUsername)
     {
-        synchronized (_usermap) {
-            return _usermap.get(authUsername);
-        }
+        return _usermap.get(authUsername);
     }
 
     /**
@@ -285,8 +293,22 @@ public class ClientManager
      * <b>must</b> be paired with a call to {@link #releaseClientObject} when the caller is
      * finished with the client object.
      */
+    public void resolveClientObject (Name username, ClientResolutionListener listener)
+    {
+        resolveClientObject(username, listener, null);
+    }
+
+    /**
+     * Requests that the client object for the specified user be resolved, using the supplied
+     * client object migrated from another server (see {@link
+     * ClientResolver#restoreMigratedObject}) in place of a freshly created and loaded one if the
+     * user's client object is not already resolved or being resolved. <em>Note:</em> this
+     * <b>must</b> be paired with a call to {@link #releaseClientObject} when the caller is
+     * finished with the client object.
+     */
     public synchronized void resolveClientObject (
-        final Name username, final ClientResolutionListener listener)
+        final Name username, final ClientResolutionListener listener,
+        final ClientObject migrated)
     {
         // look to see if the client object is already resolved
         final ClientObject clobj = _objmap.get(username);
@@ -332,7 +354,8 @@ public class ClientManager
             final ClientResolver fclr = clr;
             _omgr.postRunnable(new Runnable() {
                 public void run () {
-                    ClientObject clobj = fclr.createClientObject();
+                    ClientObject clobj = (migrated == null) ? fclr.createClientObject() :
+                        fclr.restoreMigratedObject(migrated);
                     clobj.setLocal(ClientLocal.class, fclr.createLocalAttribute());
                     fclr.objectAvailable(_omgr.registerObject(clobj));
                 }
@@ -388,14 +411,12 @@ public class ClientManager
         log.info("Client manager shutting down", "ccount", _usermap.size());
 
         // inform all of our clients that they are being shut down
-        synchronized (_usermap) {
-            for (PresentsSession pc : _usermap.values()) {
-                try {
-                    pc.shutdown();
-                } catch (Exception e) {
-                    log.warning("Client choked in shutdown()",
-                                "client", StringUtil.safeToString(pc), e);
-                }
+        for (PresentsSession pc : _usermap.values()) {
+            try {
+                pc.shutdown();
+            } catch (Exception e) {
+                log.warning("Client choked in shutdown()",
+                            "client", StringUtil.safeToString(pc), e);
             }
         }
     }
@@ -455,6 +476,12 @@ public class ClientManager
             //log.info("Resuming session", "type", type, "who", authname, "conn", conn);
             session.resumeSession(req, conn);
 
+        } else if (req.getCredentials() instanceof ResumeTicketCreds) {
+            // the session for which their ticket was issued ended before they made it this far
+            log.info("Session ended before ticket resumption", "who", authname, "conn", conn);
+            conn.close();
+            return;
+
         } else {
             log.info("Session initiated", "type", type, "who", authname, "conn", conn);
             // figure out our session class
@@ -468,16 +495,13 @@ public class ClientManager
             session = _injector.getInstance(sessionClass);
             session.startSession(authname, req, conn, rsp.authdata);
 
-            // map their session instance
-            synchronized (_usermap) {
-                // we refetch the authname from the session for use in the map in case it decides
-                // to do something crazy like rewrite it in startSession()
-                _usermap.put(session.getAuthName(), session);
-            }
+            // map their session instance; we refetch the authname from the session for use in
+            // the map in case it decides to do something crazy like rewrite it in startSession()
+            _usermap.put(session.getAuthName(), session);
         }
 
         // map this connection to this session
-        _conmap.put(conn, session);
+        mapConnection(conn, session);
     }
 
     /**
@@ -486,7 +510,7 @@ public class ClientManager
     public synchronized void connectionFailed (Connection conn, IOException fault)
     {
         // remove the session from the connection map
-        PresentsSession session = _conmap.remove(conn);
+        PresentsSession session = unmapConnection(conn);
         if (session != null) {
             log.info("Unmapped failed session", "session", session, "conn", conn, "fault", fault);
             // let the session know the connection went away
@@ -505,7 +529,7 @@ public class ClientManager
     public synchronized void connectionClosed (Connection conn)
     {
         // remove the session from the connection map
-        PresentsSession session = _conmap.remove(conn);
+        PresentsSession session = unmapConnection(conn);
         if (session != null) {
             log.debug("Unmapped session", "session", session, "conn", conn);
             // let the session know the connection went away
@@ -522,9 +546,7 @@ public class ClientManager
     {
         report.append("* presents.ClientManager:\n");
         report.append("- Sessions: ");
-        synchronized (_usermap) {
-            report.append(_usermap.size()).append(" total, ");
-        }
+        report.append(_usermap.size()).append(" total, ");
         report.append(_conmap.size()).append(" connected, ");
         report.append(_penders.size()).append(" pending\n");
         report.append("- Mapped users: ").append(_objmap.size()).append("\n");
@@ -581,10 +603,7 @@ public class ClientManager
     protected void clearSession (PresentsSession session)
     {
         // remove the session from the username map
-        PresentsSession rc;
-        synchronized (_usermap) {
-            rc = _usermap.remove(session.getAuthName());
-        }
+        PresentsSession rc = _usermap.remove(session.getAuthName());
 
         // sanity check just because we can
         if (rc == null) {
@@ -596,6 +615,46 @@ public class ClientManager
         }
     }
 
+    /**
+     * Maps the supplied connection to its session in our connection table and address index.
+     * Must be called while synchronized on the client manager.
+     */
+    protected void mapConnection (Connection conn, PresentsSession session)
+    {
+        _conmap.put(conn, session);
+
+        InetAddress addr = conn.getInetAddress();
+        if (addr != null) {
+            Map<Connection, PresentsSession> conns = _addrmap.get(addr);
+            if (conns == null) {
+                _addrmap.put(addr, conns = Maps.<Connection, PresentsSession>newConcurrentMap());
+            }
+            conns.put(conn, session);
+            _conaddrs.put(conn, addr);
+        }
+    }
+
+    /**
+     * Removes the supplied connection from our connection table and address index, returning the
+     * session to which it was mapped, if any. Must be called while synchronized on the client
+     * manager.
+     */
+    protected PresentsSession unmapConnection (Connection conn)
+    {
+        // the connection will have forgotten its address if it has been closed, so we look it up
+        InetAddress addr = _conaddrs.remove(conn);
+        if (addr != null) {
+            Map<Connection, PresentsSession> conns = _addrmap.get(addr);
+            if (conns != null) {
+                conns.remove(conn);
+                if (conns.isEmpty()) {
+                    _addrmap.remove(addr);
+                }
+            }
+        }
+        return _conmap.remove(conn);
+    }
+
     /**
      * Called once per minute to check for sessions that have been disconnected too long and
      * forcibly end their sessions.
@@ -606,11 +665,9 @@ public class ClientManager
         long now = System.currentTimeMillis();
 
         // first build a list of our victims
-        synchronized (_usermap) {
-            for (PresentsSession session : _usermap.values()) {
-                if (session.checkExpired(now)) {
-                    victims.add(session);
-                }
+        for (PresentsSession session : _usermap.values()) {
+            if (session.checkExpired(now)) {
+                victims.add(session);
             }
         }
 
@@ -630,16 +687,24 @@ public class ClientManager
     protected Injector _injector;
 
     /** A mapping from auth username to session instances. */
-    protected Map<Name, PresentsSession> _usermap = Maps.newHashMap();
+    protected ConcurrentMap<Name, PresentsSession> _usermap = Maps.newConcurrentMap();
 
     /** A mapping from connections to session instances. */
-    protected Map<Connection, PresentsSession> _conmap = Maps.newHashMap();
+    protected ConcurrentMap<Connection, PresentsSession> _conmap = Maps.newConcurrentMap();
+
+    /** An index of {@link #_conmap} by the address from which the connections were made. */
+    protected ConcurrentMap<InetAddress, Map<Connection, PresentsSession>> _addrmap =
+        Maps.newConcurrentMap();
+
+    /** The address under which each connection is indexed in {@link #_addrmap}. */
+    protected ConcurrentMap<Connection, InetAddress> _conaddrs = Maps.newConcurrentMap();
 
     /** A mapping from usernames to client object instances. */
-    protected Map<Name, ClientObject> _objmap = Maps.newHashMap();
+    protected ConcurrentMap<Name, ClientObject> _objmap = Maps.newConcurrentMap();
 
     /** A mapping of pending client resolvers. */
-    protected Map<Name, ClientResolver> _penders = Maps.newHashMap();
+    protected ConcurrentMap<Name, ClientResolver> _penders = Maps.newConcurrentMap();
+
 
     /** Lets us know what sort of session classes to use. */
     protected List<SessionFactory> _factories = Lists.newArrayList(SessionFactory.DEFAULT);
@@ -0,0 +1,328 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.samskivert.util.Invoker;
+
+import com.threerings.presents.annotation.MainInvoker;
+
+import static com.threerings.presents.Log.log;
+
+/**
+ * Optionally runs {@link ClientResolver}s on a dedicated pool of threads so that a rush of logons
+ * neither waits behind nor holds up the main invoker. Resolvers that queue up while the pool is
+ * busy are processed in batches: all pending resolvers of the same class are handed to {@link
+ * ClientResolver#resolveClientDataBatch} together, which allows derived resolvers to load many
+ * users' data with a handful of queries. Resolution is completed on the dobj thread, as usual.
+ *
+ * <p> The pool is disabled by default, in which case resolvers run one at a time on the main
+ * invoker just as they always have. It is enabled by configuring a non-zero number of threads via
+ * {@link #configure} or the <code>com.threerings.presents.resolverWorkers</code> system property
+ * (the maximum batch size can likewise be set via <code>resolverBatchSize</code>).
+ *
+ * <p><em>Note:</em> once enabled, resolvers no longer run in order with the other units on the
+ * main invoker. A server that posts units to the main invoker that must complete before a user's
+ * data is next resolved (saving a user's data when they log off, for example) must ensure that
+ * ordering itself, say by having its resolvers wait for any such outstanding save, before enabling
+ * the pool.
+ */
+@Singleton
+public class ClientResolutionInvoker extends ReportingInvoker
+{
+    /** Runtime statistics on client resolution. */
+    public static class ResolutionStats
+    {
+        /** The number of batches and resolvers processed. */
+        public int batches, resolvers;
+
+        /** The largest batch processed. */
+        public int maxBatch;
+
+        /** The total and maximum time spent resolving a batch, in milliseconds. */
+        public long totalLatency, maxLatency;
+    }
+
+    @Inject public ClientResolutionInvoker (PresentsDObjectMgr omgr, ReportManager repmgr)
+    {
+        super("presents.ClientResolutionInvoker", omgr, repmgr);
+        setDaemon(true);
+        repmgr.registerReporter(_resrep);
+    }
+
+    /**
+     * Configures the number of threads on which resolvers are run and the maximum number of
+     * resolvers processed in a single batch. This must be called before the invoker is started.
+     *
+     * @param workers the total number of threads (including this one) that run resolvers, or zero
+     * to run resolvers on the main invoker. See the class documentation regarding ordering.
+     * @param maxBatch the maximum number of resolvers to process in a batch.
+     */
+    public void configure (int workers, int maxBatch)
+    {
+        if (isAlive()) {
+            throw new IllegalStateException(
+                "Resolution invoker must be configured before it is started");
+        }
+        _workerCount = Math.max(0, workers);
+        _maxBatch = Math.max(1, maxBatch);
+    }
+
+    /**
+     * Returns true if resolvers are to be run on our own pool of threads, false if they are run on
+     * the main invoker, in which case this invoker need not be started.
+     */
+    public boolean isEnabled ()
+    {
+        return _workerCount > 0;
+    }
+
+    /**
+     * Returns the worker invokers (not including this one) that run resolvers. These are only
+     * created once the invoker has been started.
+     */
+    public List<Invoker> getWorkers ()
+    {
+        return _workers;
+    }
+
+    /**
+     * Returns a recent snapshot of resolution statistics.
+     *
+     * @param snapshot if true, the current stats will be snapshotted and reset and the new
+     * snapshot will be returned. If false, the previous snapshot will be returned.
+     */
+    public synchronized ResolutionStats getResolutionStats (boolean snapshot)
+    {
+        if (snapshot) {
+            _recentRes = _currentRes;
+            _currentRes = new ResolutionStats();
+        }
+        return _recentRes;
+    }
+
+    /**
+     * Queues up the supplied resolver to have its client data resolved. If this invoker is not
+     * enabled or has not been started, the resolver is run on the main invoker instead.
+     */
+    public void postResolver (ClientResolver resolver)
+    {
+        if (!isAlive()) {
+            _invoker.postUnit(resolver);
+            return;
+        }
+
+        synchronized (_pending) {
+            _pending.add(resolver);
+            // if every thread is already working on a batch, one of them will pick this up
+            if (_activeBatches >= _workerCount) {
+                return;
+            }
+            _activeBatches++;
+        }
+        postBatch();
+    }
+
+    @Override // from Thread
+    public synchronized void start ()
+    {
+        if (!isEnabled()) {
+            return; // resolution runs on the main invoker, as it does by default
+        }
+        for (int ii = 1; ii < _workerCount; ii++) {
+            Invoker worker = new Invoker(getName() + "." + ii, _receiver);
+            worker.setDaemon(true);
+            worker.start();
+            _workers.add(worker);
+        }
+        super.start();
+    }
+
+    @Override // from Invoker
+    public void shutdown ()
+    {
+        super.shutdown();
+        for (Invoker worker : _workers) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * Posts a unit that will resolve the next batch of pending resolvers on the next thread in
+     * our pool.
+     */
+    protected void postBatch ()
+    {
+        int idx;
+        synchronized (this) {
+            idx = _nextWorker;
+            _nextWorker = (_nextWorker + 1) % (_workers.size() + 1);
+        }
+        Unit unit = new ResolveBatch();
+        if (idx == 0) {
+            postUnit(unit);
+        } else {
+            _workers.get(idx-1).postUnit(unit);
+        }
+    }
+
+    /**
+     * Resolves a batch of pending resolvers and then hands them back to the dobj thread.
+     */
+    protected class ResolveBatch extends Invoker.Unit
+    {
+        public ResolveBatch ()
+        {
+            super("ResolveBatch");
+        }
+
+        @Override
+        public boolean invoke ()
+        {
+            boolean more;
+            synchronized (_pending) {
+                int count = Math.min(_pending.size(), _maxBatch);
+                List<ClientResolver> batch = _pending.subList(0, count);
+                _batch = Lists.newArrayList(batch);
+                batch.clear();
+                // if there's more to do, we'll post another unit once we're done with this lot
+                more = !_pending.isEmpty();
+                if (!more) {
+                    _activeBatches--;
+                }
+            }
+
+            long start = System.currentTimeMillis();
+            try {
+                // group the resolvers by class so that each group can be resolved en masse
+                for (List<ClientResolver> group : groupByClass(_batch)) {
+                    group.get(0).resolveBatch(group);
+                }
+            } finally {
+                if (more) {
+                    postBatch();
+                }
+            }
+            noteBatchResolved(_batch.size(), System.currentTimeMillis() - start);
+            return true;
+        }
+
+        @Override
+        public void handleResult ()
+        {
+            for (ClientResolver resolver : _batch) {
+                try {
+                    resolver.handleResult();
+                } catch (Exception e) {
+                    log.warning("Client resolver choked in handleResult()", "clr", resolver, e);
+                }
+            }
+        }
+
+        @Override
+        public String toString ()
+        {
+            return "ResolveBatch:" + _batch;
+        }
+
+        protected List<ClientResolver> _batch;
+    }
+
+    /**
+     * Splits the supplied resolvers into lists of resolvers of the same class, preserving their
+     * order.
+     */
+    protected static List<List<ClientResolver>> groupByClass (List<ClientResolver> resolvers)
+    {
+        Map<Class<?>, List<ClientResolver>> groups = Maps.newLinkedHashMap();
+        for (ClientResolver resolver : resolvers) {
+            List<ClientResolver> group = groups.get(resolver.getClass());
+            if (group == null) {
+                groups.put(resolver.getClass(), group = Lists.newArrayList());
+            }
+            group.add(resolver);
+        }
+        return Lists.newArrayList(groups.values());
+    }
+
+    /**
+     * Records metrics for a batch that was just resolved.
+     */
+    protected synchronized void noteBatchResolved (int size, long latency)
+    {
+        _currentRes.batches++;
+        _currentRes.resolvers += size;
+        _currentRes.maxBatch = Math.max(_currentRes.maxBatch, size);
+        _currentRes.totalLatency += latency;
+        _currentRes.maxLatency = Math.max(_currentRes.maxLatency, latency);
+    }
+
+    /** Generates a report on our resolution processing. */
+    protected ReportManager.Reporter _resrep = new ReportManager.Reporter() {
+        public void appendReport (StringBuilder buf, long now, long sinceLast, boolean reset) {
+            ResolutionStats stats = getResolutionStats(reset);
+            buf.append("* presents.ClientResolutionInvoker:\n");
+            buf.append("- Workers: ").append(_workers.size() + 1);
+            synchronized (_pending) {
+                buf.append(", pending: ").append(_pending.size()).append("\n");
+            }
+            buf.append("- Resolved: ").append(stats.resolvers);
+            buf.append(" in ").append(stats.batches).append(" batches, ");
+            buf.append(stats.maxBatch).append(" max batch\n");
+            int batches = Math.max(stats.batches, 1);
+            buf.append("- Batch latency: ").append(stats.totalLatency/batches).append("ms avg, ");
+            buf.append(stats.maxLatency).append("ms max\n");
+        }
+    };
+
+    /** The total number of threads on which we run resolvers, zero to use the main invoker. */
+    protected int _workerCount = Integer.getInteger("com.threerings.presents.resolverWorkers", 0);
+
+    /** The maximum number of resolvers processed in a single batch. */
+    protected int _maxBatch = Integer.getInteger("com.threerings.presents.resolverBatchSize", 50);
+
+    /** Our additional worker threads. */
+    protected List<Invoker> _workers = Lists.newArrayList();
+
+    /** The index of the thread that will process the next batch (zero being this invoker). */
+    protected int _nextWorker;
+
+    /** Resolvers waiting to be processed. */
+    protected List<ClientResolver> _pending = Lists.newArrayList();
+
+    /** The number of batch units posted or running, protected by {@link #_pending}. */
+    protected int _activeBatches;
+
+    /** Used to track resolution statistics. */
+    protected ResolutionStats _recentRes = new ResolutionStats(), _currentRes = _recentRes;
+
+    /** Runs resolvers if we have not been started. */
+    @Inject @MainInvoker protected Invoker _invoker;
+}
@@ -32,6 +32,7 @@ import com.threerings.util.Name;
 
 import com.threerings.presents.annotation.MainInvoker;
 import com.threerings.presents.data.ClientObject;
+import com.threerings.presents.dobj.DSet;
 import com.threerings.presents.dobj.RootDObjectManager;
 
 import static com.threerings.presents.Log.log;
@@ -40,7 +41,10 @@ import static com.threerings.presents.Log.log;
  * Used to resolve client data when a user starts a session (or when some other entity needs access
  * to a client object). Implementations will want to extend this class and override {@link
  * #resolveClientData}, making the necessary database calls and populating the client object
- * appropriately.
+ * appropriately. Resolvers are run on the main invoker unless the {@link ClientResolutionInvoker}
+ * is enabled, in which case it will run them, calling {@link #resolveClientDataBatch} to give
+ * resolvers the opportunity to load data for many clients at once when a number of them are
+ * resolving simultaneously.
  */
 public class ClientResolver extends Invoker.Unit
 {
@@ -78,6 +82,21 @@ public class ClientResolver extends Invoker.Unit
         return new ClientObject();
     }
 
+    /**
+     * Called in place of {@link #createClientObject} when the client being resolved has migrated
+     * here from another server, with its client object as it was flattened on that server. The
+     * object is used as is: {@link #resolveClientData} is not called for it, though {@link
+     * #finishResolution} is. Derived classes should clear out anything that only makes sense on
+     * the server from which the client came.
+     */
+    public ClientObject restoreMigratedObject (ClientObject clobj)
+    {
+        _migrated = true;
+        // the client will register its receivers anew once it arrives
+        clobj.receivers = DSet.newDSet();
+        return clobj;
+    }
+
     /**
      * Creates a record that will be maintained only on the server to track client related bits.
      */
@@ -91,10 +110,16 @@ public class ClientResolver extends Invoker.Unit
      */
     public void objectAvailable (ClientObject object)
     {
-        // we've got our object, so shunt ourselves over to the invoker thread to perform database
-        // loading
+        // we've got our object, so shunt ourselves over to the invoker to perform database loading
         _clobj = object;
-        _invoker.postUnit(this);
+        if (_migrated) {
+            // there's nothing to load for a migrated client, so we can finish up right away
+            handleResult();
+        } else if (_resolutionInvoker.isEnabled()) {
+            _resolutionInvoker.postResolver(this);
+        } else {
+            _invoker.postUnit(this);
+        }
     }
 
     @Override
@@ -155,6 +180,23 @@ public class ClientResolver extends Invoker.Unit
         clobj.username = _username;
     }
 
+    /**
+     * Called on the resolution invoker with the client objects of a batch of resolvers of this
+     * class that are being resolved at the same time (this resolver's object among them, and with
+     * each object's username already filled in). A derived class may override this method to load
+     * the data for the whole batch using a few bulk queries, populate the objects and return true,
+     * in which case {@link #resolveClientData} will not be called for any of them. Any data that
+     * {@link #finishResolution} needs should be stored on the client object (or its local
+     * attribute) rather than in the resolver, as only this resolver's method is called. Returning
+     * false results in {@link #resolveClientData} being called on each resolver in turn. If an
+     * exception is thrown, resolution of the entire batch fails.
+     */
+    protected boolean resolveClientDataBatch (List<ClientObject> clobjs)
+        throws Exception
+    {
+        return false;
+    }
+
     /**
      * This method is called on the dobj thread after resolveClientData returns normally, it should
      * finish populating the client object with any data that is NOT loaded from a database.
@@ -164,6 +206,35 @@ public class ClientResolver extends Invoker.Unit
         // nothing to do by default
     }
 
+    /**
+     * Resolves the client data for the supplied batch of resolvers, all of which are of the same
+     * class as this one. Called on the resolution invoker.
+     */
+    protected void resolveBatch (List<ClientResolver> batch)
+    {
+        List<ClientObject> clobjs = Lists.newArrayListWithCapacity(batch.size());
+        for (ClientResolver clr : batch) {
+            clr._clobj.username = clr._username;
+            clobjs.add(clr._clobj);
+        }
+
+        try {
+            if (resolveClientDataBatch(clobjs)) {
+                return;
+            }
+        } catch (Exception cause) {
+            for (ClientResolver clr : batch) {
+                clr._failure = cause;
+            }
+            return;
+        }
+
+        // resolve them one by one
+        for (ClientResolver clr : batch) {
+            clr.invoke();
+        }
+    }
+
     /**
      * Reports success to our resolution listeners.
      */
@@ -211,6 +282,9 @@ public class ClientResolver extends Invoker.Unit
     /** The name of the user whose client object is being resolved. */
     protected Name _username;
 
+    /** Whether we are restoring the client object of a client that migrated here. */
+    protected boolean _migrated;
+
     /** The entities to notify of success or failure. */
     protected List<ClientResolutionListener> _listeners = Lists.newArrayList();
 
@@ -222,6 +296,7 @@ public class ClientResolver extends Invoker.Unit
 
     // dependencies
     protected @Inject @MainInvoker Invoker _invoker;
+    protected @Inject ClientResolutionInvoker _resolutionInvoker;
     protected @Inject RootDObjectManager _omgr;
     protected @Inject ClientManager _clmgr;
 }
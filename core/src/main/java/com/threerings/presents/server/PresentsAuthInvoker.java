@@ -21,20 +21,280 @@
 
 package com.threerings.presents.server;
 
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
+import com.samskivert.util.Invoker;
+
+import com.threerings.nio.conman.Connection;
+
 /**
  * A separate invoker thread on which we perform client authentication. This allows the normal
  * server operation to proceed even in the event that our authentication services have gone down
  * and attempts to authenticate cause long timeouts and blockage.
+ *
+ * <p> The invoker can be configured (via {@link #configure} or the
+ * <code>com.threerings.presents.authWorkers</code> and
+ * <code>com.threerings.presents.authMaxPending</code> system properties) to process {@link
+ * ConnectionUnit}s on a pool of worker threads. All units for a given connection are processed by
+ * the same worker, in the order in which they were posted. If a maximum number of pending units is
+ * configured, units posted when that many are already waiting are rejected immediately rather
+ * than leaving the client to wait behind a backlog that it will likely not outlast.
  */
 @Singleton
 public class PresentsAuthInvoker extends ReportingInvoker
 {
+    /**
+     * A unit that operates on behalf of a particular connection.
+     */
+    public static abstract class ConnectionUnit extends Invoker.Unit
+    {
+        public ConnectionUnit (String name, Connection conn)
+        {
+            super(name);
+            _conn = conn;
+        }
+
+        /**
+         * Returns the connection on whose behalf this unit operates.
+         */
+        public Connection getConnection ()
+        {
+            return _conn;
+        }
+
+        /**
+         * Called on the posting thread, instead of {@link #invoke}, if the auth invoker is
+         * overloaded and refuses to queue this unit. {@link #handleResult} will subsequently be
+         * called on the result receiving thread, as normal.
+         */
+        public abstract void reject ();
+
+        protected Connection _conn;
+    }
+
+    /** Runtime statistics on connection unit processing. */
+    public static class AuthStats
+    {
+        /** The number of connection units run. */
+        public int authsRun;
+
+        /** The number of connection units rejected due to overload. */
+        public int authsRejected;
+
+        /** The total and maximum time units spent waiting in the queue, in milliseconds. */
+        public long totalWait, maxWait;
+
+        /** The total and maximum time units spent executing, in milliseconds. */
+        public long totalLatency, maxLatency;
+    }
+
     @Inject public PresentsAuthInvoker (PresentsDObjectMgr omgr, ReportManager repmgr)
     {
         super("presents.AuthInvoker", omgr, repmgr);
         setDaemon(true);
+        repmgr.registerReporter(_authrep);
+    }
+
+    /**
+     * Configures the number of threads on which connection units are processed and the maximum
+     * number of connection units that may be pending before new units are rejected. This must be
+     * called before the invoker is started.
+     *
+     * @param workers the total number of threads (including this one) that process units.
+     * @param maxPending the maximum number of pending connection units or zero for no limit.
+     */
+    public void configure (int workers, int maxPending)
+    {
+        if (isAlive()) {
+            throw new IllegalStateException("Auth invoker must be configured before it is started");
+        }
+        _workerCount = Math.max(1, workers);
+        _maxPending = Math.max(0, maxPending);
+    }
+
+    /**
+     * Returns the worker invokers (not including this one) that process connection units. These
+     * are only created once the invoker has been started.
+     */
+    public List<Invoker> getWorkers ()
+    {
+        return _workers;
+    }
+
+    /**
+     * Returns the number of connection units that are waiting to be processed.
+     */
+    public int getPendingAuths ()
+    {
+        return _pendingAuths.get();
+    }
+
+    /**
+     * Returns a recent snapshot of auth statistics.
+     *
+     * @param snapshot if true, the current stats will be snapshotted and reset and the new
+     * snapshot will be returned. If false, the previous snapshot will be returned.
+     */
+    public synchronized AuthStats getAuthStats (boolean snapshot)
+    {
+        if (snapshot) {
+            _recentAuth = _currentAuth;
+            _currentAuth = new AuthStats();
+        }
+        return _recentAuth;
+    }
+
+    @Override // from Thread
+    public synchronized void start ()
+    {
+        for (int ii = 1; ii < _workerCount; ii++) {
+            Invoker worker = new AuthWorker(getName() + "." + ii, _receiver);
+            worker.setDaemon(true);
+            worker.start();
+            _workers.add(worker);
+        }
+        super.start();
+    }
+
+    @Override // from Invoker
+    public void postUnit (Unit unit)
+    {
+        if (!(unit instanceof ConnectionUnit)) {
+            super.postUnit(unit);
+            return;
+        }
+
+        ConnectionUnit cunit = (ConnectionUnit)unit;
+        if (_maxPending > 0 && _pendingAuths.get() >= _maxPending) {
+            synchronized (this) {
+                _currentAuth.authsRejected++;
+            }
+            cunit.reject();
+            _receiver.execute(cunit);
+            return;
+        }
+
+        // route all of a connection's units to the same worker to preserve their ordering
+        _pendingAuths.incrementAndGet();
+        int idx = (cunit.getConnection().getConnectionId() & Integer.MAX_VALUE) %
+            (_workers.size() + 1);
+        if (idx == 0) {
+            super.postUnit(unit);
+        } else {
+            _workers.get(idx-1).postUnit(unit);
+        }
+    }
+
+    @Override // from Invoker
+    public void shutdown ()
+    {
+        super.shutdown();
+        for (Invoker worker : _workers) {
+            worker.shutdown();
+        }
+    }
+
+    @Override // from Invoker
+    protected void willInvokeUnit (Unit unit, long start)
+    {
+        super.willInvokeUnit(unit, start);
+        noteUnitStarted(unit);
+    }
+
+    @Override // from Invoker
+    protected void didInvokeUnit (Unit unit, long start)
+    {
+        super.didInvokeUnit(unit, start);
+        noteUnitInvoked(unit, start);
+    }
+
+    /**
+     * Notes that a unit is about to be invoked by this invoker or one of its workers.
+     */
+    protected void noteUnitStarted (Unit unit)
+    {
+        if (unit instanceof ConnectionUnit) {
+            _pendingAuths.decrementAndGet();
+        }
     }
+
+    /**
+     * Records metrics for a unit that was just invoked by this invoker or one of its workers.
+     */
+    protected void noteUnitInvoked (Unit unit, long start)
+    {
+        if (!(unit instanceof ConnectionUnit)) {
+            return;
+        }
+
+        long wait = start - unit.queueStamp, latency = System.currentTimeMillis() - start;
+        synchronized (this) {
+            _currentAuth.authsRun++;
+            _currentAuth.totalWait += wait;
+            _currentAuth.maxWait = Math.max(_currentAuth.maxWait, wait);
+            _currentAuth.totalLatency += latency;
+            _currentAuth.maxLatency = Math.max(_currentAuth.maxLatency, latency);
+        }
+    }
+
+    /** Processes connection units in parallel with the main auth invoker. */
+    protected class AuthWorker extends Invoker
+    {
+        public AuthWorker (String name, Executor receiver)
+        {
+            super(name, receiver);
+        }
+
+        @Override
+        protected void willInvokeUnit (Unit unit, long start)
+        {
+            super.willInvokeUnit(unit, start);
+            noteUnitStarted(unit);
+        }
+
+        @Override
+        protected void didInvokeUnit (Unit unit, long start)
+        {
+            super.didInvokeUnit(unit, start);
+            noteUnitInvoked(unit, start);
+        }
+    }
+
+    /** Generates a report on our auth processing. */
+    protected ReportManager.Reporter _authrep = new ReportManager.Reporter() {
+        public void appendReport (StringBuilder buf, long now, long sinceLast, boolean reset) {
+            AuthStats stats = getAuthStats(reset);
+            buf.append("* presents.AuthInvoker auths:\n");
+            buf.append("- Workers: ").append(_workers.size() + 1);
+            buf.append(", pending: ").append(getPendingAuths()).append("\n");
+            buf.append("- Auths run: ").append(stats.authsRun);
+            buf.append(", rejected: ").append(stats.authsRejected).append("\n");
+            int runs = Math.max(stats.authsRun, 1);
+            buf.append("- Queue wait: ").append(stats.totalWait/runs).append("ms avg, ");
+            buf.append(stats.maxWait).append("ms max\n");
+            buf.append("- Auth latency: ").append(stats.totalLatency/runs).append("ms avg, ");
+            buf.append(stats.maxLatency).append("ms max\n");
+        }
+    };
+
+    /** The total number of threads on which we process connection units. */
+    protected int _workerCount = Integer.getInteger("com.threerings.presents.authWorkers", 1);
+
+    /** The maximum number of pending connection units, or zero for no limit. */
+    protected int _maxPending = Integer.getInteger("com.threerings.presents.authMaxPending", 0);
+
+    /** Our additional worker threads. */
+    protected List<Invoker> _workers = Lists.newArrayList();
+
+    /** The number of connection units waiting to be processed. */
+    protected AtomicInteger _pendingAuths = new AtomicInteger();
+
+    /** Used to track auth statistics. */
+    protected AuthStats _recentAuth = new AuthStats(), _currentAuth = _recentAuth;
 }
@@ -169,13 +169,23 @@ public class PresentsDObjectMgr
      * to the originating object manager.
      */
     public void registerProxyObject (DObject object, DObjectManager omgr)
+    {
+        registerProxyObject(object, omgr, false);
+    }
+
+    /**
+     * Registers an object managed by another distributed object manager. If the object is
+     * registered as read-only, events posted on it locally are dropped rather than being forwarded
+     * to the originating manager; it will only change as a result of events from its origin.
+     */
+    public void registerProxyObject (DObject object, DObjectManager omgr, boolean readOnly)
     {
         int origObjectId = object.getOid();
         // register the object locally which will reassign its oid and set us as its manager
         registerObject(object);
         // and note a proxy reference for the object which we'll use to forward events back to its
         // originating manager after converting them back to the original oid
-        _proxies.put(object.getOid(), new ProxyReference(origObjectId, omgr));
+        _proxies.put(object.getOid(), new ProxyReference(origObjectId, omgr, readOnly));
     }
 
     /**
@@ -225,6 +235,25 @@ public class PresentsDObjectMgr
         _evqueue.append(event);
     }
 
+    /**
+     * Posts a batch of events which will be processed, in order, as a single unit on the dobj
+     * thread rather than as one unit per event. This is used to dispatch the events forwarded by a
+     * client in a single compound message.
+     */
+    public void postEvents (List<DEvent> events)
+    {
+        if (!_running) {
+            log.warning("Posting events to inactive object manager", "events", events,
+                        new Exception());
+        }
+
+        // assign the events' ids and append the batch to the queue
+        for (DEvent event : events) {
+            event.eventId = getNextEventId(true);
+        }
+        _evqueue.append(new EventBatch(events));
+    }
+
     // from interface DObjectManager
     public void removedLastSubscriber (DObject obj, boolean deathWish)
     {
@@ -666,22 +695,7 @@ public class PresentsDObjectMgr
                 ((Runnable)unit).run();
 
             } else {
-                DEvent event = (DEvent)unit;
-
-                // if this event is on a proxied object, forward it to the owning manager
-                ProxyReference proxy = _proxies.get(event.getTargetOid());
-                if (proxy != null) {
-                    // rewrite the oid into the originating manager's id space
-                    event.setTargetOid(proxy.origObjectId);
-                    // then pass it on to the originating manager to handle
-                    proxy.origManager.postEvent(event);
-
-                } else if (event instanceof CompoundEvent) {
-                    processCompoundEvent((CompoundEvent)event);
-
-                } else {
-                    processEvent(event);
-                }
+                processUnitEvent((DEvent)unit);
             }
 
         } catch (VirtualMachineError e) {
@@ -724,6 +738,30 @@ public class PresentsDObjectMgr
         }
     }
 
+    /**
+     * Processes an event that was posted to our queue, either directly or as part of a batch.
+     */
+    protected void processUnitEvent (DEvent event)
+    {
+        // if this event is on a proxied object, forward it to the owning manager
+        ProxyReference proxy = _proxies.get(event.getTargetOid());
+        if (proxy != null && proxy.readOnly) {
+            log.warning("Dropping event posted on read-only proxy", "event", event);
+
+        } else if (proxy != null) {
+            // rewrite the oid into the originating manager's id space
+            event.setTargetOid(proxy.origObjectId);
+            // then pass it on to the originating manager to handle
+            proxy.origManager.postEvent(event);
+
+        } else if (event instanceof CompoundEvent) {
+            processCompoundEvent((CompoundEvent)event);
+
+        } else {
+            processEvent(event);
+        }
+    }
+
     /**
      * Performs the processing associated with a compound event, notifying listeners and the like.
      */
@@ -993,6 +1031,38 @@ public class PresentsDObjectMgr
         protected int _action;
     }
 
+    /**
+     * Processes a batch of events as a single unit.
+     */
+    protected class EventBatch implements Runnable
+    {
+        public EventBatch (List<DEvent> events)
+        {
+            _events = events;
+        }
+
+        public void run ()
+        {
+            for (int ii = 0, ll = _events.size(); ii < ll; ii++) {
+                DEvent event = _events.get(ii);
+                try {
+                    processUnitEvent(event);
+                } catch (VirtualMachineError e) {
+                    handleFatalError(event, e);
+                } catch (Throwable t) {
+                    log.warning("Batched event failed", "event", event, t);
+                }
+            }
+        }
+
+        @Override public String toString ()
+        {
+            return "[type=BATCH, events=" + _events + "]";
+        }
+
+        protected List<DEvent> _events;
+    }
+
     /**
      * Used to track references of objects in oid lists.
      */
@@ -1058,11 +1128,13 @@ public class PresentsDObjectMgr
     {
         public int origObjectId;
         public DObjectManager origManager;
+        public boolean readOnly;
 
-        public ProxyReference (int origObjectId, DObjectManager origManager)
+        public ProxyReference (int origObjectId, DObjectManager origManager, boolean readOnly)
         {
             this.origObjectId = origObjectId;
             this.origManager = origManager;
+            this.readOnly = readOnly;
         }
     }
 
@@ -186,6 +186,21 @@ public class PresentsServer
         ((PresentsInvoker)_invoker).start(this);
         _authInvoker.start();
         ((PresentsInvoker)_invoker).addInterdependentInvoker(_authInvoker);
+        if (_authInvoker instanceof PresentsAuthInvoker) {
+            for (Invoker worker : ((PresentsAuthInvoker)_authInvoker).getWorkers()) {
+                ((PresentsInvoker)_invoker).addInterdependentInvoker(worker);
+            }
+        }
+
+        // start the client resolution invoker threads, if we're resolving clients off of the
+        // main invoker
+        if (_resolutionInvoker.isEnabled()) {
+            _resolutionInvoker.start();
+            ((PresentsInvoker)_invoker).addInterdependentInvoker(_resolutionInvoker);
+            for (Invoker worker : _resolutionInvoker.getWorkers()) {
+                ((PresentsInvoker)_invoker).addInterdependentInvoker(worker);
+            }
+        }
 
         // provide our client manager with the injector it needs
         _clmgr.setInjector(injector);
@@ -352,4 +367,7 @@ public class PresentsServer
 
     /** Used to invoke authentication tasks. */
     @Inject @AuthInvoker protected Invoker _authInvoker;
+
+    /** The invoker on which we resolve client data. */
+    @Inject protected ClientResolutionInvoker _resolutionInvoker;
 }
@@ -63,9 +63,12 @@ import com.threerings.presents.net.FailureResponse;
 import com.threerings.presents.net.ForwardEventRequest;
 import com.threerings.presents.net.LogoffRequest;
 import com.threerings.presents.net.Message;
+import com.threerings.presents.net.MigrateNotification;
+import com.threerings.presents.net.MigrationCreds;
 import com.threerings.presents.net.ObjectResponse;
 import com.threerings.presents.net.PingRequest;
 import com.threerings.presents.net.PongResponse;
+import com.threerings.presents.net.ResumeTicketCreds;
 import com.threerings.presents.net.SubscribeRequest;
 import com.threerings.presents.net.ThrottleUpdatedMessage;
 import com.threerings.presents.net.TransmitDatagramsRequest;
@@ -118,7 +121,8 @@ public class PresentsSession
      */
     public Credentials getCredentials ()
     {
-        return _areq.getCredentials();
+        // a client that migrated here keeps the credentials its previous server authenticated
+        return MigrationCreds.unwrap(_areq.getCredentials());
     }
 
     /**
@@ -377,6 +381,17 @@ public class PresentsSession
         _clobj = null;
     }
 
+    /**
+     * Tells the client that its session has been migrated to the server at the specified address
+     * and that it should move there, presenting the supplied ticket. The client logs off of this
+     * server before doing so, which ends this session in the usual manner.
+     */
+    public void migrateTo (String hostname, int[] ports, String ticket)
+    {
+        log.info("Migrating session", "session", this, "hostname", hostname, "ports", ports);
+        postMessage(new MigrateNotification(hostname, ports, ticket), null);
+    }
+
     /**
      * This is called when the server is shut down in the middle of a client session. In this
      * circumstance, {@link #endSession} will <em>not</em> be called and so any persistent data
@@ -456,7 +471,7 @@ public class PresentsSession
      */
     protected void dispatchMessage (Message message)
     {
-        _messagesIn++; // count 'em up!
+        noteMessageReceived(message);
 
         // we dispatch to a message dispatcher that is specialized for the particular class of
         // message that we received
@@ -470,6 +485,15 @@ public class PresentsSession
         disp.dispatch(this, message);
     }
 
+    /**
+     * Notes that the supplied message is being dispatched, whether on its own or as part of a
+     * batch of forwarded events.
+     */
+    protected void noteMessageReceived (Message message)
+    {
+        _messagesIn++; // count 'em up!
+    }
+
     /**
      * Called when {@link #setUsername} has been called and the new client object is about to be
      * applied to this client. The old client object will not yet have been destroyed, so any final
@@ -499,8 +523,11 @@ public class PresentsSession
         _authdata = authdata;
         setConnection(conn);
 
-        // resolve our client object before we get fully underway
-        _clmgr.resolveClientObject(_authname, this);
+        // resolve our client object before we get fully underway, using the one that came along
+        // with us if we migrated here from another server
+        ClientObject migrated = (req.getCredentials() instanceof MigrationCreds) ?
+            ((MigrationCreds)req.getCredentials()).takeMigratedObject() : null;
+        _clmgr.resolveClientObject(_authname, this, migrated);
 
         // make a note of our session start time
         _sessionStamp = System.currentTimeMillis();
@@ -520,8 +547,11 @@ public class PresentsSession
             oldconn.close();
         }
 
-        // note our new auth request (so that we can deliver the proper bootstrap services)
-        _areq = req;
+        // note our new auth request (so that we can deliver the proper bootstrap services), unless
+        // they resumed with a ticket in which case we keep the credentials they logged on with
+        if (!(req.getCredentials() instanceof ResumeTicketCreds)) {
+            _areq = req;
+        }
 
         // start using the new connection
         setConnection(conn);
@@ -783,6 +813,9 @@ public class PresentsSession
         } else {
             data.services = _invmgr.getBootstrapServices(_areq.getBootGroups());
         }
+
+        // issue them a fresh ticket with which to resume this session (if tickets are enabled)
+        data.resumeTicket = _ticketAuthor.issueTicket(this);
     }
 
     /**
@@ -936,6 +969,14 @@ public class PresentsSession
         }
     }
 
+    /**
+     * Returns the form of the supplied event that should be sent down to our client.
+     */
+    protected DEvent getOutboundEvent (DEvent event)
+    {
+        return event.getClientEvent();
+    }
+
     /** Queues a message for delivery to the client. */
     protected boolean postMessage (DownstreamMessage msg, PresentsConnection expect)
     {
@@ -1101,7 +1142,7 @@ public class PresentsSession
                 return;
             }
 
-            postMessage(new EventNotification(event), _oconn);
+            postMessage(new EventNotification(getOutboundEvent(event)), _oconn);
 
             if (event instanceof ObjectDestroyedEvent) {
                 // Make sure it's cleared out.  Otherwise, client-server timing can
@@ -1176,9 +1217,31 @@ public class PresentsSession
                 public void run () {
                     client.startCompoundMessage();
                 }});
+            // runs of forwarded events are handed to the omgr as a single batch rather than being
+            // queued up one by one
+            List<DEvent> batch = null;
             for (UpstreamMessage submsg : ((CompoundUpstreamMessage)msg).msgs) {
+                MessageDispatcher disp = _disps.get(submsg.getClass());
+                if (disp instanceof ForwardEventDispatcher) {
+                    client.noteMessageReceived(submsg);
+                    DEvent fevt = ((ForwardEventDispatcher)disp).prepareEvent(client, submsg);
+                    if (fevt != null) {
+                        if (batch == null) {
+                            batch = Lists.newArrayList();
+                        }
+                        batch.add(fevt);
+                    }
+                    continue;
+                }
+                if (batch != null) {
+                    client._omgr.postEvents(batch);
+                    batch = null;
+                }
                 client.dispatchMessage(submsg);
             }
+            if (batch != null) {
+                client._omgr.postEvents(batch);
+            }
             // Send any messages produced en masse now that we've finished dispatching
             client._omgr.postRunnable(new Runnable() {
                 public void run () {
@@ -1213,6 +1276,19 @@ public class PresentsSession
     protected static class ForwardEventDispatcher implements MessageDispatcher
     {
         public void dispatch (PresentsSession client, Message msg)
+        {
+            DEvent fevt = prepareEvent(client, msg);
+            if (fevt != null) {
+                // forward the event to the omgr for processing
+                client._omgr.postEvent(fevt);
+            }
+        }
+
+        /**
+         * Extracts the event from the supplied forward event request and attributes it to the
+         * client. Returns null if the event should be dropped.
+         */
+        public DEvent prepareEvent (PresentsSession client, Message msg)
         {
             ForwardEventRequest req = (ForwardEventRequest)msg;
             DEvent fevt = req.getEvent();
@@ -1221,7 +1297,7 @@ public class PresentsSession
             ClientObject clobj = client.getClientObject();
             if (clobj == null) {
                 log.info("Dropping event that arrived after client disconnected " + fevt + ".");
-                return;
+                return null;
             }
 
             // fill in the proper source oid
@@ -1229,8 +1305,7 @@ public class PresentsSession
 
 //             log.info("Forwarding event", "client", client, "event", fevt);
 
-            // forward the event to the omgr for processing
-            client._omgr.postEvent(fevt);
+            return fevt;
         }
     }
 
@@ -1288,6 +1363,7 @@ public class PresentsSession
     @Inject protected ConnectionManager _conmgr;
     @Inject protected PresentsDObjectMgr _omgr;
     @Inject protected InvocationManager _invmgr;
+    @Inject protected ResumeTicketAuthenticator _ticketAuthor;
 
     protected AuthRequest _areq;
     protected Object _authdata;
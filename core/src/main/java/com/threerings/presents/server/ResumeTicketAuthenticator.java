@@ -0,0 +1,244 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.samskivert.util.Invoker;
+import com.samskivert.util.ResultListener;
+import com.samskivert.util.StringUtil;
+
+import com.threerings.presents.annotation.EventThread;
+import com.threerings.presents.data.AuthCodes;
+import com.threerings.presents.net.AuthRequest;
+import com.threerings.presents.net.AuthResponse;
+import com.threerings.presents.net.AuthResponseData;
+import com.threerings.presents.net.ResumeTicketCreds;
+import com.threerings.presents.server.net.AuthingConnection;
+import com.threerings.presents.server.net.PresentsConnectionManager;
+
+import static com.threerings.presents.Log.log;
+
+/**
+ * Issues signed, expiring resume tickets to clients when their session starts (and whenever it is
+ * resumed) and authenticates connections presenting such a ticket via {@link ResumeTicketCreds}.
+ * A valid ticket reattaches the connection to its existing {@link PresentsSession} without
+ * involving the main {@link Authenticator}, the auth invoker or any database. Tickets are only
+ * valid for as long as the session that issued them, so they cannot be used to start a new
+ * session, and each ticket issued to a session supersedes those issued to it before.
+ *
+ * <p> Ticket issuing is disabled until {@link #enable} is called.
+ */
+@Singleton
+public class ResumeTicketAuthenticator extends ChainedAuthenticator
+    implements ClientManager.ClientObserver
+{
+    @Inject public ResumeTicketAuthenticator ()
+    {
+        try {
+            byte[] key = new byte[32];
+            _rando.nextBytes(key);
+            _key = new SecretKeySpec(key, MAC_ALGORITHM);
+            Mac.getInstance(MAC_ALGORITHM).init(_key); // fail early if the MAC is not supported
+        } catch (GeneralSecurityException gse) {
+            throw new RuntimeException("Unable to create resume ticket key", gse);
+        }
+    }
+
+    /**
+     * Enables the issuing and acceptance of resume tickets.
+     *
+     * @param ttl the number of milliseconds for which an issued ticket remains valid. A new ticket
+     * is issued every time the session is resumed, at which point the previous one is revoked.
+     */
+    public void enable (long ttl)
+    {
+        _ttl = ttl;
+        if (!_enabled) {
+            _enabled = true;
+            _conmgr.addChainedAuthenticator(this);
+            _clmgr.addClientObserver(this);
+        }
+    }
+
+    /**
+     * Issues a resume ticket for the supplied session, or returns null if tickets are not enabled.
+     * Any ticket previously issued to the session is no longer accepted.
+     */
+    @EventThread
+    public String issueTicket (PresentsSession session)
+    {
+        if (!_enabled) {
+            return null;
+        }
+
+        Long ticketId;
+        do {
+            ticketId = _rando.nextLong();
+        } while (_sessions.putIfAbsent(ticketId, session) != null);
+        Long oldId = _ticketIds.put(session, ticketId);
+        if (oldId != null) {
+            _sessions.remove(oldId);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(TICKET_LENGTH);
+        buf.putLong(ticketId).putLong(System.currentTimeMillis() + _ttl);
+        buf.put(sign(buf.array(), PAYLOAD_LENGTH));
+        return StringUtil.hexlate(buf.array());
+    }
+
+    // from interface ClientManager.ClientObserver
+    public void clientSessionDidStart (PresentsSession session)
+    {
+        // nothing doing
+    }
+
+    // from interface ClientManager.ClientObserver
+    public void clientSessionDidEnd (PresentsSession session)
+    {
+        Long ticketId = _ticketIds.remove(session);
+        if (ticketId != null) {
+            _sessions.remove(ticketId);
+        }
+    }
+
+    @Override // from ChainedAuthenticator
+    public boolean shouldHandleConnection (AuthingConnection conn)
+    {
+        return conn.getAuthRequest().getCredentials() instanceof ResumeTicketCreds;
+    }
+
+    @Override // from Authenticator
+    public void authenticateConnection (Invoker invoker, final AuthingConnection conn,
+                                        final ResultListener<AuthingConnection> onComplete)
+    {
+        // checking a ticket is cheap and touches nothing but our own tables, so we do it
+        // immediately rather than queueing up behind full authentications on the auth invoker
+        final AuthResponse rsp = new AuthResponse(createResponseData());
+        try {
+            processAuthentication(conn, rsp);
+        } catch (AuthException e) {
+            rsp.getData().code = e.getMessage();
+        } catch (Exception e) {
+            log.warning("Error checking resume ticket", "areq", conn.getAuthRequest(), e);
+            rsp.getData().code = AuthCodes.SERVER_ERROR;
+        }
+        _omgr.postRunnable(new Runnable() {
+            public void run () {
+                finishAuthentication(conn, rsp, onComplete);
+            }
+        });
+    }
+
+    @Override // from Authenticator
+    protected void processAuthentication (AuthingConnection conn, AuthResponse rsp)
+        throws Exception
+    {
+        AuthRequest req = conn.getAuthRequest();
+        String ticket = ((ResumeTicketCreds)req.getCredentials()).getTicket();
+        byte[] data = (ticket == null) ? null : StringUtil.unhexlate(ticket);
+        if (data == null || data.length != TICKET_LENGTH) {
+            throw new AuthException(AuthCodes.INVALID_TICKET);
+        }
+
+        // make sure we issued this ticket
+        byte[] sig = new byte[TICKET_LENGTH - PAYLOAD_LENGTH];
+        System.arraycopy(data, PAYLOAD_LENGTH, sig, 0, sig.length);
+        if (!MessageDigest.isEqual(sig, sign(data, PAYLOAD_LENGTH))) {
+            log.warning("Received forged resume ticket", "conn", conn);
+            throw new AuthException(AuthCodes.INVALID_TICKET);
+        }
+
+        // and that it is still valid for a session that is still around
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long ticketId = buf.getLong(), expires = buf.getLong();
+        PresentsSession session = _sessions.get(ticketId);
+        if (expires < System.currentTimeMillis() || session == null) {
+            throw new AuthException(AuthCodes.INVALID_TICKET);
+        }
+
+        conn.setAuthName(session.getAuthName());
+        rsp.getData().code = AuthResponseData.SUCCESS;
+    }
+
+    /**
+     * Computes the signature of the first <code>length</code> bytes of the supplied data.
+     */
+    protected byte[] sign (byte[] data, int length)
+    {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(_key);
+            mac.update(data, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException gse) {
+            // we checked that this works when we were constructed
+            throw new RuntimeException(gse);
+        }
+    }
+
+    /** Whether or not we're issuing and accepting tickets. */
+    protected volatile boolean _enabled;
+
+    /** The duration for which issued tickets remain valid. */
+    protected long _ttl;
+
+    /** The key with which we sign tickets. Tickets are only valid on the server that issued them,
+     * so a new key is generated every time the server starts. */
+    protected SecretKeySpec _key;
+
+    /** Used to generate our key and ticket ids. */
+    protected SecureRandom _rando = new SecureRandom();
+
+    /** Maps ticket ids to the sessions for which they were issued. This is read on the conmgr
+     * thread and modified on the dobjmgr thread. */
+    protected ConcurrentMap<Long, PresentsSession> _sessions = Maps.newConcurrentMap();
+
+    /** Maps sessions to their ticket id. Only accessed on the dobjmgr thread. */
+    protected Map<PresentsSession, Long> _ticketIds = Maps.newHashMap();
+
+    @Inject protected ClientManager _clmgr;
+    @Inject protected PresentsConnectionManager _conmgr;
+    @Inject protected PresentsDObjectMgr _omgr;
+
+    /** The algorithm used to sign tickets. */
+    protected static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /** The number of bytes in the signed portion of a ticket: ticket id and expiry. */
+    protected static final int PAYLOAD_LENGTH = 16;
+
+    /** The total number of bytes in a ticket: the payload and its signature. */
+    protected static final int TICKET_LENGTH = PAYLOAD_LENGTH + 32;
+}
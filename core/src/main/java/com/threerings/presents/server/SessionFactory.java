@@ -25,6 +25,7 @@ import com.threerings.util.Name;
 
 import com.threerings.presents.net.AuthRequest;
 import com.threerings.presents.net.Credentials;
+import com.threerings.presents.net.MigrationCreds;
 
 /**
  * Used to determine what type of {@link PresentsSession} to use to manage an authenticated client
@@ -54,7 +55,8 @@ public abstract class SessionFactory
     {
         return new SessionFactory() {
             @Override public Class<? extends PresentsSession> getSessionClass (AuthRequest areq) {
-                return credsClass.isInstance(areq.getCredentials()) ? sessionClass : null;
+                Credentials creds = MigrationCreds.unwrap(areq.getCredentials());
+                return credsClass.isInstance(creds) ? sessionClass : null;
             }
             @Override
             public Class <? extends ClientResolver> getClientResolverClass (Name username) {
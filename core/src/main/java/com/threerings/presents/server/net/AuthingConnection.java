@@ -35,6 +35,7 @@ import com.threerings.presents.net.Message;
 import com.threerings.presents.net.PublicKeyCredentials;
 import com.threerings.presents.net.SecureRequest;
 import com.threerings.presents.net.SecureResponse;
+import com.threerings.presents.server.PresentsAuthInvoker;
 import com.threerings.util.Name;
 
 /**
@@ -57,12 +58,7 @@ public class AuthingConnection extends PresentsConnection
                             safePostMessage(new SecureResponse(AuthCodes.FAILED_TO_SECURE));
                         } else {
                             // generate a server key and encode it using the client key
-                            SecureResponse resp = new SecureResponse();
-                            PublicKeyCredentials pkcreds =
-                                    (PublicKeyCredentials)secreq.getCredentials();
-                            _clientSecureVersion = pkcreds.getSecureVersion();
-                            _serverSecret = resp.createSecret(pkcreds, key, 16);
-                            safePostMessage(resp);
+                            secureConnection((PublicKeyCredentials)secreq.getCredentials(), key);
                         }
                         return;
                     } catch (ClassCastException cce) {
@@ -157,6 +153,30 @@ public class AuthingConnection extends PresentsConnection
         return "[mode=AUTHING, addr=" + getInetAddress() + "]";
     }
 
+    /**
+     * Generates our server secret and sends it back to the client encoded using the client's key.
+     * The RSA decryption involved is expensive, so this is done on the auth invoker rather than
+     * tying up the connection manager thread.
+     */
+    protected void secureConnection (final PublicKeyCredentials pkcreds, final PrivateKey key)
+    {
+        _clientSecureVersion = pkcreds.getSecureVersion();
+        _pcmgr._authInvoker.postUnit(
+            new PresentsAuthInvoker.ConnectionUnit("secureConnection", this) {
+            @Override public boolean invoke () {
+                _serverSecret = _resp.createSecret(pkcreds, key, 16);
+                return true;
+            }
+            @Override public void reject () {
+                _resp = new SecureResponse(AuthCodes.FAILED_TO_SECURE);
+            }
+            @Override public void handleResult () {
+                postMessage(_resp);
+            }
+            protected SecureResponse _resp = new SecureResponse();
+        });
+    }
+
     /**
      * Callable from non-dobjmgr thread, this queues up a runnable on the dobjmgr thread to post
      * the supplied message to this client.
@@ -174,8 +194,8 @@ public class AuthingConnection extends PresentsConnection
     protected AuthResponse _authrsp;
     protected Name _authname;
 
-    /** The random secret generating for this connection. */
-    protected byte[] _serverSecret;
+    /** The random secret generating for this connection. This is generated on the auth invoker. */
+    protected volatile byte[] _serverSecret;
 
     /** The secure version for our connecting client. */
     protected int _clientSecureVersion;
@@ -33,8 +33,9 @@ import java.security.NoSuchAlgorithmException;
 
 import com.google.common.base.Preconditions;
 
-import com.threerings.io.FramedInputStream;
+import com.threerings.io.FrameDeflater;
 import com.threerings.io.FramingOutputStream;
+import com.threerings.io.InflatingFramedInputStream;
 import com.threerings.io.ObjectInputStream;
 import com.threerings.io.ObjectOutputStream;
 
@@ -149,6 +150,40 @@ public class PresentsConnection extends Connection
         }
     }
 
+    /**
+     * Treats all frames subsequently read from this connection as compressed. The other end of
+     * the connection must start deflating the frames it sends at precisely this point in the
+     * stream, which means this must be called before the conmgr thread could read a frame sent
+     * after that point (usually before we send the message that tells the other end to start).
+     *
+     * @param dictSize the dictionary size used by the other end's {@link FrameDeflater}.
+     */
+    public void startInflating (int dictSize)
+    {
+        if (_fin == null) {
+            _oin = createObjectInputStream(_fin = new InflatingFramedInputStream());
+            if (_loader != null) {
+                _oin.setClassLoader(_loader);
+            }
+        }
+        _fin.startInflating(dictSize);
+    }
+
+    /**
+     * Compresses all frames subsequently posted to this connection. This may be called on any
+     * thread (peers switch on compression from the connection manager thread, whereas frames are
+     * generally flattened on the distributed object thread), but it must be called at the point in
+     * the stream at which the other end of the connection expects compressed frames to start.
+     *
+     * @param level the {@link java.util.zip.Deflater} compression level.
+     * @param minSize frames with less than this many bytes of data are sent uncompressed.
+     * @param dictSize the dictionary size used by the other end to inflate our frames.
+     */
+    public void startDeflating (int level, int minSize, int dictSize)
+    {
+        _deflater = new FrameDeflater(level, minSize, dictSize);
+    }
+
     /**
      * Posts a message for delivery to this connection. The message will be delivered by the conmgr
      * thread as soon as it gets to it.
@@ -219,7 +254,7 @@ public class PresentsConnection extends Connection
             // we're lazy about creating our input streams because we may be inheriting them from
             // our authing connection and we don't want to unnecessarily create them in that case
             if (_fin == null) {
-                _oin = createObjectInputStream(_fin = new FramedInputStream());
+                _oin = createObjectInputStream(_fin = new InflatingFramedInputStream());
                 if (_loader != null) {
                     _oin.setClassLoader(_loader);
                 }
@@ -229,8 +264,11 @@ public class PresentsConnection extends Connection
             // out of data
             while (_fin.readFrame(_channel)) {
                 // make a note of how many bytes are in this frame (including the frame length
-                // bytes which aren't reported in available())
-                bytesIn = _fin.available() + 4;
+                // bytes)
+                bytesIn = _fin.getFrameLength();
+                if (_fin.isInflating()) {
+                    _pcmgr.noteInflatedFrame(bytesIn, _fin.available());
+                }
                 // parse the message and pass it on
                 Message msg = (Message)_oin.readObject();
                 msg.received = when;
@@ -289,6 +327,7 @@ public class PresentsConnection extends Connection
         _fin = other._fin;
         _oin = other._oin;
         _oout = other._oout;
+        _deflater = other._deflater;
         if (_loader != null) {
             _oin.setClassLoader(_loader);
         }
@@ -308,6 +347,15 @@ public class PresentsConnection extends Connection
         return _oout;
     }
 
+    /**
+     * Returns the deflater used to compress frames sent on this connection, or null if they are
+     * not compressed. This should only be used by the connection manager.
+     */
+    protected FrameDeflater getFrameDeflater ()
+    {
+        return _deflater;
+    }
+
     /**
      * Sets the object output stream used by this connection. This should only be called by the
      * connection manager.
@@ -326,9 +374,11 @@ public class PresentsConnection extends Connection
         return _sequencer;
     }
 
-    protected FramedInputStream _fin;
+    protected InflatingFramedInputStream _fin;
     protected ObjectInputStream _oin;
     protected ObjectOutputStream _oout;
+    /** Our frame compressor, which is volatile as it is set and used on different threads. */
+    protected volatile FrameDeflater _deflater;
 
     protected InetSocketAddress _datagramAddress;
     protected DatagramChannel _datagramChannel;
@@ -22,6 +22,7 @@
 package com.threerings.presents.server.net;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -44,6 +45,7 @@ import com.samskivert.util.ResultListener;
 import com.samskivert.util.Tuple;
 
 import com.threerings.io.ByteBufferInputStream;
+import com.threerings.io.FrameDeflater;
 import com.threerings.io.FramingOutputStream;
 import com.threerings.io.ObjectOutputStream;
 import com.threerings.io.UnreliableObjectInputStream;
@@ -111,7 +113,12 @@ public class PresentsConnectionManager extends ConnectionManager
     @Override
     public synchronized PresentsConMgrStats getStats ()
     {
-        ((PresentsConMgrStats)_stats).authQueueSize = _authq.size();
+        PresentsConMgrStats stats = (PresentsConMgrStats)_stats;
+        stats.authQueueSize = _authq.size();
+        stats.rawBytesOut = _rawBytesOut.get();
+        stats.deflatedBytesOut = _deflatedBytesOut.get();
+        stats.deflatedBytesIn = _deflatedBytesIn.get();
+        stats.inflatedBytesIn = _inflatedBytesIn.get();
         return ((PresentsConMgrStats)super.getStats());
     }
 
@@ -166,6 +173,19 @@ public class PresentsConnectionManager extends ConnectionManager
         long avgOut = (msgsOut == 0) ? 0 : (bytesOut/msgsOut);
         report.append(avgOut).append(" avg size, ");
         report.append(bytesOut*1000/sinceLast).append(" bps\n");
+
+        long rawOut = stats.rawBytesOut - _lastStats.rawBytesOut;
+        long deflatedIn = stats.deflatedBytesIn - _lastStats.deflatedBytesIn;
+        if (rawOut > 0 || deflatedIn > 0) {
+            long deflatedOut = stats.deflatedBytesOut - _lastStats.deflatedBytesOut;
+            long inflatedIn = stats.inflatedBytesIn - _lastStats.inflatedBytesIn;
+            report.append("- Compressed links: ");
+            report.append(rawOut).append(" bytes deflated to ").append(deflatedOut).append(", ");
+            report.append(deflatedIn).append(" bytes inflated to ").append(inflatedIn);
+            report.append(" (").append(PresentsConMgrStats.ratio(rawOut, deflatedOut));
+            report.append(" out, ").append(PresentsConMgrStats.ratio(inflatedIn, deflatedIn));
+            report.append(" in)\n");
+        }
     }
 
     /**
@@ -296,10 +316,18 @@ public class PresentsConnectionManager extends ConnectionManager
             oout.writeObject(msg);
             oout.flush();
 
-            // now extract that data into a byte array
+            // now extract that data into a byte array, compressing it if appropriate
             ByteBuffer buffer = _framer.frameAndReturnBuffer();
-            byte[] data = new byte[buffer.limit()];
-            buffer.get(data);
+            byte[] data;
+            FrameDeflater deflater = conn.getFrameDeflater();
+            if (deflater == null) {
+                data = new byte[buffer.limit()];
+                buffer.get(data);
+            } else {
+                data = deflater.deflate(buffer);
+                _rawBytesOut.addAndGet(buffer.limit());
+                _deflatedBytesOut.addAndGet(data.length);
+            }
             // log.info("Flattened " + msg + " into " + data.length + " bytes.");
 
             // and slap both on the queue
@@ -310,6 +338,16 @@ public class PresentsConnectionManager extends ConnectionManager
         }
     }
 
+    /**
+     * Notes that a compressed frame was read from one of our connections. Called on the conmgr
+     * thread.
+     */
+    protected void noteInflatedFrame (int deflatedBytes, int inflatedBytes)
+    {
+        _deflatedBytesIn.addAndGet(deflatedBytes);
+        _inflatedBytesIn.addAndGet(inflatedBytes);
+    }
+
     /**
      * Helper function for {@link #postMessage}; handles posting the message as a datagram.
      *
@@ -642,6 +680,11 @@ public class PresentsConnectionManager extends ConnectionManager
     /** A snapshot of our runtime stats as of our last report. */
     protected PresentsConMgrStats _lastStats = new PresentsConMgrStats();
 
+    /** Compressed link traffic counters, which are updated on both the dobj and conmgr threads
+     * and copied into our stats when they are requested. */
+    protected AtomicLong _rawBytesOut = new AtomicLong(), _deflatedBytesOut = new AtomicLong();
+    protected AtomicLong _deflatedBytesIn = new AtomicLong(), _inflatedBytesIn = new AtomicLong();
+
     protected Queue<Tuple<PresentsConnection, byte[]>> _dataq = Queue.newQueue();
     protected ByteBuffer _databuf = ByteBuffer.allocateDirect(Client.MAX_DATAGRAM_SIZE);
 }
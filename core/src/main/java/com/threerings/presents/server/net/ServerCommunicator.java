@@ -179,6 +179,10 @@ public class ServerCommunicator extends Communicator
     {
         super.logonSucceeded(data);
 
+        // we share the server's dobj queue, so process all of the messages that arrive from the
+        // network together in one unit (which also applies events on proxied objects in batches)
+        _omgr.setMaxDispatchBatch(MAX_DISPATCH_BATCH);
+
         // now we can route all messages to the ClientDObjectMgr
         _conn.setMessageHandler(new PresentsConnection.MessageHandler() {
             public void handleMessage (Message message) {
@@ -205,4 +209,7 @@ public class ServerCommunicator extends Communicator
     protected PresentsConnection _conn;
     protected ClassLoader _loader;
     protected Exception _logonError;
+
+    /** The maximum number of messages processed in a single dobj unit. */
+    protected static final int MAX_DISPATCH_BATCH = 256;
 }
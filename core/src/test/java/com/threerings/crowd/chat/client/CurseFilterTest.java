@@ -0,0 +1,196 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.crowd.chat.client;
+
+import java.util.Arrays;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.threerings.crowd.chat.client.CurseFilter.Mode;
+
+/**
+ * Checks that {@link CurseFilter} filters chat just as the one regular expression per word that it
+ * used to be built from did.
+ */
+public class CurseFilterTest
+{
+    @Test
+    public void testDrop ()
+    {
+        CurseFilter filter = new TestFilter(CURSE_WORDS, STOP_WORDS);
+        for (String msg : MESSAGES) {
+            assertEquals(msg, regexpFilter(msg, Mode.DROP, '*'), filter.filter(msg, Mode.DROP));
+        }
+    }
+
+    @Test
+    public void testVernacular ()
+    {
+        CurseFilter filter = new TestFilter(CURSE_WORDS, STOP_WORDS);
+        for (String msg : MESSAGES) {
+            assertEquals(msg, regexpFilter(msg, Mode.VERNACULAR, '*'),
+                         filter.filter(msg, Mode.VERNACULAR));
+        }
+    }
+
+    @Test
+    public void testComic ()
+    {
+        CurseFilter filter = new TestFilter(CURSE_WORDS, STOP_WORDS);
+        for (String msg : MESSAGES) {
+            String filtered = filter.filter(msg, Mode.COMIC);
+            assertEquals(msg, regexpFilter(msg, Mode.COMIC, '*'),
+                         (filtered == null) ? null : filtered.replaceAll("[!@#%&*]", "*"));
+        }
+    }
+
+    @Test
+    public void testUnfiltered ()
+    {
+        CurseFilter filter = new TestFilter(CURSE_WORDS, STOP_WORDS);
+        assertEquals("Crappy day", filter.filter("Crappy day", Mode.UNFILTERED));
+        assertNull(filter.filter("a badword", Mode.UNFILTERED));
+    }
+
+    @Test
+    public void testStopWordRegexp ()
+    {
+        CurseFilter filter = new TestFilter(CURSE_WORDS, STOP_WORDS) {
+            @Override protected String getStopWordRegexp (String word) {
+                return "\\b" + word.replace("*", "[A-Za-z]*") + "s?\\b";
+            }
+            @Override protected boolean matchPlainStopWords () {
+                return false;
+            }
+        };
+        assertNull(filter.filter("too many badwords", Mode.VERNACULAR));
+        assertNull(filter.filter("a badword", Mode.VERNACULAR));
+        assertEquals("badwordy", filter.filter("badwordy", Mode.VERNACULAR));
+    }
+
+    @Test
+    public void testStopPattern ()
+    {
+        CurseFilter filter = new TestFilter(CURSE_WORDS, STOP_WORDS) {
+            @Override protected void configureStopWords (String stopWords) {
+                super.configureStopWords(stopWords);
+                setStopPattern("\\bnaughty\\b");
+            }
+        };
+        assertNull(filter.filter("so naughty", Mode.VERNACULAR));
+        assertEquals("a badword", filter.filter("a badword", Mode.VERNACULAR));
+
+        // a filter that configures its stop words entirely on its own
+        filter = new TestFilter(CURSE_WORDS, STOP_WORDS) {
+            @Override protected void configureStopWords (String stopWords) {
+                // no stop words at all
+            }
+        };
+        assertEquals("a badword", filter.filter("a badword", Mode.VERNACULAR));
+    }
+
+    /**
+     * Filters the supplied message the way we always have, with one regular expression per word,
+     * using the supplied character for comic replacements.
+     */
+    protected static String regexpFilter (String msg, Mode level, char comic)
+    {
+        StringBuilder stop = new StringBuilder();
+        for (StringTokenizer st = new StringTokenizer(STOP_WORDS); st.hasMoreTokens(); ) {
+            stop.append(stop.length() == 0 ? "" : "|");
+            stop.append("\\b").append(st.nextToken().replace("*", "[A-Za-z]*")).append("\\b");
+        }
+        if (Pattern.compile("(" + stop + ")", Pattern.CASE_INSENSITIVE).matcher(msg).find()) {
+            return null;
+        }
+
+        for (StringTokenizer st = new StringTokenizer(CURSE_WORDS); st.hasMoreTokens(); ) {
+            String[] mapping = st.nextToken().split("=");
+            String curse = mapping[0], s = "", p = "";
+            if (curse.startsWith("*")) {
+                curse = curse.substring(1);
+                p += "([\\p{L}\\p{Digit}]*)";
+                s += "$1";
+            } else {
+                p += "()";
+            }
+            s += " ";
+            p += " ";
+            if (curse.endsWith("*")) {
+                curse = curse.substring(0, curse.length() - 1);
+                p += "([\\p{L}\\p{Digit}]*)";
+                s += "$3";
+            }
+            Matcher m = Pattern.compile("\\b" + p.replace(" ", "(" + curse + ")") + "\\b",
+                Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE).matcher(msg);
+            StringBuffer buf = new StringBuffer();
+            while (m.find()) {
+                if (level == Mode.DROP) {
+                    return null;
+                }
+                String replacement;
+                if (level == Mode.COMIC) {
+                    char[] chars = new char[curse.codePointCount(0, curse.length())];
+                    Arrays.fill(chars, comic);
+                    replacement = new String(chars);
+                } else {
+                    replacement = mapping[1].replace('_', ' ');
+                    if (Character.isUpperCase(m.group(2).codePointAt(0))) {
+                        replacement = replacement.substring(0, 1).toUpperCase() +
+                            replacement.substring(1);
+                    }
+                }
+                m.appendReplacement(buf, s.replace(" ", replacement));
+            }
+            m.appendTail(buf);
+            msg = buf.toString();
+        }
+        return msg;
+    }
+
+    protected static class TestFilter extends CurseFilter
+    {
+        public TestFilter (String curseWords, String stopWords) {
+            super(curseWords, stopWords);
+        }
+
+        @Override public Mode getFilterMode () {
+            return Mode.VERNACULAR;
+        }
+    }
+
+    protected static final String CURSE_WORDS =
+        "*penis*=John_Thomas crap*=barnacle muff=britches sh[i1]t=poop fu*ck=fudge *bunk=bosh";
+
+    protected static final String STOP_WORDS = "badword *evil* wi*ld";
+
+    protected static final String[] MESSAGES = {
+        "What a load of crap", "Crappy day", "penises everywhere", "Muff", "a muffin",
+        "sh1t happens", "Shit", "what the fuuuck", "fck", "hogwash bunk debunk",
+        "nothing to see", "CRAP and muff and crap", "this is a BadWord", "devilish",
+        "wiiild", "wild thing", "unicode écrap crapé crap", "",
+    };
+}
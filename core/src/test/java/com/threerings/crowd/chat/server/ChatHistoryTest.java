@@ -0,0 +1,139 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.crowd.chat.server;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.threerings.util.Name;
+
+import com.threerings.crowd.chat.data.UserMessage;
+
+/**
+ * Tests the {@link ChatHistory} ring buffers, timing wheel and eviction.
+ */
+public class ChatHistoryTest
+{
+    @Test
+    public void testCapacity ()
+    {
+        TestHistory history = new TestHistory(1000);
+        long now = System.currentTimeMillis();
+        for (int ii = 0; ii < 70; ii++) {
+            history.record(null, "test", message("m" + ii, now), BOB);
+        }
+        List<ChatHistory.Entry> entries = history.get(BOB);
+        assertEquals(64, entries.size());
+        for (int ii = 0; ii < entries.size(); ii++) {
+            assertEquals("m" + (ii + 6), entries.get(ii).message.message);
+        }
+        assertEquals(64, history._entryCount);
+    }
+
+    @Test
+    public void testExpiration ()
+    {
+        TestHistory history = new TestHistory(1000);
+        long now = System.currentTimeMillis(), then = now - ChatHistory.HISTORY_EXPIRATION - 1000;
+        history.record(null, "test", message("old", then), ALICE, BOB);
+        history.record(null, "test", message("new", now), BOB);
+        assertEquals(3, history._entryCount);
+
+        // expired messages are not returned even before they are pruned
+        assertEquals(0, history.get(ALICE).size());
+        assertEquals(1, history.get(BOB).size());
+
+        // turn the wheel all the way round, which should prune everything that has expired
+        history.turnWheel(now / ChatHistory.WHEEL_TICK + ChatHistory.WHEEL_SLOTS);
+        assertFalse(history._histories.containsKey(ALICE));
+        assertTrue(history._histories.containsKey(BOB));
+        assertEquals(1, history._entryCount);
+        assertEquals("new", history.get(BOB).get(0).message.message);
+        assertTrue(history._histories.get(BOB).slot != -1);
+    }
+
+    @Test
+    public void testEviction ()
+    {
+        TestHistory history = new TestHistory(10);
+        long now = System.currentTimeMillis();
+        for (int ii = 0; ii < 4; ii++) {
+            history.record(null, "test", message("a" + ii, now), ALICE);
+        }
+        for (int ii = 0; ii < 4; ii++) {
+            history.record(null, "test", message("b" + ii, now), BOB);
+        }
+
+        // requesting alice's history makes bob's the least recently used
+        assertEquals(4, history.get(ALICE).size());
+        for (int ii = 0; ii < 4; ii++) {
+            history.record(null, "test", message("c" + ii, now), CAROL);
+        }
+        assertEquals(0, history.get(BOB).size());
+        assertEquals(4, history.get(ALICE).size());
+        assertEquals(4, history.get(CAROL).size());
+        assertEquals(8, history._entryCount);
+    }
+
+    @Test
+    public void testClear ()
+    {
+        TestHistory history = new TestHistory(1000);
+        long now = System.currentTimeMillis();
+        history.record(null, "test", message("hi", now), ALICE, BOB);
+        history.clear(ALICE);
+        assertEquals(0, history.get(ALICE).size());
+        assertEquals(1, history.get(BOB).size());
+        assertEquals(1, history._entryCount);
+    }
+
+    protected static UserMessage message (String text, long timestamp)
+    {
+        UserMessage msg = UserMessage.create(new Name("speaker"), text);
+        msg.timestamp = timestamp;
+        return msg;
+    }
+
+    /** A history with a configurable budget whose wheel is turned by hand. */
+    protected static class TestHistory extends ChatHistory
+    {
+        public TestHistory (int maxEntries) {
+            _maxEntries = maxEntries;
+            @SuppressWarnings("unchecked") Set<History>[] wheel =
+                (Set<History>[])new Set<?>[WHEEL_SLOTS];
+            _wheel = wheel;
+            _lastTick = System.currentTimeMillis() / WHEEL_TICK;
+        }
+
+        @Override protected int getMaxEntries () {
+            return _maxEntries;
+        }
+
+        protected int _maxEntries;
+    }
+
+    protected static final Name ALICE = new Name("alice"), BOB = new Name("bob");
+    protected static final Name CAROL = new Name("carol");
+}
@@ -0,0 +1,68 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.crowd.chat.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.threerings.util.Name;
+
+import com.threerings.presents.dobj.DEvent;
+import com.threerings.presents.dobj.MessageEvent;
+
+import com.threerings.crowd.chat.data.ChatCodes;
+import com.threerings.crowd.chat.data.ChatMessage;
+import com.threerings.crowd.chat.data.EncodedChatMessage;
+import com.threerings.crowd.chat.data.UserMessage;
+
+/**
+ * Tests that {@link ChatNotificationEvent} only sends the encoded message to clients.
+ */
+public class ChatNotificationEventTest
+{
+    @Test
+    public void testClientEvent ()
+    {
+        UserMessage msg = UserMessage.create(new Name("bob"), "hello");
+        ChatNotificationEvent event = new ChatNotificationEvent(7, msg, null);
+        event.eventId = 42;
+
+        // server-side listeners see the plain message
+        assertEquals(ChatCodes.CHAT_NOTIFICATION, event.getName());
+        assertSame(msg, event.getArgs()[0]);
+
+        // clients get a plain message event carrying the encoded message
+        DEvent cevent = event.getClientEvent();
+        assertEquals(MessageEvent.class, cevent.getClass());
+        assertEquals(7, cevent.getTargetOid());
+        assertEquals(42, cevent.eventId);
+        Object arg = ((MessageEvent)cevent).getArgs()[0];
+        assertTrue(arg instanceof EncodedChatMessage);
+        ChatMessage decoded = ((EncodedChatMessage)arg).getMessage();
+        assertEquals("hello", decoded.message);
+
+        // the client form is created just once
+        assertSame(cevent, event.getClientEvent());
+        assertSame(msg, event.getArgs()[0]);
+    }
+}
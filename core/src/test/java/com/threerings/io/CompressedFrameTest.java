@@ -0,0 +1,191 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests frames compressed by {@link FrameDeflater} and read back by {@link
+ * InflatingFramedInputStream}.
+ */
+public class CompressedFrameTest
+{
+    @Test
+    public void testRoundTrip ()
+        throws IOException
+    {
+        for (int dictSize : new int[] { 0, 64, 32 * 1024 }) {
+            checkRoundTrip(createFrames(), 0, dictSize);
+        }
+    }
+
+    @Test
+    public void testStartInflatingMidStream ()
+        throws IOException
+    {
+        // the first few frames are sent as is, as they would be during negotiation
+        checkRoundTrip(createFrames(), 3, 1024);
+    }
+
+    @Test
+    public void testCompressesAcrossFrames ()
+        throws IOException
+    {
+        // a frame that repeats the previous one should compress to almost nothing when the
+        // compressor is primed with what came before
+        byte[] data = new byte[2048];
+        new Random(7).nextBytes(data);
+        FrameDeflater deflater = new FrameDeflater(6, 32, 4096);
+        int first = deflater.deflate(frame(data)).length;
+        int second = deflater.deflate(frame(data)).length;
+        assertTrue("first frame compressed: " + first, first > data.length);
+        assertTrue("second frame compressed: " + second, second < data.length / 10);
+    }
+
+    /**
+     * Writes the supplied frames, compressing all but the first <code>plain</code> of them, and
+     * reads them back in dribs and drabs so that reads span frame boundaries.
+     */
+    protected void checkRoundTrip (List<byte[]> frames, int plain, int dictSize)
+        throws IOException
+    {
+        FrameDeflater deflater = new FrameDeflater(6, 32, dictSize);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        for (int ii = 0; ii < frames.size(); ii++) {
+            ByteBuffer frame = frame(frames.get(ii));
+            if (ii < plain) {
+                byte[] data = new byte[frame.limit()];
+                frame.get(data);
+                bout.write(data);
+            } else {
+                bout.write(deflater.deflate(frame));
+            }
+        }
+
+        ReadableByteChannel in = new DribblingChannel(bout.toByteArray());
+        InflatingFramedInputStream fin = new InflatingFramedInputStream();
+        DataInputStream din = new DataInputStream(fin);
+        for (int ii = 0; ii < frames.size(); ii++) {
+            if (ii == plain) {
+                fin.startInflating(dictSize);
+            }
+            while (!fin.readFrame(in)) {} // loop!
+            byte[] expect = frames.get(ii);
+            byte[] data = new byte[expect.length];
+            din.readFully(data);
+            assertArrayEquals("frame " + ii, expect, data);
+            assertEquals("frame " + ii + " eof", -1, fin.read());
+        }
+    }
+
+    /**
+     * Creates a mix of small, repetitive, incompressible and large frames.
+     */
+    protected static List<byte[]> createFrames ()
+    {
+        Random rando = new Random(42);
+        List<byte[]> frames = Lists.newArrayList();
+        for (int ii = 0; ii < 40; ii++) {
+            byte[] data;
+            switch (ii % 4) {
+            case 0: // too small to compress
+                data = new byte[rando.nextInt(32)];
+                rando.nextBytes(data);
+                break;
+            case 1: // repetitive text
+                StringBuilder buf = new StringBuilder();
+                for (int jj = rando.nextInt(200); jj >= 0; jj--) {
+                    buf.append("Hello world, this is message ").append(jj % 7).append(". ");
+                }
+                data = buf.toString().getBytes();
+                break;
+            case 2: // incompressible
+                data = new byte[rando.nextInt(4096)];
+                rando.nextBytes(data);
+                break;
+            default: // larger than any dictionary
+                data = new byte[64 * 1024 + rando.nextInt(1024)];
+                for (int jj = 0; jj < data.length; jj++) {
+                    data[jj] = (byte)(jj % 251);
+                }
+                break;
+            }
+            frames.add(data);
+        }
+        return frames;
+    }
+
+    /**
+     * Frames the supplied data as would the connection manager.
+     */
+    protected static ByteBuffer frame (byte[] data)
+        throws IOException
+    {
+        FramingOutputStream fout = new FramingOutputStream();
+        new DataOutputStream(fout).write(data);
+        return fout.frameAndReturnBuffer();
+    }
+
+    /** Returns the bytes of a buffer a few at a time. */
+    protected static class DribblingChannel implements ReadableByteChannel
+    {
+        public DribblingChannel (byte[] data) {
+            _data = ByteBuffer.wrap(data);
+        }
+
+        public int read (ByteBuffer dst) throws IOException {
+            if (!_data.hasRemaining()) {
+                throw new EOFException();
+            }
+            int count = Math.min(Math.min(dst.remaining(), _data.remaining()), 1 + _reads++ % 97);
+            ByteBuffer chunk = _data.slice();
+            chunk.limit(count);
+            dst.put(chunk);
+            _data.position(_data.position() + count);
+            return count;
+        }
+
+        public boolean isOpen () {
+            return true;
+        }
+
+        public void close () {
+        }
+
+        protected ByteBuffer _data;
+        protected int _reads;
+    }
+}
@@ -0,0 +1,150 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.dobj;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.SimpleStreamableObject;
+
+/**
+ * Tests the {@link EntryDeltaEvent} class.
+ */
+public class EntryDeltaEventTest
+{
+    public static class TestEntry extends SimpleStreamableObject
+        implements DSet.Entry
+    {
+        public int key;
+        public String name;
+        public byte status;
+        public int[] scores;
+
+        public TestEntry ()
+        {
+        }
+
+        public TestEntry (int key, String name, byte status, int[] scores)
+        {
+            this.key = key;
+            this.name = name;
+            this.status = status;
+            this.scores = scores;
+        }
+
+        public Comparable<?> getKey ()
+        {
+            return key;
+        }
+    }
+
+    public static class TestSetObject extends DObject
+    {
+        public DSet<TestEntry> entries = DSet.newDSet();
+    }
+
+    @Test
+    public void testRoundTrip ()
+        throws Exception
+    {
+        TestEntry oentry = new TestEntry(3, "bob", (byte)0, new int[] { 1, 2 });
+        TestEntry nentry = new TestEntry(3, "bob", (byte)2, new int[] { 1, 5 });
+        assertTrue(EntryDeltaEvent.supports(nentry, oentry));
+
+        EntryDeltaEvent<TestEntry> event =
+            new EntryDeltaEvent<TestEntry>(9, "entries", nentry, oentry);
+        assertEquals(2, event.getChangedFieldCount());
+
+        EntryDeltaEvent<TestEntry> revent = roundTrip(event);
+        assertEquals(9, revent.getTargetOid());
+        assertEquals("entries", revent.getName());
+        assertEquals(3, revent.getKey());
+        assertEquals(2, revent.getChangedFieldCount());
+
+        // apply the delta to a set holding its own copy of the old entry
+        TestSetObject target = new TestSetObject();
+        target.entries.add(new TestEntry(3, "bob", (byte)0, new int[] { 1, 2 }));
+        target.entries.add(new TestEntry(4, "jim", (byte)1, null));
+        assertTrue(revent.applyToObject(target));
+
+        TestEntry applied = target.entries.get(3);
+        assertEquals("bob", applied.name);
+        assertEquals(2, applied.status);
+        assertArrayEquals(new int[] { 1, 5 }, applied.scores);
+        assertEquals(0, revent.getOldEntry().status);
+        assertSame(applied, revent.getEntry());
+        assertEquals(1, target.entries.get(4).status);
+    }
+
+    @Test
+    public void testNullValues ()
+        throws Exception
+    {
+        TestEntry oentry = new TestEntry(3, "bob", (byte)0, new int[] { 1 });
+        TestEntry nentry = new TestEntry(3, null, (byte)0, null);
+        EntryDeltaEvent<TestEntry> revent =
+            roundTrip(new EntryDeltaEvent<TestEntry>(9, "entries", nentry, oentry));
+        assertEquals(2, revent.getChangedFieldCount());
+
+        TestSetObject target = new TestSetObject();
+        target.entries.add(oentry);
+        assertTrue(revent.applyToObject(target));
+        assertNull(target.entries.get(3).name);
+        assertNull(target.entries.get(3).scores);
+    }
+
+    @Test
+    public void testMissingEntry ()
+        throws Exception
+    {
+        TestEntry oentry = new TestEntry(3, "bob", (byte)0, null);
+        TestEntry nentry = new TestEntry(3, "bob", (byte)1, null);
+        EntryDeltaEvent<TestEntry> revent =
+            roundTrip(new EntryDeltaEvent<TestEntry>(9, "entries", nentry, oentry));
+
+        // an object that doesn't have the entry can't apply the delta
+        TestSetObject target = new TestSetObject();
+        target.entries.add(new TestEntry(4, "jim", (byte)0, null));
+        assertFalse(revent.applyToObject(target));
+        assertNull(target.entries.get(3));
+    }
+
+    protected static <T extends DSet.Entry> EntryDeltaEvent<T> roundTrip (EntryDeltaEvent<T> event)
+        throws IOException, ClassNotFoundException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(event);
+        oout.flush();
+
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(bout.toByteArray()));
+        @SuppressWarnings("unchecked") EntryDeltaEvent<T> revent =
+            (EntryDeltaEvent<T>)oin.readObject();
+        return revent;
+    }
+}
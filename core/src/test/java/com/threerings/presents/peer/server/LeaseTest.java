@@ -0,0 +1,183 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.peer.server;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.threerings.presents.peer.data.NodeObject;
+import com.threerings.presents.peer.server.PeerManager.LeaseRequest;
+import com.threerings.presents.peer.server.PeerManager.LeaseResult;
+import com.threerings.presents.peer.server.persist.NodeRecord;
+import com.threerings.presents.server.InvocationException;
+
+/**
+ * Tests the lock arbiter's handling of lease requests.
+ */
+public class LeaseTest
+{
+    @Before
+    public void setUp ()
+        throws Exception
+    {
+        _group = new PeerTestGroup(1, true);
+        _peermgr = _group.injectors.get(0).getInstance(TestPeerManager.class);
+    }
+
+    @Test
+    public void testArbiter ()
+    {
+        // we won't arbitrate until we know the cluster membership
+        assertNotNull(_peermgr.checkLeaseArbiter());
+        _peermgr._membershipLoaded = true;
+        assertNull(_peermgr.checkLeaseArbiter());
+
+        // nor while we're not connected to a member with lower priority
+        PeerNode lower = addPeer("node1");
+        assertEquals("node0", _peermgr.getLockArbiter());
+        assertNotNull(_peermgr.checkLeaseArbiter());
+        lower.nodeobj = new NodeObject();
+        assertNull(_peermgr.checkLeaseArbiter());
+
+        // a live member with higher priority is the arbiter, whether or not we're connected to it
+        addPeer("a-node");
+        assertEquals("a-node", _peermgr.getLockArbiter());
+        assertNotNull(_peermgr.checkLeaseArbiter());
+        try {
+            _peermgr.processLeaseRequest("node1", LeaseRequest.ACQUIRE, locks(LOCK_A));
+            fail("Granted lease without being the arbiter");
+        } catch (InvocationException ie) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPeerFailure ()
+        throws InvocationException
+    {
+        _peermgr._membershipLoaded = true;
+        PeerNode survivor = addPeer("node1");
+        survivor.nodeobj = new NodeObject();
+        PeerNode victim = addPeer("node2");
+        victim.nodeobj = new NodeObject();
+        assertEquals(1L, acquire("node1", LOCK_A).tokens[0]);
+
+        // while we wait to see whether a silent peer has failed, we grant no new leases...
+        victim.nodeobj = null;
+        assertNotNull(_peermgr.checkLeaseArbiter());
+        try {
+            acquire("node1", LOCK_B);
+            fail("Granted lease while unsure of membership");
+        } catch (InvocationException ie) {
+            // expected
+        }
+
+        // ...but we continue to renew those we have granted, and defer the rest
+        LeaseResult result = _peermgr.processLeaseRequest(
+            "node1", LeaseRequest.RENEW, locks(LOCK_A, LOCK_B));
+        assertEquals(1L, result.tokens[0]);
+        assertNull(result.owners[1]);
+        assertEquals(0L, result.tokens[1]);
+
+        // once the peer has failed, we carry on without it
+        victim._lastHeartbeat -= 2 * _peermgr.getLeaseDuration();
+        assertNull(_peermgr.checkLeaseArbiter());
+        assertEquals(2L, acquire("node1", LOCK_B).tokens[0]);
+
+        // likewise if the arbiter itself fails
+        PeerNode arbiter = addPeer("a-node");
+        assertEquals("a-node", _peermgr.getLockArbiter());
+        arbiter._lastHeartbeat -= 2 * _peermgr.getLeaseDuration();
+        assertEquals("node0", _peermgr.getLockArbiter());
+        assertNull(_peermgr.checkLeaseArbiter());
+    }
+
+    @Test
+    public void testTokens ()
+        throws InvocationException
+    {
+        _peermgr._membershipLoaded = true;
+
+        LeaseResult result = acquire("node1", LOCK_A);
+        assertEquals("node1", result.owners[0]);
+        assertEquals(1L, result.tokens[0]);
+
+        // another node is told who holds the lock
+        result = acquire("node2", LOCK_A);
+        assertEquals("node1", result.owners[0]);
+        assertEquals(0L, result.tokens[0]);
+
+        // renewals keep their token
+        result = _peermgr.processLeaseRequest("node1", LeaseRequest.RENEW, locks(LOCK_A));
+        assertEquals(1L, result.tokens[0]);
+
+        // a new lease gets a new token, which we publish for any future arbiter
+        _peermgr.processLeaseRequest("node1", LeaseRequest.RELEASE, locks(LOCK_A));
+        result = acquire("node2", LOCK_A);
+        assertEquals("node2", result.owners[0]);
+        assertEquals(2L, result.tokens[0]);
+        assertEquals(2L, _peermgr.getNodeObject().leaseToken);
+
+        // and we continue from above the tokens granted by any previous arbiter
+        _peermgr.observedLeaseToken(10L);
+        assertEquals(11L, acquire("node1", LOCK_B).tokens[0]);
+    }
+
+    @Test
+    public void testFencingToken ()
+    {
+        long now = System.currentTimeMillis();
+        _peermgr.leaseGranted(LOCK_A, 5L, now, 0L);
+        assertEquals(5L, _peermgr.getFencingToken(LOCK_A));
+
+        // a lease that has expired has no token, even if we've yet to notice its expiry
+        _peermgr.leaseGranted(LOCK_B, 6L, now - 2 * _peermgr.getLeaseDuration(), 0L);
+        assertEquals(0L, _peermgr.getFencingToken(LOCK_B));
+        assertEquals(6L, _peermgr.getNodeObject().leaseToken);
+    }
+
+    protected LeaseResult acquire (String nodeName, NodeObject.Lock lock)
+        throws InvocationException
+    {
+        return _peermgr.processLeaseRequest(nodeName, LeaseRequest.ACQUIRE, locks(lock));
+    }
+
+    protected PeerNode addPeer (String nodeName)
+    {
+        PeerNode peer = _group.injectors.get(0).getInstance(PeerNode.class);
+        peer.init(new NodeRecord(nodeName, "localhost", "localhost", null, 0));
+        _peermgr._peers.put(nodeName, peer);
+        return peer;
+    }
+
+    protected static NodeObject.Lock[] locks (NodeObject.Lock... locks)
+    {
+        return locks;
+    }
+
+    protected PeerTestGroup _group;
+    protected TestPeerManager _peermgr;
+
+    protected static final NodeObject.Lock LOCK_A = new NodeObject.Lock("test", "a");
+    protected static final NodeObject.Lock LOCK_B = new NodeObject.Lock("test", "b");
+}
@@ -0,0 +1,92 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.peer.server;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.threerings.util.Name;
+
+import com.threerings.presents.data.AuthCodes;
+import com.threerings.presents.data.ClientObject;
+import com.threerings.presents.net.Credentials;
+import com.threerings.presents.net.MigrationCreds;
+import com.threerings.presents.net.UsernamePasswordCreds;
+import com.threerings.presents.server.AuthenticatorTestBase;
+
+/**
+ * Tests the authentication of clients migrating to a server with a ticket issued by its {@link
+ * PeerManager}.
+ */
+public class MigrationTest extends AuthenticatorTestBase
+{
+    @Before
+    public void setUp ()
+        throws Exception
+    {
+        PeerTestGroup group = new PeerTestGroup(1, true);
+        _peermgr = group.injectors.get(0).getInstance(TestPeerManager.class);
+        _auth = _peermgr.new MigrationAuthenticator();
+    }
+
+    @Test
+    public void testMigrate ()
+        throws Exception
+    {
+        Credentials creds = new UsernamePasswordCreds(new Name("bob"), "secret");
+        ClientObject clobj = new ClientObject();
+        String ticket = _peermgr.acceptMigrant(new Name("bob"), creds, clobj);
+
+        // the client may claim whatever credentials it likes, but we use those from its old server
+        MigrationCreds mcreds = new MigrationCreds(
+            ticket, new UsernamePasswordCreds(new Name("admin"), "guess"));
+        assertNull(MigrationCreds.unwrap(mcreds));
+        assertEquals(new Name("bob"), authenticate(_auth, mcreds).getAuthName());
+        assertSame(creds, MigrationCreds.unwrap(mcreds));
+        assertFalse(mcreds.toString().contains(ticket));
+
+        // the migrated object goes to the session started with these credentials and no other
+        assertSame(clobj, mcreds.takeMigratedObject());
+        assertNull(mcreds.takeMigratedObject());
+
+        // tickets may only be used once
+        assertRejected(new MigrationCreds(ticket, creds));
+    }
+
+    @Test
+    public void testBogusTicket ()
+    {
+        _peermgr.acceptMigrant(new Name("bob"), null, new ClientObject());
+        assertRejected(new MigrationCreds("cafebabe", null));
+        assertRejected(new MigrationCreds(null, null));
+    }
+
+    protected void assertRejected (MigrationCreds creds)
+    {
+        assertRejected(_auth, creds, AuthCodes.INVALID_TICKET);
+        assertNull(MigrationCreds.unwrap(creds));
+    }
+
+    protected TestPeerManager _peermgr;
+    protected PeerManager.MigrationAuthenticator _auth;
+}
@@ -0,0 +1,77 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+
+package com.threerings.presents.server;
+
+import static org.junit.Assert.*;
+
+import com.threerings.presents.net.AuthRequest;
+import com.threerings.presents.net.AuthResponse;
+import com.threerings.presents.net.AuthResponseData;
+import com.threerings.presents.net.Credentials;
+import com.threerings.presents.server.net.AuthingConnection;
+
+/**
+ * Lets authenticators be tested without a running server by handing them connections that have
+ * received an auth request with the desired credentials.
+ */
+public class AuthenticatorTestBase
+{
+    /**
+     * Has the supplied authenticator check a connection presenting the supplied credentials,
+     * asserts that it succeeded and returns the connection.
+     */
+    protected AuthingConnection authenticate (Authenticator auth, Credentials creds)
+        throws Exception
+    {
+        AuthingConnection conn = new TestConnection(creds);
+        AuthResponse rsp = new AuthResponse(new AuthResponseData());
+        auth.processAuthentication(conn, rsp);
+        assertEquals(AuthResponseData.SUCCESS, rsp.getData().code);
+        return conn;
+    }
+
+    /**
+     * Asserts that the supplied authenticator rejects a connection presenting the supplied
+     * credentials with the specified error code.
+     */
+    protected void assertRejected (Authenticator auth, Credentials creds, String code)
+    {
+        try {
+            auth.processAuthentication(
+                new TestConnection(creds), new AuthResponse(new AuthResponseData()));
+            fail("Accepted bogus credentials " + creds);
+        } catch (Authenticator.AuthException ae) {
+            assertEquals(code, ae.getMessage());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** A connection that has received an auth request with the supplied credentials. */
+    protected static class TestConnection extends AuthingConnection
+    {
+        public TestConnection (Credentials creds) {
+            _authreq = new AuthRequest(creds, "", null);
+        }
+    }
+}
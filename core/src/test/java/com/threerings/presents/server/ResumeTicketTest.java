@@ -0,0 +1,104 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.threerings.util.Name;
+
+import com.threerings.presents.data.AuthCodes;
+import com.threerings.presents.net.ResumeTicketCreds;
+import com.threerings.presents.server.net.AuthingConnection;
+
+/**
+ * Tests the issuing and checking of resume tickets by the {@link ResumeTicketAuthenticator}.
+ */
+public class ResumeTicketTest extends AuthenticatorTestBase
+{
+    @Before
+    public void setUp ()
+    {
+        _auth = createAuthenticator(60 * 1000L);
+        _session = new PresentsSession();
+        _session._authname = new Name("bob");
+    }
+
+    @Test
+    public void testResume ()
+        throws Exception
+    {
+        String ticket = _auth.issueTicket(_session);
+        AuthingConnection conn = authenticate(_auth, new ResumeTicketCreds(ticket));
+        assertEquals(new Name("bob"), conn.getAuthName());
+
+        // the ticket may be presented again until it is superseded or the session ends
+        authenticate(_auth, new ResumeTicketCreds(ticket));
+        String next = _auth.issueTicket(_session);
+        assertRejected(ticket);
+        authenticate(_auth, new ResumeTicketCreds(next));
+        _auth.clientSessionDidEnd(_session);
+        assertRejected(next);
+    }
+
+    @Test
+    public void testForged ()
+    {
+        String ticket = _auth.issueTicket(_session);
+
+        // changing the ticket id or expiry invalidates the signature
+        char c = ticket.charAt(20);
+        assertRejected(ticket.substring(0, 20) + (c == '0' ? '1' : '0') + ticket.substring(21));
+
+        // tickets are only good on the server that issued them
+        String other = createAuthenticator(60 * 1000L).issueTicket(_session);
+        assertRejected(other);
+
+        assertRejected("cafebabe");
+        assertRejected(null);
+    }
+
+    @Test
+    public void testExpired ()
+    {
+        _auth._ttl = -1000L;
+        assertRejected(_auth.issueTicket(_session));
+    }
+
+    protected void assertRejected (String ticket)
+    {
+        assertRejected(_auth, new ResumeTicketCreds(ticket), AuthCodes.INVALID_TICKET);
+    }
+
+    protected static ResumeTicketAuthenticator createAuthenticator (long ttl)
+    {
+        // we skip enable(), which wires the authenticator into a running server
+        ResumeTicketAuthenticator auth = new ResumeTicketAuthenticator();
+        auth._enabled = true;
+        auth._ttl = ttl;
+        return auth;
+    }
+
+    protected ResumeTicketAuthenticator _auth;
+    protected PresentsSession _session;
+}